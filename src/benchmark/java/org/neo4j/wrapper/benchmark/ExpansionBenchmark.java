@@ -0,0 +1,65 @@
+package org.neo4j.wrapper.benchmark;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.wrapper.ObjectGraphDatabaseService;
+import org.neo4j.wrapper.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relationship expansion along a deep chain, run with -prof gc to see the allocation per hop.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpansionBenchmark {
+    private static final RelationshipType NEXT = DynamicRelationshipType.withName("next");
+
+    @Param({"1000"})
+    public int depth;
+
+    private ObjectGraphDatabaseService gdb;
+
+    @Setup
+    public void createGraph() {
+        gdb = new ObjectGraphDatabaseService(GraphGenerators.chain(depth));
+    }
+
+    @Benchmark
+    public void expandChain(Blackhole blackhole) {
+        Node node = gdb.getReferenceNode();
+        while (node != null) {
+            Node next = null;
+            for (Relationship relationship : node.getRelationships(Direction.OUTGOING, NEXT)) {
+                next = relationship.getEndNode();
+            }
+            blackhole.consume(next);
+            node = next;
+        }
+    }
+
+    @Benchmark
+    public void expandAllFields(Blackhole blackhole) {
+        ObjectNode node = gdb.getReferenceNode();
+        while (node != null) {
+            ObjectNode next = null;
+            for (Relationship relationship : node.getRelationships(Direction.OUTGOING)) {
+                next = (ObjectNode) relationship.getEndNode();
+            }
+            blackhole.consume(next);
+            node = next;
+        }
+    }
+}
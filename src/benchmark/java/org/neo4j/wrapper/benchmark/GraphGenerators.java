@@ -0,0 +1,188 @@
+package org.neo4j.wrapper.benchmark;
+
+import org.neo4j.wrapper.ObjectGraphDatabaseService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Synthetic object networks for the benchmarks, all generated from a fixed seed so runs are comparable.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+public class GraphGenerators {
+    public static final long SEED = 42;
+
+    public static class User {
+        private String twid;
+        private Collection<Tweet> tweeted = new ArrayList<Tweet>();
+        private Collection<User> follows = new ArrayList<User>();
+
+        User(String twid) {
+            this.twid = twid;
+        }
+
+        public String getTwid() {
+            return twid;
+        }
+    }
+
+    public static class Tag {
+        private String name;
+        private Collection<Tweet> tagged = new ArrayList<Tweet>();
+
+        Tag(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static class Tweet {
+        private String text;
+        private long date;
+        private User tweeted;
+        private Collection<Tag> tagged = new HashSet<Tag>(4);
+
+        Tweet(String text, long date, User user) {
+            this.text = text;
+            this.date = date;
+            this.tweeted = user;
+        }
+    }
+
+    public static class Vertex {
+        private int id;
+        private String name;
+        private Collection<Vertex> edges = new ArrayList<Vertex>(4);
+
+        Vertex(int id) {
+            this.id = id;
+            this.name = "v" + id;
+        }
+    }
+
+    public static class Link {
+        private int position;
+        private Collection<Link> next = new ArrayList<Link>(1);
+
+        Link(int position) {
+            this.position = position;
+        }
+    }
+
+    public static class Twitter {
+        public final User[] users;
+        public final Tag[] tags;
+        public final Tweet[] tweets;
+
+        Twitter(User[] users, Tag[] tags, Tweet[] tweets) {
+            this.users = users;
+            this.tags = tags;
+            this.tweets = tweets;
+        }
+
+        public User getRoot() {
+            return users[0];
+        }
+    }
+
+    /**
+     * The User/Tweet/Tag model, every user tweets the same number of times with one to three tags.
+     * Tag popularity and the number of followed users are skewed so that a few tags and users are hubs.
+     */
+    public static Twitter twitter(int userCount, int tweetsPerUser, int tagCount) {
+        final Random random = new Random(SEED);
+        final User[] users = new User[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users[i] = new User("user" + i);
+        }
+        final Tag[] tags = new Tag[tagCount];
+        for (int i = 0; i < tagCount; i++) {
+            tags[i] = new Tag("tag" + i);
+        }
+        for (User user : users) {
+            final int follows = 1 + skewed(random, Math.min(userCount, 100));
+            for (int i = 0; i < follows; i++) {
+                user.follows.add(users[skewed(random, userCount)]);
+            }
+        }
+        final Tweet[] tweets = new Tweet[userCount * tweetsPerUser];
+        int count = 0;
+        for (User user : users) {
+            for (int i = 0; i < tweetsPerUser; i++) {
+                final Tweet tweet = new Tweet("tweet" + count + " by " + user.twid, 1300000000000L + count, user);
+                final int tagged = 1 + random.nextInt(3);
+                for (int t = 0; t < tagged; t++) {
+                    final Tag tag = tags[skewed(random, tagCount)];
+                    if (tweet.tagged.add(tag)) tag.tagged.add(tweet);
+                }
+                user.tweeted.add(tweet);
+                tweets[count++] = tweet;
+            }
+        }
+        return new Twitter(users, tags, tweets);
+    }
+
+    /**
+     * Preferential attachment graph, every new vertex links to {@code edgesPerVertex} existing vertices
+     * chosen proportional to their degree. Edges are stored in both directions so all vertices are
+     * reachable from the first one.
+     */
+    public static Vertex[] powerLaw(int size, int edgesPerVertex) {
+        final Random random = new Random(SEED);
+        final Vertex[] vertices = new Vertex[size];
+        // every edge contributes both endpoints, picking a random entry is picking proportional to degree
+        final int[] endpoints = new int[2 * size * edgesPerVertex];
+        int endpointCount = 0;
+        vertices[0] = new Vertex(0);
+        for (int i = 1; i < size; i++) {
+            vertices[i] = new Vertex(i);
+            for (int e = 0; e < edgesPerVertex; e++) {
+                final int target = endpointCount == 0 ? 0 : endpoints[random.nextInt(endpointCount)];
+                vertices[i].edges.add(vertices[target]);
+                vertices[target].edges.add(vertices[i]);
+                endpoints[endpointCount++] = i;
+                endpoints[endpointCount++] = target;
+            }
+        }
+        return vertices;
+    }
+
+    /**
+     * @return the first link of a chain of the given length
+     */
+    public static Link chain(int depth) {
+        final Link root = new Link(0);
+        Link current = root;
+        for (int i = 1; i < depth; i++) {
+            final Link link = new Link(i);
+            current.next.add(link);
+            current = link;
+        }
+        return root;
+    }
+
+    /**
+     * @return node ids of the objects, for benchmarks that look up random nodes
+     */
+    public static long[] sampleIds(ObjectGraphDatabaseService gdb, Object[] objects, int samples) {
+        final Random random = new Random(SEED);
+        final long[] ids = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            ids[i] = gdb.createNode(objects[random.nextInt(objects.length)]).getId();
+        }
+        return ids;
+    }
+
+    // roughly zipf distributed index in [0, max)
+    private static int skewed(Random random, int max) {
+        final double r = random.nextDouble();
+        return (int) (max * r * r * r);
+    }
+}
@@ -0,0 +1,64 @@
+package org.neo4j.wrapper.benchmark;
+
+import org.neo4j.wrapper.ObjectGraphConfig;
+import org.neo4j.wrapper.ObjectGraphDatabaseService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+/**
+ * Startup time of the eager discovery and index build depending on the number of scanner threads.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanBenchmark {
+    @Param({"1", "4", "16"})
+    public int threads;
+
+    @Param({"1000000"})
+    public int size;
+
+    private Item root;
+
+    public static class Item {
+        private String name;
+        private long value;
+        private Collection<Item> links = new ArrayList<Item>(4);
+
+        Item(String name, long value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    @Setup
+    public void createGraph() {
+        final Random random = new Random(42);
+        final Item[] items = new Item[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = new Item("item" + i, random.nextInt(1000));
+        }
+        for (int i = 1; i < size; i++) {
+            items[(i - 1) / 4].links.add(items[i]);
+            items[i].links.add(items[random.nextInt(size)]);
+        }
+        root = items[0];
+    }
+
+    @Benchmark
+    public ObjectGraphDatabaseService eagerScan() {
+        return new ObjectGraphDatabaseService(root, stringMap(ObjectGraphConfig.DISCOVERY_THREADS, String.valueOf(threads)));
+    }
+}
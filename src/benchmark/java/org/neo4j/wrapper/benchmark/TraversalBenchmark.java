@@ -0,0 +1,121 @@
+package org.neo4j.wrapper.benchmark;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.kernel.Traversal;
+import org.neo4j.wrapper.AdjacencySnapshot;
+import org.neo4j.wrapper.ObjectGraphDatabaseService;
+import org.neo4j.wrapper.ParallelTraversal;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breadth first traversals over a power-law graph and a deep chain, with the Neo4j traversal framework
+ * and with the native traversal engine of the object graph, sequentially and level by level on a thread pool,
+ * and on an adjacency snapshot of the graph.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TraversalBenchmark {
+    private static final RelationshipType EDGES = DynamicRelationshipType.withName("edges");
+    private static final RelationshipType NEXT = DynamicRelationshipType.withName("next");
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"3"})
+    public int edgesPerVertex;
+
+    @Param({"3"})
+    public int depth;
+
+    private ObjectGraphDatabaseService powerLaw;
+    private ObjectGraphDatabaseService chain;
+    private TraversalDescription powerLawBfs;
+    private TraversalDescription chainBfs;
+    private TraversalDescription nativePowerLawBfs;
+    private TraversalDescription nativeChainBfs;
+    private ParallelTraversal parallelPowerLawBfs;
+    private AdjacencySnapshot powerLawSnapshot;
+
+    @Setup
+    public void createGraphs() {
+        powerLaw = new ObjectGraphDatabaseService(GraphGenerators.powerLaw(size, edgesPerVertex)[0]);
+        chain = new ObjectGraphDatabaseService(GraphGenerators.chain(size));
+        powerLawBfs = Traversal.description().breadthFirst().relationships(EDGES, Direction.OUTGOING).evaluator(Evaluators.toDepth(depth));
+        chainBfs = Traversal.description().breadthFirst().relationships(NEXT, Direction.OUTGOING);
+        nativePowerLawBfs = powerLaw.traversalDescription().breadthFirst().relationships(EDGES, Direction.OUTGOING).toDepth(depth);
+        nativeChainBfs = chain.traversalDescription().breadthFirst().relationships(NEXT, Direction.OUTGOING);
+        parallelPowerLawBfs = powerLaw.parallelTraversal().relationships(EDGES, Direction.OUTGOING).toDepth(depth);
+        powerLawSnapshot = powerLaw.snapshot(EDGES);
+    }
+
+    @TearDown
+    public void shutdown() {
+        powerLaw.shutdown();
+        chain.shutdown();
+    }
+
+    @Benchmark
+    public int bfsPowerLaw() {
+        int count = 0;
+        for (Node ignored : powerLawBfs.traverse(powerLaw.getReferenceNode()).nodes()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int bfsChain() {
+        int count = 0;
+        for (Node ignored : chainBfs.traverse(chain.getReferenceNode()).nodes()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int nativeBfsPowerLaw() {
+        int count = 0;
+        for (Node ignored : nativePowerLawBfs.traverse(powerLaw.getReferenceNode()).nodes()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int nativeBfsChain() {
+        int count = 0;
+        for (Node ignored : nativeChainBfs.traverse(chain.getReferenceNode()).nodes()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int parallelBfsPowerLaw() {
+        return parallelPowerLawBfs.countReachable(powerLaw.getReferenceNode());
+    }
+
+    @Benchmark
+    public int snapshotBfsPowerLaw() {
+        return powerLawSnapshot.breadthFirst((int) powerLaw.getReferenceNode().getId(), Direction.OUTGOING, depth).length;
+    }
+
+    @Benchmark
+    public AdjacencySnapshot buildSnapshotPowerLaw() {
+        return powerLaw.snapshot(EDGES);
+    }
+}
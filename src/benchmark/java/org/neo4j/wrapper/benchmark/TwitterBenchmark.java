@@ -0,0 +1,166 @@
+package org.neo4j.wrapper.benchmark;
+
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.wrapper.ObjectGraphConfig;
+import org.neo4j.wrapper.ObjectGraphDatabaseService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+import static org.neo4j.wrapper.benchmark.GraphGenerators.*;
+
+/**
+ * Point operations on the User/Tweet/Tag model, reports throughput and the latency distribution,
+ * add -prof gc for the allocation rate.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TwitterBenchmark {
+    private static final int SAMPLES = 1 << 12;
+    private static final RelationshipType TWEETED = DynamicRelationshipType.withName("tweeted");
+    private static final RelationshipType TAGGED = DynamicRelationshipType.withName("tagged");
+
+    @Param({"10000"})
+    public int users;
+
+    @Param({"100"})
+    public int tweetsPerUser;
+
+    @Param({"1000"})
+    public int tags;
+
+    // compare with -p offHeapIndex=false,true
+    @Param({"false"})
+    public boolean offHeapIndex;
+
+    // compare with -p openTransaction=false,true, another thread keeps a transaction open while reading
+    @Param({"false"})
+    public boolean openTransaction;
+
+    private ObjectGraphDatabaseService gdb;
+    private ExecutionEngine engine;
+    private Index<Node> userIndex;
+    private long[] userIds;
+    private long[] tweetIds;
+    private long[] tagIds;
+    private String[] twids;
+    private CountDownLatch finishTransaction;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            return next++ & (SAMPLES - 1);
+        }
+    }
+
+    @Setup
+    public void createGraph() throws InterruptedException {
+        final Twitter twitter = twitter(users, tweetsPerUser, tags);
+        gdb = new ObjectGraphDatabaseService(twitter.getRoot(), stringMap(ObjectGraphConfig.REVERSE_INDEX, "true",
+                ObjectGraphConfig.OFF_HEAP_INDEX, String.valueOf(offHeapIndex)));
+        engine = new ExecutionEngine(gdb);
+        userIndex = gdb.index().forNodes(gdb.indexName(User.class));
+        userIds = sampleIds(gdb, twitter.users, SAMPLES);
+        tweetIds = sampleIds(gdb, twitter.tweets, SAMPLES);
+        tagIds = sampleIds(gdb, twitter.tags, SAMPLES);
+        twids = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            twids[i] = (String) gdb.getNodeById(userIds[i]).getProperty("twid");
+        }
+        if (openTransaction) beginTransaction();
+    }
+
+    private void beginTransaction() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        finishTransaction = new CountDownLatch(1);
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final Transaction tx = gdb.beginTx();
+                try {
+                    started.countDown();
+                    finishTransaction.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    tx.finish();
+                }
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+        started.await();
+    }
+
+    @TearDown
+    public void finishTransaction() {
+        if (finishTransaction != null) finishTransaction.countDown();
+    }
+
+    @Benchmark
+    public Node getNodeById(Cursor cursor) {
+        return gdb.getNodeById(tweetIds[cursor.next()]);
+    }
+
+    @Benchmark
+    public Object getProperty(Cursor cursor) {
+        return gdb.getNodeById(tweetIds[cursor.next()]).getProperty("text");
+    }
+
+    @Benchmark
+    public void getOutgoingRelationshipsByType(Cursor cursor, Blackhole blackhole) {
+        for (Relationship relationship : gdb.getNodeById(userIds[cursor.next()]).getRelationships(Direction.OUTGOING, TWEETED)) {
+            blackhole.consume(relationship.getEndNode());
+        }
+    }
+
+    @Benchmark
+    public void getIncomingRelationshipsByType(Cursor cursor, Blackhole blackhole) {
+        for (Relationship relationship : gdb.getNodeById(tweetIds[cursor.next()]).getRelationships(Direction.INCOMING, TAGGED)) {
+            blackhole.consume(relationship.getStartNode());
+        }
+    }
+
+    @Benchmark
+    public void getAllRelationships(Cursor cursor, Blackhole blackhole) {
+        for (Relationship relationship : gdb.getNodeById(tagIds[cursor.next()]).getRelationships(Direction.BOTH)) {
+            blackhole.consume(relationship);
+        }
+    }
+
+    @Benchmark
+    public Node indexGet(Cursor cursor) {
+        return userIndex.get("twid", twids[cursor.next()]).getSingle();
+    }
+
+    @Benchmark
+    public void cypherMatch(Cursor cursor, Blackhole blackhole) {
+        final Map<String, Object> params = map("user", gdb.getNodeById(userIds[cursor.next()]));
+        final Iterator<Object> tags = engine.execute("start me=node({user}) match me-[:tweeted]->tweet-[:tagged]->tag return tag", params).columnAs("tag");
+        while (tags.hasNext()) {
+            blackhole.consume(tags.next());
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Read-only point in time copy of the relationships of the object graph in compressed sparse rows, one pair
+ * of rows per relationship type and direction, keyed by dense node id: the targets of the outgoing relationships
+ * of type {@code t} of node {@code n} are {@code targets(t, OUTGOING)[offsets(t, OUTGOING)[n]..offsets(t, OUTGOING)[n + 1]]}
+ * and the incoming ones are stored the same way. Each relationship takes 4 bytes per direction, plus the
+ * offsets of each type and direction per node. Algorithms and traversals run on the int arrays without
+ * touching the objects, see {@link #algorithms()} and {@link #breadthFirst}.
+ * <p>
+ * Taken with {@link ObjectGraphDatabaseService#snapshot}, the nodes are read in chunks on the traversal pool.
+ * Relationships created later and nodes registered while it is taken are not seen.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+public final class AdjacencySnapshot {
+    private static final int MIN_CHUNK = 256;
+
+    private final ObjectGraphDatabaseService gdb;
+    private final int nodeCount;
+    private final RelationshipType[] types;
+    private final int[][] outOffsets;
+    private final int[][] outTargets;
+    private final int[][] inOffsets;
+    private final int[][] inTargets;
+    private final int relationshipCount;
+
+    private AdjacencySnapshot(ObjectGraphDatabaseService gdb, int nodeCount, RelationshipType[] types, int[][] outOffsets, int[][] outTargets) {
+        this.gdb = gdb;
+        this.nodeCount = nodeCount;
+        this.types = types;
+        this.outOffsets = outOffsets;
+        this.outTargets = outTargets;
+        this.inOffsets = new int[types.length][];
+        this.inTargets = new int[types.length][];
+        int count = 0;
+        for (int type = 0; type < types.length; type++) {
+            count += outTargets[type].length;
+            reverse(type);
+        }
+        this.relationshipCount = count;
+    }
+
+    /**
+     * reads the outgoing relationships of the types, all types if none are given, of the registered nodes
+     */
+    static AdjacencySnapshot build(final ObjectGraphDatabaseService gdb, RelationshipType... filter) {
+        final int nodeCount = gdb.nodeCount();
+        final Direction[] directions = new Direction[Math.max(1, filter.length)];
+        Arrays.fill(directions, Direction.OUTGOING);
+        final ObjectTraversal traversal = new ObjectTraversal(gdb, false, filter, directions, null, ObjectTraversal.UNLIMITED, false);
+        final TypeTable typeTable = new TypeTable(gdb, filter);
+        final ConcurrentMap<Integer, Chunk> chunks = new ConcurrentHashMap<Integer, Chunk>();
+        ParallelRanges.run(gdb, nodeCount, MIN_CHUNK, new ParallelRanges.Range() {
+            @Override
+            public void run(int from, int to) {
+                final Chunk chunk = new Chunk(from, to, nodeCount, typeTable);
+                for (int node = from; node < to; node++) {
+                    final ObjectNode objectNode = gdb.registeredNode(node);
+                    if (objectNode != null) {
+                        chunk.current = objectNode;
+                        traversal.expand(objectNode, chunk);
+                    }
+                    chunk.ends[node - from] = chunk.size;
+                }
+                chunks.put(from, chunk);
+            }
+        });
+        final RelationshipType[] types = typeTable.types();
+        final int[][] offsets = new int[types.length][nodeCount + 1];
+        final List<Chunk> read = new ArrayList<Chunk>(chunks.values());
+        ParallelRanges.run(gdb, read.size(), 1, new ParallelRanges.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    read.get(i).count(offsets);
+                }
+            }
+        });
+        final int[][] targets = new int[types.length][];
+        for (int type = 0; type < types.length; type++) {
+            targets[type] = new int[prefixSums(offsets[type])];
+        }
+        ParallelRanges.run(gdb, read.size(), 1, new ParallelRanges.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    read.get(i).fill(offsets, targets);
+                }
+            }
+        });
+        return new AdjacencySnapshot(gdb, nodeCount, types, offsets, targets);
+    }
+
+    /**
+     * @return the total, turning the counts at {@code offsets[node + 1]} into offsets
+     */
+    private static int prefixSums(int[] offsets) {
+        for (int node = 1; node < offsets.length; node++) {
+            offsets[node] += offsets[node - 1];
+        }
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * builds the incoming rows of the type from the outgoing ones, each row sorted by node id
+     */
+    private void reverse(int type) {
+        final int[] offsets = outOffsets[type], targets = outTargets[type];
+        final AtomicIntegerArray counts = new AtomicIntegerArray(nodeCount + 1);
+        ParallelRanges.run(gdb, targets.length, MIN_CHUNK * 16, new ParallelRanges.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    counts.incrementAndGet(targets[i] + 1);
+                }
+            }
+        });
+        final int[] reverseOffsets = new int[nodeCount + 1];
+        for (int node = 0; node <= nodeCount; node++) {
+            reverseOffsets[node] = counts.get(node);
+        }
+        final int[] sources = new int[prefixSums(reverseOffsets)];
+        final AtomicIntegerArray cursors = new AtomicIntegerArray(Arrays.copyOf(reverseOffsets, nodeCount));
+        ParallelRanges.run(gdb, nodeCount, MIN_CHUNK, new ParallelRanges.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int node = from; node < to; node++) {
+                    for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                        sources[cursors.getAndIncrement(targets[i])] = node;
+                    }
+                }
+            }
+        });
+        ParallelRanges.run(gdb, nodeCount, MIN_CHUNK, new ParallelRanges.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int node = from; node < to; node++) {
+                    Arrays.sort(sources, reverseOffsets[node], reverseOffsets[node + 1]);
+                }
+            }
+        });
+        inOffsets[type] = reverseOffsets;
+        inTargets[type] = sources;
+    }
+
+    /**
+     * The relationship types by index, the types of the filter come first in their order. The type of a slot
+     * is resolved once per mapped class.
+     */
+    private static class TypeTable {
+        private final ObjectGraphDatabaseService gdb;
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        private final List<RelationshipType> types = new ArrayList<RelationshipType>();
+        private final ConcurrentMap<ObjectGraphDatabaseService.MappingContext.MappingInfo, int[]> slotTypes =
+                new ConcurrentHashMap<ObjectGraphDatabaseService.MappingContext.MappingInfo, int[]>();
+
+        TypeTable(ObjectGraphDatabaseService gdb, RelationshipType[] filter) {
+            this.gdb = gdb;
+            for (RelationshipType type : filter) {
+                index(type);
+            }
+        }
+
+        private synchronized int index(RelationshipType type) {
+            final Integer index = indexes.get(type.name());
+            if (index != null) return index;
+            indexes.put(type.name(), types.size());
+            types.add(type);
+            return types.size() - 1;
+        }
+
+        int index(ObjectNode node, int slot) {
+            final ObjectGraphDatabaseService.MappingContext.MappingInfo info = node.getMappingInfo();
+            int[] slots = slotTypes.get(info);
+            if (slots == null) {
+                slots = new int[info.getRelationshipCount() + info.getPropertyCount()];
+                Arrays.fill(slots, -1);
+                final int[] existing = slotTypes.putIfAbsent(info, slots);
+                if (existing != null) slots = existing;
+            }
+            if (slots[slot] == -1) {
+                slots[slot] = index(slot < info.getRelationshipCount() ? info.getRelationshipType(slot)
+                        : gdb.relationshipType(info.getPropertyAccessor(slot - info.getRelationshipCount()).getName()));
+            }
+            return slots[slot];
+        }
+
+        synchronized RelationshipType[] types() {
+            return types.toArray(new RelationshipType[types.size()]);
+        }
+    }
+
+    /**
+     * The outgoing relationships of a range of nodes in node order, as type index and target pairs.
+     */
+    private static class Chunk implements ObjectTraversal.TargetVisitor {
+        private final int from;
+        private final int nodeCount;
+        private final TypeTable typeTable;
+        final int[] ends;
+        ObjectNode current;
+        int[] types = new int[64];
+        int[] targets = new int[64];
+        int size;
+
+        Chunk(int from, int to, int nodeCount, TypeTable typeTable) {
+            this.from = from;
+            this.nodeCount = nodeCount;
+            this.typeTable = typeTable;
+            this.ends = new int[to - from];
+        }
+
+        @Override
+        public void target(int node, int slot, int position, RelationshipType incomingType) {
+            if (node >= nodeCount) return;
+            if (size == targets.length) {
+                types = Arrays.copyOf(types, size * 2);
+                targets = Arrays.copyOf(targets, size * 2);
+            }
+            types[size] = typeTable.index(current, slot);
+            targets[size++] = node;
+        }
+
+        void count(int[][] offsets) {
+            int entry = 0;
+            for (int i = 0; i < ends.length; i++) {
+                for (; entry < ends[i]; entry++) {
+                    offsets[types[entry]][from + i + 1]++;
+                }
+            }
+        }
+
+        void fill(int[][] offsets, int[][] result) {
+            int entry = 0;
+            final int[] next = new int[offsets.length];
+            for (int i = 0; i < ends.length; i++) {
+                final int node = from + i;
+                for (int type = 0; type < next.length; type++) {
+                    next[type] = offsets[type][node];
+                }
+                for (; entry < ends[i]; entry++) {
+                    result[types[entry]][next[types[entry]]++] = targets[entry];
+                }
+            }
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getRelationshipCount() {
+        return relationshipCount;
+    }
+
+    /**
+     * @return the relationship types by their index in the rows
+     */
+    public List<RelationshipType> getTypes() {
+        return Collections.unmodifiableList(Arrays.asList(types));
+    }
+
+    /**
+     * @return the index of the type or -1 if the snapshot has no relationships of the type
+     */
+    public int typeIndex(RelationshipType type) {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].name().equals(type.name())) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * the rows are shared, they must not be modified
+     * @param direction {@link Direction#OUTGOING} or {@link Direction#INCOMING}
+     * @return the offsets of the rows of the nodes, with the total at {@link #getNodeCount()}
+     */
+    public int[] offsets(int type, Direction direction) {
+        return direction == Direction.INCOMING ? inOffsets[type] : outOffsets[type];
+    }
+
+    /**
+     * the rows are shared, they must not be modified
+     * @param direction {@link Direction#OUTGOING} or {@link Direction#INCOMING}
+     * @return the end nodes of outgoing or the start nodes of incoming relationships, row by row
+     */
+    public int[] targets(int type, Direction direction) {
+        return direction == Direction.INCOMING ? inTargets[type] : outTargets[type];
+    }
+
+    /**
+     * @return the number of relationships of all types of the node in the direction
+     */
+    public int degree(int node, Direction direction) {
+        int degree = 0;
+        for (int type = 0; type < types.length; type++) {
+            if (direction != Direction.INCOMING) degree += outOffsets[type][node + 1] - outOffsets[type][node];
+            if (direction != Direction.OUTGOING) degree += inOffsets[type][node + 1] - inOffsets[type][node];
+        }
+        return degree;
+    }
+
+    /**
+     * @return the number of bytes of the rows
+     */
+    public long sizeInBytes() {
+        long size = 0;
+        for (int type = 0; type < types.length; type++) {
+            size += 4L * (outOffsets[type].length + outTargets[type].length + inOffsets[type].length + inTargets[type].length);
+        }
+        return size;
+    }
+
+    /**
+     * @return the node with the id, null if it has been evicted
+     */
+    public Node node(int id) {
+        return gdb.registeredNode(id);
+    }
+
+    /**
+     * @return the ids of the nodes reachable from the start node within the depth, in breadth first order
+     */
+    public int[] breadthFirst(int start, Direction direction, int maxDepth) {
+        final BitSet visited = new BitSet(nodeCount);
+        int[] order = new int[16];
+        order[0] = start;
+        visited.set(start);
+        int size = 1, levelStart = 0;
+        for (int depth = 0; depth < maxDepth && levelStart < size; depth++) {
+            final int levelEnd = size;
+            for (int entry = levelStart; entry < levelEnd; entry++) {
+                final int node = order[entry];
+                for (int type = 0; type < types.length; type++) {
+                    for (int side = 0; side < 2; side++) {
+                        if (side == 0 ? direction == Direction.INCOMING : direction == Direction.OUTGOING) continue;
+                        final int[] offsets = side == 0 ? outOffsets[type] : inOffsets[type];
+                        final int[] targets = side == 0 ? outTargets[type] : inTargets[type];
+                        for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                            final int target = targets[i];
+                            if (visited.get(target)) continue;
+                            visited.set(target);
+                            if (size == order.length) order = Arrays.copyOf(order, size * 2);
+                            order[size++] = target;
+                        }
+                    }
+                }
+            }
+            levelStart = levelEnd;
+        }
+        return Arrays.copyOf(order, size);
+    }
+
+    /**
+     * @return the algorithms running on this snapshot
+     */
+    public GraphAlgorithms algorithms() {
+        return new GraphAlgorithms(gdb, this);
+    }
+}
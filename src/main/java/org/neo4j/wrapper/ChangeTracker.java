@@ -0,0 +1,264 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.RelationshipType;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects changes that the application made directly on the wrapped objects. For every discovered
+ * node it keeps the immutable property values, e.g. strings, boxed primitives and enums, as they were
+ * last indexed and a fingerprint of the other values and of each relationship collection. Entities and
+ * arrays are not referenced, so snapshots don't keep objects of weak or soft registries alive. A refresh
+ * compares them with the current field values, re-indexes only the changed properties and registers the
+ * targets of changed collections so that discovery picks up new nodes. With the reverse index enabled the
+ * target ids are kept as well, to remove stale incoming edges.
+ * <p>
+ * The index entries of a changed immutable value are removed by value, those of fingerprinted values by
+ * scanning the index of the property, as the old value is not known. A change of a fingerprinted value
+ * that keeps its hash code is not detected.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+class ChangeTracker {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final ObjectGraphDatabaseService gdb;
+    private final boolean keepTargets;
+    private volatile Snapshot[][] pages = new Snapshot[16][];
+    private ScheduledExecutorService scanner;
+
+    ChangeTracker(ObjectGraphDatabaseService gdb, boolean keepTargets) {
+        this.gdb = gdb;
+        this.keepTargets = keepTargets;
+    }
+
+    /**
+     * remembers the current field values of a discovered node
+     */
+    void record(ObjectNode node) {
+        final Snapshot snapshot = new Snapshot(node.getMappingInfo());
+        synchronized (snapshot) {
+            final ObjectGraphDatabaseService.MappingContext.MappingInfo info = node.getMappingInfo();
+            for (int slot = 0; slot < info.getPropertyCount(); slot++) {
+                final FieldAccessor field = info.getPropertyAccessor(slot);
+                final Object value = field.get(node.getValue());
+                snapshot.properties[slot] = valueFingerprint(node, field, value);
+                if (isImmutable(value)) snapshot.values[slot] = value;
+            }
+            for (int slot = 0; slot < info.getRelationshipCount(); slot++) {
+                final Object targets = info.getRelationshipAccessor(slot).get(node.getValue());
+                snapshot.fingerprints[slot] = fingerprint(targets);
+                if (keepTargets) snapshot.targets[slot] = targetIds(targets);
+            }
+        }
+        set((int) node.getId(), snapshot);
+    }
+
+    /**
+     * compares the node with its snapshot and updates indexes and adjacency for the changed fields
+     * @return true if the node changed
+     */
+    boolean refresh(ObjectNode node) {
+        return refresh(node, null, null);
+    }
+
+    /**
+     * like {@link #refresh(ObjectNode)} with the previous value of a property that was just set, its
+     * index entries are removed by value like those of immutable values
+     */
+    boolean refresh(ObjectNode node, String property, Object oldValue) {
+        final Snapshot snapshot = get((int) node.getId());
+        if (snapshot == null) return false;
+        if (snapshot.info != node.getMappingInfo()) throw new IllegalStateException("Type of " + node + " changed");
+        synchronized (snapshot) {
+            final ObjectGraphDatabaseService.MappingContext.MappingInfo info = snapshot.info;
+            final Object value = node.getValue();
+            boolean changed = false;
+            for (int slot = 0; slot < snapshot.properties.length; slot++) {
+                final FieldAccessor field = info.getPropertyAccessor(slot);
+                final Object newValue = field.get(value);
+                final long fingerprint = valueFingerprint(node, field, newValue);
+                final Object indexed = snapshot.values[slot];
+                if (indexed != null ? indexed.equals(newValue) : fingerprint == snapshot.properties[slot]) continue;
+                final Object previous = indexed != null || snapshot.properties[slot] == 0 ? indexed : ObjectGraphDatabaseService.UNKNOWN_VALUE;
+                snapshot.properties[slot] = fingerprint;
+                snapshot.values[slot] = isImmutable(newValue) ? newValue : null;
+                if (newValue != null && node.isEntity(field)) gdb.createNode(newValue);
+                final String name = field.getName();
+                gdb.indexPropertyChange(node, name, name.equals(property) ? oldValue : previous, newValue);
+                changed = true;
+            }
+            for (int slot = 0; slot < snapshot.fingerprints.length; slot++) {
+                final Object targets = info.getRelationshipAccessor(slot).get(value);
+                final long fingerprint = fingerprint(targets);
+                if (fingerprint == snapshot.fingerprints[slot]) continue;
+                snapshot.fingerprints[slot] = fingerprint;
+                final int[] newTargets = targetIds(targets);
+                if (keepTargets) {
+                    updateIncoming(node, info.getRelationshipType(slot), snapshot.targets[slot], newTargets);
+                    snapshot.targets[slot] = newTargets;
+                }
+                gdb.relationshipsChanged(node, info.getRelationshipType(slot));
+                changed = true;
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * refreshes all discovered nodes
+     * @return the number of changed nodes
+     */
+    int refreshAll() {
+        int changed = 0;
+        for (ObjectNode node : gdb.getDiscoveredNodes()) {
+            if (refresh(node)) changed++;
+        }
+        return changed;
+    }
+
+    /**
+     * starts a daemon thread that refreshes all nodes with the given delay between the scans
+     */
+    synchronized void start(long intervalMillis) {
+        if (scanner != null) return;
+        scanner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "object-graph-change-scanner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scanner.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                gdb.refreshAll();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (scanner != null) scanner.shutdownNow();
+        scanner = null;
+    }
+
+    /**
+     * values that can't change in place and don't refer to other objects
+     */
+    private static boolean isImmutable(Object value) {
+        return value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Double
+                || value instanceof Boolean || value instanceof Character || value instanceof Byte || value instanceof Short
+                || value instanceof Float || value instanceof BigInteger || value instanceof BigDecimal || value instanceof Enum;
+    }
+
+    /**
+     * hash of the content of the value combined with its type, entities are compared by identity,
+     * arrays by their elements so that changes inside them are detected as well
+     */
+    private static long valueFingerprint(ObjectNode node, FieldAccessor field, Object value) {
+        if (value == null) return 0;
+        final int hash;
+        if (node.isEntity(field)) hash = System.identityHashCode(value);
+        else if (value instanceof Object[]) hash = Arrays.deepHashCode((Object[]) value);
+        else if (value instanceof int[]) hash = Arrays.hashCode((int[]) value);
+        else if (value instanceof long[]) hash = Arrays.hashCode((long[]) value);
+        else if (value instanceof byte[]) hash = Arrays.hashCode((byte[]) value);
+        else if (value instanceof short[]) hash = Arrays.hashCode((short[]) value);
+        else if (value instanceof char[]) hash = Arrays.hashCode((char[]) value);
+        else if (value instanceof boolean[]) hash = Arrays.hashCode((boolean[]) value);
+        else if (value instanceof float[]) hash = Arrays.hashCode((float[]) value);
+        else if (value instanceof double[]) hash = Arrays.hashCode((double[]) value);
+        else hash = value.hashCode();
+        return ((long) value.getClass().hashCode() << 32) | (hash & 0xFFFFFFFFL);
+    }
+
+    /**
+     * order sensitive hash of the identities of the targets, combined with their number
+     */
+    private static long fingerprint(Object fieldValue) {
+        final Iterable<Object> targets = Targets.targets(fieldValue);
+        if (targets == null) return 0;
+        long hash = 17;
+        int count = 0;
+        for (Object target : targets) {
+            hash = hash * 31 + (target == null ? 0 : System.identityHashCode(target));
+            count++;
+        }
+        return hash ^ ((long) count << 40);
+    }
+
+    /**
+     * the ids of the targets, registering new ones
+     */
+    private int[] targetIds(Object fieldValue) {
+        final Iterable<Object> targets = Targets.targets(fieldValue);
+        if (targets == null) return new int[0];
+        int[] ids = new int[8];
+        int count = 0;
+        for (Object target : targets) {
+            if (target == null) continue;
+            if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+            ids[count++] = (int) gdb.createNode(target).getId();
+        }
+        final int[] result = Arrays.copyOf(ids, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void updateIncoming(ObjectNode node, RelationshipType type, int[] oldTargets, int[] newTargets) {
+        int i = 0, j = 0;
+        while (i < oldTargets.length || j < newTargets.length) {
+            if (j == newTargets.length || (i < oldTargets.length && oldTargets[i] < newTargets[j])) {
+                gdb.incomingRemoved(node, type, oldTargets[i++]);
+            } else if (i == oldTargets.length || newTargets[j] < oldTargets[i]) {
+                gdb.incomingAdded(node, type, newTargets[j++]);
+            } else {
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private Snapshot get(int id) {
+        final Snapshot[][] current = pages;
+        final int page = id >>> PAGE_BITS;
+        if (page >= current.length || current[page] == null) return null;
+        return current[page][id & PAGE_MASK];
+    }
+
+    private synchronized void set(int id, Snapshot snapshot) {
+        final int page = id >>> PAGE_BITS;
+        Snapshot[][] current = pages;
+        if (page >= current.length) current = Arrays.copyOf(current, Math.max(current.length * 2, page + 1));
+        if (current[page] == null) current[page] = new Snapshot[PAGE_SIZE];
+        current[page][id & PAGE_MASK] = snapshot;
+        pages = current;
+    }
+
+    private class Snapshot {
+        final ObjectGraphDatabaseService.MappingContext.MappingInfo info;
+        // the indexed value for immutable values, null otherwise
+        final Object[] values;
+        final long[] properties;
+        final long[] fingerprints;
+        final int[][] targets;
+
+        Snapshot(ObjectGraphDatabaseService.MappingContext.MappingInfo info) {
+            this.info = info;
+            this.values = new Object[info.getPropertyCount()];
+            this.properties = new long[info.getPropertyCount()];
+            this.fingerprints = new long[info.getRelationshipCount()];
+            this.targets = keepTargets ? new int[info.getRelationshipCount()][] : null;
+        }
+    }
+}
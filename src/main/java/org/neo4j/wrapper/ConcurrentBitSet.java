@@ -0,0 +1,62 @@
+package org.neo4j.wrapper;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Growable bitset over the dense node ids that several threads can set concurrently. Bits live in
+ * pages of atomic longs that are allocated on first use, {@link #add(int)} claims a bit with a compare
+ * and set so exactly one thread wins each id.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+class ConcurrentBitSet {
+    private static final int PAGE_BITS = 16;
+    private static final int WORDS_PER_PAGE = 1 << (PAGE_BITS - 6);
+
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[16];
+
+    /**
+     * @return true if the bit was not set before
+     */
+    boolean add(int index) {
+        final AtomicLongArray page = page(index >>> PAGE_BITS, true);
+        final int word = (index >>> 6) & (WORDS_PER_PAGE - 1);
+        final long mask = 1L << index;
+        while (true) {
+            final long current = page.get(word);
+            if ((current & mask) != 0) return false;
+            if (page.compareAndSet(word, current, current | mask)) return true;
+        }
+    }
+
+    boolean contains(int index) {
+        final AtomicLongArray page = page(index >>> PAGE_BITS, false);
+        return page != null && (page.get((index >>> 6) & (WORDS_PER_PAGE - 1)) & (1L << index)) != 0;
+    }
+
+    int cardinality() {
+        int count = 0;
+        for (AtomicLongArray page : pages) {
+            if (page == null) continue;
+            for (int i = 0; i < WORDS_PER_PAGE; i++) {
+                count += Long.bitCount(page.get(i));
+            }
+        }
+        return count;
+    }
+
+    private AtomicLongArray page(int index, boolean create) {
+        AtomicLongArray[] current = pages;
+        if (index < current.length && current[index] != null) return current[index];
+        if (!create) return null;
+        synchronized (this) {
+            current = pages;
+            if (index >= current.length) current = Arrays.copyOf(current, Math.max(current.length * 2, index + 1));
+            if (current[index] == null) current[index] = new AtomicLongArray(WORDS_PER_PAGE);
+            pages = current;
+            return current[index];
+        }
+    }
+}
@@ -0,0 +1,654 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.helpers.collection.PrefetchingIterator;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tokenized inverted index for string properties, per field and term the ids of the nodes that contain
+ * the term together with the positions of the term. Created by {@link ObjectIndexManager#forNodes(String, Map)}
+ * with {@code type=fulltext} or filled during discovery for the fields configured with
+ * {@link ObjectGraphConfig#FULLTEXT}.
+ * <p>
+ * Queries are terms, "quoted phrases" and boolean combinations with AND, OR, NOT, + and -, the default
+ * operator is OR. Hits are ordered by their BM25 score. Every value added for a node and field gets its
+ * own range of positions, phrases match consecutive positions within one value and removing a value
+ * only removes its positions, terms other values of the field contain stay indexed.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+public class FulltextNodeIndex implements Index<Node> {
+    public static final String TYPE = "type";
+    public static final String FULLTEXT = "fulltext";
+    public static final Map<String, String> CONFIG = Collections.singletonMap(TYPE, FULLTEXT);
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int STRIPES = 64;
+
+    private final String name;
+    private final ObjectGraphDatabaseService gdb;
+    private final ConcurrentMap<String, FieldIndex> fields = new ConcurrentHashMap<String, FieldIndex>();
+    private final Object[] locks = new Object[STRIPES];
+
+    public FulltextNodeIndex(String name, ObjectGraphDatabaseService gdb) {
+        this.name = name;
+        this.gdb = gdb;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * lower cased runs of letters and digits
+     */
+    static List<String> tokenize(String text) {
+        final List<String> tokens = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            final boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (tokenChar && start == -1) start = i;
+            if (!tokenChar && start != -1) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    @Override
+    public void add(Node node, String field, Object value) {
+        if (value == null) return;
+        final String text = value.toString();
+        final List<String> tokens = tokenize(text);
+        if (tokens.isEmpty()) return;
+        final FieldIndex index = fieldIndex(field, true);
+        final int id = id(node);
+        final int base = index.addValue(id, text.hashCode(), tokens.size());
+        for (Map.Entry<String, int[]> positions : positions(tokens, base).entrySet()) {
+            final String term = positions.getKey();
+            synchronized (lock(field, term)) {
+                final TermPostings postings = index.terms.get(term);
+                index.terms.put(term, postings == null ? TermPostings.of(id, positions.getValue()) : postings.add(id, positions.getValue()));
+            }
+        }
+        index.addLength(id, tokens.size());
+    }
+
+    /**
+     * removes the positions of the value, does nothing if the value was not added for the node
+     */
+    @Override
+    public void remove(Node node, String field, Object value) {
+        final FieldIndex index = fieldIndex(field, false);
+        if (index == null || value == null) return;
+        final String text = value.toString();
+        final List<String> tokens = tokenize(text);
+        final int id = id(node);
+        final int base = index.removeValue(id, text.hashCode(), tokens.size());
+        if (base == -1) return;
+        for (String term : new HashSet<String>(tokens)) {
+            synchronized (lock(field, term)) {
+                final TermPostings postings = index.terms.get(term);
+                if (postings != null) update(index, term, postings, postings.remove(id, base, base + tokens.size()));
+            }
+        }
+        index.removeLength(id, tokens.size());
+    }
+
+    /**
+     * scans all terms of the field, the index keeps no node to term mapping
+     */
+    @Override
+    public void remove(Node node, String field) {
+        final FieldIndex index = fieldIndex(field, false);
+        if (index == null) return;
+        final int id = id(node);
+        for (String term : index.terms.keySet()) {
+            synchronized (lock(field, term)) {
+                final TermPostings postings = index.terms.get(term);
+                if (postings != null) update(index, term, postings, postings.remove(id));
+            }
+        }
+        index.removeValues(id);
+        index.removeLength(id, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void remove(Node node) {
+        for (String field : fields.keySet()) {
+            remove(node, field);
+        }
+    }
+
+    private void update(FieldIndex index, String term, TermPostings postings, TermPostings removed) {
+        if (removed == postings) return;
+        if (removed.size == 0) index.terms.remove(term);
+        else index.terms.put(term, removed);
+    }
+
+    @Override
+    public void delete() {
+        fields.clear();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Class<Node> getEntityType() {
+        return Node.class;
+    }
+
+    /**
+     * @return the nodes containing all tokens of the value as a phrase
+     */
+    @Override
+    public IndexHits<Node> get(String field, Object value) {
+        if (value == null) return new ScoredHits(new int[0], new float[0]);
+        final Clause clause = new Clause(Occur.MUST, tokenize(value.toString()));
+        return search(field, Collections.singletonList(clause));
+    }
+
+    @Override
+    public IndexHits<Node> query(String field, Object query) {
+        if (query == null) throw new IllegalArgumentException("Query must not be null");
+        return search(field, parse(query.toString()));
+    }
+
+    /**
+     * @param query {@code field:query}
+     */
+    @Override
+    public IndexHits<Node> query(Object query) {
+        if (query == null) throw new IllegalArgumentException("Query must not be null");
+        final String text = query.toString();
+        final int colon = text.indexOf(':');
+        if (colon <= 0) throw new IllegalArgumentException("Query " + text + " doesn't start with field:");
+        return query(text.substring(0, colon).trim(), text.substring(colon + 1));
+    }
+
+    @Override
+    public boolean isWriteable() {
+        return true;
+    }
+
+    private IndexHits<Node> search(String field, List<Clause> clauses) {
+        final FieldIndex index = fieldIndex(field, false);
+        if (index == null) return new ScoredHits(new int[0], new float[0]);
+        Map<Integer, Float> result = null;
+        boolean required = false;
+        for (Clause clause : clauses) {
+            if (clause.occur != Occur.MUST) continue;
+            final Map<Integer, Float> scores = score(index, clause);
+            result = result == null ? scores : intersect(result, scores);
+            required = true;
+        }
+        for (Clause clause : clauses) {
+            if (clause.occur != Occur.SHOULD) continue;
+            final Map<Integer, Float> scores = score(index, clause);
+            if (result == null) result = new HashMap<Integer, Float>();
+            for (Map.Entry<Integer, Float> entry : scores.entrySet()) {
+                final Float score = result.get(entry.getKey());
+                if (score != null) result.put(entry.getKey(), score + entry.getValue());
+                else if (!required) result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (result == null) return new ScoredHits(new int[0], new float[0]);
+        for (Clause clause : clauses) {
+            if (clause.occur == Occur.MUST_NOT) result.keySet().removeAll(score(index, clause).keySet());
+        }
+        return sorted(result);
+    }
+
+    private Map<Integer, Float> intersect(Map<Integer, Float> result, Map<Integer, Float> scores) {
+        final Map<Integer, Float> intersection = new HashMap<Integer, Float>();
+        for (Map.Entry<Integer, Float> entry : result.entrySet()) {
+            final Float score = scores.get(entry.getKey());
+            if (score != null) intersection.put(entry.getKey(), entry.getValue() + score);
+        }
+        return intersection;
+    }
+
+    /**
+     * BM25 scores of the nodes matching all terms of the clause
+     */
+    private Map<Integer, Float> score(FieldIndex index, Clause clause) {
+        Map<Integer, Float> result = null;
+        final int documents = index.documents();
+        final float averageLength = index.averageLength();
+        for (String term : new LinkedHashSet<String>(clause.terms)) {
+            final TermPostings postings = index.terms.get(term);
+            if (postings == null) return Collections.emptyMap();
+            final double idf = Math.log(1 + (documents - postings.size + 0.5) / (postings.size + 0.5));
+            final Map<Integer, Float> scores = new HashMap<Integer, Float>(postings.size * 2);
+            for (int i = 0; i < postings.size; i++) {
+                final int tf = postings.positions[i].length;
+                final float norm = K1 * (1 - B + B * index.length(postings.ids[i]) / averageLength);
+                scores.put(postings.ids[i], (float) (idf * tf * (K1 + 1) / (tf + norm)));
+            }
+            result = result == null ? scores : intersect(result, scores);
+        }
+        if (result == null) return Collections.emptyMap();
+        if (clause.terms.size() > 1) {
+            final List<Map<Integer, int[]>> positions = new ArrayList<Map<Integer, int[]>>(clause.terms.size());
+            for (String term : clause.terms) {
+                final TermPostings postings = index.terms.get(term);
+                if (postings == null) return Collections.emptyMap();
+                positions.add(postings.positions());
+            }
+            for (Iterator<Integer> it = result.keySet().iterator(); it.hasNext(); ) {
+                if (!containsPhrase(it.next(), positions)) it.remove();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param positions the positions per node of each term of the phrase
+     */
+    private static boolean containsPhrase(int id, List<Map<Integer, int[]>> positions) {
+        final int[] firsts = positions.get(0).get(id);
+        if (firsts == null) return false;
+        for (int first : firsts) {
+            int i = 1;
+            while (i < positions.size() && contains(positions.get(i).get(id), first + i)) {
+                i++;
+            }
+            if (i == positions.size()) return true;
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] positions, int position) {
+        return positions != null && Arrays.binarySearch(positions, position) >= 0;
+    }
+
+    private ScoredHits sorted(final Map<Integer, Float> scores) {
+        final Integer[] order = scores.keySet().toArray(new Integer[scores.size()]);
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                final int byScore = Float.compare(scores.get(b), scores.get(a));
+                return byScore != 0 ? byScore : a.compareTo(b);
+            }
+        });
+        final int[] ids = new int[order.length];
+        final float[] values = new float[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ids[i] = order[i];
+            values[i] = scores.get(order[i]);
+        }
+        return new ScoredHits(ids, values);
+    }
+
+    private FieldIndex fieldIndex(String field, boolean create) {
+        final FieldIndex index = fields.get(field);
+        if (index != null || !create) return index;
+        final FieldIndex created = new FieldIndex();
+        final FieldIndex existing = fields.putIfAbsent(field, created);
+        return existing != null ? existing : created;
+    }
+
+    private Object lock(String field, String term) {
+        final int hash = field.hashCode() * 31 + term.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static int id(Node node) {
+        return (int) node.getId();
+    }
+
+    /**
+     * @return the ascending positions of each token, starting at base
+     */
+    private static Map<String, int[]> positions(List<String> tokens, int base) {
+        final Map<String, int[]> positions = new HashMap<String, int[]>();
+        for (int i = 0; i < tokens.size(); i++) {
+            final int[] previous = positions.get(tokens.get(i));
+            final int[] current = previous == null ? new int[1] : Arrays.copyOf(previous, previous.length + 1);
+            current[current.length - 1] = base + i;
+            positions.put(tokens.get(i), current);
+        }
+        return positions;
+    }
+
+    enum Occur { MUST, SHOULD, MUST_NOT }
+
+    static class Clause {
+        final Occur occur;
+        final List<String> terms;
+
+        Clause(Occur occur, List<String> terms) {
+            this.occur = occur;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * splits the query into term and phrase clauses, AND makes both neighbours required
+     */
+    static List<Clause> parse(String query) {
+        final List<Clause> clauses = new ArrayList<Clause>();
+        boolean and = false;
+        boolean not = false;
+        int i = 0;
+        while (i < query.length()) {
+            final char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            Occur occur = Occur.SHOULD;
+            if (c == '+' || c == '-') {
+                occur = c == '+' ? Occur.MUST : Occur.MUST_NOT;
+                i++;
+            }
+            final int end;
+            final String text;
+            if (i < query.length() && query.charAt(i) == '"') {
+                final int close = query.indexOf('"', i + 1);
+                end = close == -1 ? query.length() : close + 1;
+                text = query.substring(i + 1, close == -1 ? query.length() : close);
+            } else {
+                int next = i;
+                while (next < query.length() && !Character.isWhitespace(query.charAt(next))) {
+                    next++;
+                }
+                end = next;
+                text = query.substring(i, end);
+                if (text.equals("AND") || text.equals("&&")) {
+                    and = true;
+                    final int last = clauses.size() - 1;
+                    if (last >= 0 && clauses.get(last).occur == Occur.SHOULD) clauses.set(last, new Clause(Occur.MUST, clauses.get(last).terms));
+                    i = end;
+                    continue;
+                }
+                if (text.equals("OR") || text.equals("||")) {
+                    i = end;
+                    continue;
+                }
+                if (text.equals("NOT") || text.equals("!")) {
+                    not = true;
+                    i = end;
+                    continue;
+                }
+            }
+            i = end;
+            final List<String> terms = tokenize(text);
+            if (terms.isEmpty()) continue;
+            if (not) occur = Occur.MUST_NOT;
+            else if (and && occur == Occur.SHOULD) occur = Occur.MUST;
+            clauses.add(new Clause(occur, terms));
+            and = false;
+            not = false;
+        }
+        return clauses;
+    }
+
+    /**
+     * Sorted ids and the ascending positions of the term per node, appends share the arrays with the previous
+     * view like {@link ObjectNodeIndex.Postings}, everything else copies.
+     */
+    private static final class TermPostings {
+        final int[] ids;
+        final int[][] positions;
+        final int size;
+
+        private TermPostings(int[] ids, int[][] positions, int size) {
+            this.ids = ids;
+            this.positions = positions;
+            this.size = size;
+        }
+
+        static TermPostings of(int id, int[] positions) {
+            return new TermPostings(new int[]{id}, new int[][]{positions}, 1);
+        }
+
+        /**
+         * appends ids above the last one in place, discovery adds the nodes in id order, inserts the others
+         * at their sorted position
+         */
+        TermPostings add(int id, int[] added) {
+            if (size > 0 && id <= ids[size - 1]) {
+                final int index = Arrays.binarySearch(ids, 0, size, id);
+                if (index >= 0) return replace(index, merge(positions[index], added));
+                return insertAt(-index - 1, id, added);
+            }
+            int[] ids = this.ids;
+            int[][] positions = this.positions;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+                positions = Arrays.copyOf(positions, ids.length);
+            }
+            ids[size] = id;
+            positions[size] = added;
+            return new TermPostings(ids, positions, size + 1);
+        }
+
+        /**
+         * removes the positions from up to exclusive to of the node
+         */
+        TermPostings remove(int id, int from, int to) {
+            final int index = indexOf(id);
+            if (index == -1) return this;
+            final int[] current = positions[index];
+            int count = 0;
+            for (int position : current) {
+                if (position < from || position >= to) count++;
+            }
+            if (count == current.length) return this;
+            if (count == 0) return removeAt(index);
+            final int[] remaining = new int[count];
+            for (int i = 0, j = 0; i < current.length; i++) {
+                if (current[i] < from || current[i] >= to) remaining[j++] = current[i];
+            }
+            return replace(index, remaining);
+        }
+
+        TermPostings remove(int id) {
+            final int index = indexOf(id);
+            return index == -1 ? this : removeAt(index);
+        }
+
+        Map<Integer, int[]> positions() {
+            final Map<Integer, int[]> result = new HashMap<Integer, int[]>(size * 2);
+            for (int i = 0; i < size; i++) {
+                result.put(ids[i], positions[i]);
+            }
+            return result;
+        }
+
+        /**
+         * the ids are sorted
+         */
+        private int indexOf(int id) {
+            final int index = Arrays.binarySearch(ids, 0, size, id);
+            return index < 0 ? -1 : index;
+        }
+
+        private TermPostings replace(int index, int[] replaced) {
+            final int[][] copy = Arrays.copyOf(positions, size);
+            copy[index] = replaced;
+            return new TermPostings(Arrays.copyOf(ids, size), copy, size);
+        }
+
+        private TermPostings insertAt(int index, int id, int[] added) {
+            final int[] newIds = new int[size + 1];
+            final int[][] newPositions = new int[size + 1][];
+            System.arraycopy(ids, 0, newIds, 0, index);
+            System.arraycopy(ids, index, newIds, index + 1, size - index);
+            System.arraycopy(positions, 0, newPositions, 0, index);
+            System.arraycopy(positions, index, newPositions, index + 1, size - index);
+            newIds[index] = id;
+            newPositions[index] = added;
+            return new TermPostings(newIds, newPositions, size + 1);
+        }
+
+        private TermPostings removeAt(int index) {
+            final int[] newIds = new int[size - 1];
+            final int[][] newPositions = new int[size - 1][];
+            System.arraycopy(ids, 0, newIds, 0, index);
+            System.arraycopy(ids, index + 1, newIds, index, size - index - 1);
+            System.arraycopy(positions, 0, newPositions, 0, index);
+            System.arraycopy(positions, index + 1, newPositions, index, size - index - 1);
+            return new TermPostings(newIds, newPositions, size - 1);
+        }
+
+        private static int[] merge(int[] a, int[] b) {
+            final int[] merged = new int[a.length + b.length];
+            System.arraycopy(a, 0, merged, 0, a.length);
+            System.arraycopy(b, 0, merged, a.length, b.length);
+            Arrays.sort(merged);
+            return merged;
+        }
+    }
+
+    /**
+     * The terms of one field with the token count per node for the length normalization and the position
+     * ranges of the values added per node.
+     */
+    private static class FieldIndex {
+        final ConcurrentMap<String, TermPostings> terms = new ConcurrentHashMap<String, TermPostings>();
+        // per node triples of value hash, first position and token count
+        private final Map<Integer, int[]> values = new HashMap<Integer, int[]>();
+        private int[] lengths = new int[16];
+        private int documents;
+        private long totalLength;
+
+        /**
+         * @return the first position of the value, one position after the last value so phrases don't span values
+         */
+        synchronized int addValue(int id, int hash, int length) {
+            final int[] current = values.get(id);
+            int base = 0;
+            if (current != null) {
+                for (int i = 0; i < current.length; i += 3) {
+                    base = Math.max(base, current[i + 1] + current[i + 2] + 1);
+                }
+            }
+            final int[] added = current == null ? new int[3] : Arrays.copyOf(current, current.length + 3);
+            added[added.length - 3] = hash;
+            added[added.length - 2] = base;
+            added[added.length - 1] = length;
+            values.put(id, added);
+            return base;
+        }
+
+        /**
+         * @return the first position of the removed value or -1 if the node has no such value
+         */
+        synchronized int removeValue(int id, int hash, int length) {
+            final int[] current = values.get(id);
+            if (current == null) return -1;
+            for (int i = 0; i < current.length; i += 3) {
+                if (current[i] != hash || current[i + 2] != length) continue;
+                final int base = current[i + 1];
+                if (current.length == 3) {
+                    values.remove(id);
+                } else {
+                    final int[] remaining = new int[current.length - 3];
+                    System.arraycopy(current, 0, remaining, 0, i);
+                    System.arraycopy(current, i + 3, remaining, i, current.length - i - 3);
+                    values.put(id, remaining);
+                }
+                return base;
+            }
+            return -1;
+        }
+
+        synchronized void removeValues(int id) {
+            values.remove(id);
+        }
+
+        synchronized void addLength(int id, int length) {
+            if (id >= lengths.length) lengths = Arrays.copyOf(lengths, Math.max(lengths.length * 2, id + 1));
+            if (lengths[id] == 0) documents++;
+            lengths[id] += length;
+            totalLength += length;
+        }
+
+        synchronized void removeLength(int id, int length) {
+            if (id >= lengths.length || lengths[id] == 0) return;
+            final int removed = Math.min(length, lengths[id]);
+            lengths[id] -= removed;
+            totalLength -= removed;
+            if (lengths[id] == 0) documents--;
+        }
+
+        synchronized int length(int id) {
+            return id < lengths.length ? lengths[id] : 0;
+        }
+
+        synchronized int documents() {
+            return documents;
+        }
+
+        synchronized float averageLength() {
+            return documents == 0 ? 1 : (float) totalLength / documents;
+        }
+    }
+
+    private class ScoredHits extends PrefetchingIterator<Node> implements IndexHits<Node> {
+        private final int[] ids;
+        private final float[] scores;
+        private int next;
+        private int fetched = -1;
+        private float currentScore;
+
+        ScoredHits(int[] ids, float[] scores) {
+            this.ids = ids;
+            this.scores = scores;
+        }
+
+        @Override
+        protected Node fetchNextOrNull() {
+            while (next < ids.length) {
+                final Node node = gdb.registeredNode(ids[next]);
+                fetched = next++;
+                if (node != null) return node;
+            }
+            return null;
+        }
+
+        @Override
+        public Node next() {
+            final Node node = super.next();
+            currentScore = scores[fetched];
+            return node;
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Node getSingle() {
+            return IteratorUtil.singleOrNull((Iterator<Node>) this);
+        }
+
+        @Override
+        public float currentScore() {
+            return currentScore;
+        }
+
+        @Override
+        public Iterator<Node> iterator() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Graph algorithms that run on an {@link AdjacencySnapshot} of the object graph instead of expanding
+ * nodes: shortest paths by bidirectional breadth first search and by Dijkstra over a numeric property,
+ * weakly connected components, PageRank and degree centrality. Results are arrays indexed by node id,
+ * the node wise passes run on the threads of the traversal pool. If a property name is given the result
+ * is also written back as a virtual node property, see {@link ObjectGraphDatabaseService#removeVirtualProperty}.
+ * <p>
+ * See {@link ObjectGraphDatabaseService#algorithms} and {@link AdjacencySnapshot#algorithms()}, relationships
+ * added after the snapshot was taken are not seen.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+public class GraphAlgorithms {
+    private static final int MIN_CHUNK = 1024;
+    private static final Direction[] OUTGOING = {Direction.OUTGOING};
+    private static final Direction[] INCOMING = {Direction.INCOMING};
+    private static final Direction[] BOTH = {Direction.OUTGOING, Direction.INCOMING};
+
+    private final ObjectGraphDatabaseService gdb;
+    private final AdjacencySnapshot snapshot;
+    private final RelationshipType[] types;
+
+    GraphAlgorithms(ObjectGraphDatabaseService gdb, AdjacencySnapshot snapshot) {
+        this.gdb = gdb;
+        this.snapshot = snapshot;
+        this.types = snapshot.getTypes().toArray(new RelationshipType[0]);
+    }
+
+    public AdjacencySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * bidirectional breadth first search, expands the smaller frontier level by level
+     * @return a path with the fewest relationships in the direction or null if there is none
+     */
+    public WeightedPath shortestPath(Node start, Node end, Direction direction) {
+        final int source = id(start), target = id(end);
+        final int n = snapshot.getNodeCount();
+        final int[] parents = filled(n, -1), children = filled(n, -1);
+        final int[] forwardDepths = filled(n, -1), backwardDepths = filled(n, -1);
+        forwardDepths[source] = 0;
+        backwardDepths[target] = 0;
+        if (source == target) return path(new int[]{source}, direction, 0);
+        int[] forward = {source}, backward = {target};
+        while (forward.length > 0 && backward.length > 0) {
+            final boolean forwards = forward.length <= backward.length;
+            final int[] frontier = forwards ? forward : backward;
+            final int[] links = forwards ? parents : children;
+            final int[] depths = forwards ? forwardDepths : backwardDepths;
+            final int[] otherDepths = forwards ? backwardDepths : forwardDepths;
+            final Direction[] sides = sides(forwards ? direction : direction.reverse());
+            int meeting = -1, best = Integer.MAX_VALUE;
+            int[] next = new int[16];
+            int size = 0;
+            for (int node : frontier) {
+                for (Direction side : sides) {
+                    for (int type = 0; type < types.length; type++) {
+                        final int[] offsets = snapshot.offsets(type, side), targets = snapshot.targets(type, side);
+                        for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                            final int other = targets[i];
+                            if (depths[other] != -1) continue;
+                            depths[other] = depths[node] + 1;
+                            links[other] = node;
+                            if (otherDepths[other] != -1 && depths[other] + otherDepths[other] < best) {
+                                best = depths[other] + otherDepths[other];
+                                meeting = other;
+                            }
+                            if (size == next.length) next = Arrays.copyOf(next, size * 2);
+                            next[size++] = other;
+                        }
+                    }
+                }
+            }
+            if (meeting != -1) return path(join(meeting, parents, children, forwardDepths[meeting], backwardDepths[meeting]), direction, best);
+            if (forwards) forward = Arrays.copyOf(next, size);
+            else backward = Arrays.copyOf(next, size);
+        }
+        return null;
+    }
+
+    private static int[] join(int meeting, int[] parents, int[] children, int forwardDepth, int backwardDepth) {
+        final int[] nodes = new int[forwardDepth + backwardDepth + 1];
+        int node = meeting;
+        for (int i = forwardDepth; i >= 0; i--, node = parents[node]) {
+            nodes[i] = node;
+        }
+        node = children[meeting];
+        for (int i = forwardDepth + 1; i < nodes.length; i++, node = children[node]) {
+            nodes[i] = node;
+        }
+        return nodes;
+    }
+
+    /**
+     * Dijkstra, the cost of a hop is the numeric property of the node it leads to, nodes without the
+     * property cost 1
+     * @return the path with the lowest total cost in the direction or null if there is none
+     * @throws IllegalArgumentException for negative costs
+     */
+    public WeightedPath cheapestPath(Node start, Node end, Direction direction, String costProperty) {
+        final int source = id(start), target = id(end);
+        final int n = snapshot.getNodeCount();
+        final double[] costs = new double[n];
+        Arrays.fill(costs, Double.NaN);
+        final double[] distances = new double[n];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        final int[] parents = filled(n, -1);
+        final BitSet settled = new BitSet(n);
+        final Heap heap = new Heap();
+        distances[source] = 0;
+        heap.add(source, 0);
+        final Direction[] sides = sides(direction);
+        while (!heap.isEmpty()) {
+            final int node = heap.poll();
+            if (settled.get(node)) continue;
+            settled.set(node);
+            if (node == target) break;
+            for (Direction side : sides) {
+                for (int type = 0; type < types.length; type++) {
+                    final int[] offsets = snapshot.offsets(type, side), targets = snapshot.targets(type, side);
+                    for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                        final int other = targets[i];
+                        if (settled.get(other)) continue;
+                        if (Double.isNaN(costs[other])) costs[other] = cost(other, costProperty);
+                        final double distance = distances[node] + costs[other];
+                        if (distance < distances[other]) {
+                            distances[other] = distance;
+                            parents[other] = node;
+                            heap.add(other, distance);
+                        }
+                    }
+                }
+            }
+        }
+        if (!settled.get(target)) return null;
+        int length = 0;
+        for (int node = target; node != source; node = parents[node]) {
+            length++;
+        }
+        final int[] nodes = new int[length + 1];
+        for (int i = length, node = target; i >= 0; i--, node = parents[node]) {
+            nodes[i] = node;
+        }
+        return path(nodes, direction, distances[target]);
+    }
+
+    private double cost(int id, String costProperty) {
+        final ObjectNode node = gdb.registeredNode(id);
+        if (node == null) return 1;
+        final int slot = node.propertySlot(costProperty);
+        final Object value = slot == -1 ? null : node.getPropertyAt(slot);
+        if (!(value instanceof Number)) return 1;
+        final double cost = ((Number) value).doubleValue();
+        if (cost < 0) throw new IllegalArgumentException("Negative cost " + cost + " of " + costProperty + " on node " + id);
+        return cost;
+    }
+
+    /**
+     * weakly connected components with a concurrent union find over the relationships
+     * @return the component of each node, named by its lowest node id
+     */
+    public int[] connectedComponents(String property) {
+        final int n = snapshot.getNodeCount();
+        final AtomicIntegerArray parents = new AtomicIntegerArray(n);
+        for (int node = 0; node < n; node++) {
+            parents.set(node, node);
+        }
+        parallel(n, new ParallelRanges.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int type = 0; type < types.length; type++) {
+                    final int[] offsets = snapshot.offsets(type, Direction.OUTGOING), targets = snapshot.targets(type, Direction.OUTGOING);
+                    for (int node = from; node < to; node++) {
+                        for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                            union(parents, node, targets[i]);
+                        }
+                    }
+                }
+            }
+        });
+        final int[] components = new int[n];
+        parallel(n, new ParallelRanges.Range() {
+            @Override
+            public void run(int from, int to) {
+                for (int node = from; node < to; node++) {
+                    components[node] = find(parents, node);
+                }
+            }
+        });
+        if (property != null) gdb.virtualProperties().put(property, components);
+        return components;
+    }
+
+    /**
+     * links the root with the higher id below the other one, so the root of a component is its lowest id
+     */
+    private static void union(AtomicIntegerArray parents, int first, int second) {
+        while (true) {
+            first = find(parents, first);
+            second = find(parents, second);
+            if (first == second) return;
+            if (first < second) {
+                final int swap = first;
+                first = second;
+                second = swap;
+            }
+            if (parents.compareAndSet(first, first, second)) return;
+        }
+    }
+
+    private static int find(AtomicIntegerArray parents, int node) {
+        while (true) {
+            final int parent = parents.get(node);
+            if (parent == node) return node;
+            final int grandParent = parents.get(parent);
+            if (parent != grandParent) parents.compareAndSet(node, parent, grandParent);
+            node = grandParent;
+        }
+    }
+
+    /**
+     * PageRank along the outgoing relationships, the rank of nodes without any is spread over all nodes
+     * @return the ranks, summing up to 1
+     */
+    public double[] pageRank(String property, final double damping, int iterations) {
+        final int n = snapshot.getNodeCount();
+        if (n == 0) return new double[0];
+        final int[] degrees = degreeCentrality(null, Direction.OUTGOING);
+        double[] ranks = new double[n];
+        Arrays.fill(ranks, 1.0 / n);
+        final double[] contributions = new double[n];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            double dangling = 0;
+            for (int node = 0; node < n; node++) {
+                final int degree = degrees[node];
+                if (degree == 0) dangling += ranks[node];
+                else contributions[node] = ranks[node] / degree;
+            }
+            final double base = (1 - damping) / n + damping * dangling / n;
+            final double[] next = new double[n];
+            parallel(n, new ParallelRanges.Range() {
+                @Override
+                public void run(int from, int to) {
+                    for (int node = from; node < to; node++) {
+                        double sum = 0;
+                        for (int type = 0; type < types.length; type++) {
+                            final int[] offsets = snapshot.offsets(type, Direction.INCOMING), sources = snapshot.targets(type, Direction.INCOMING);
+                            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                                sum += contributions[sources[i]];
+                            }
+                        }
+                        next[node] = base + damping * sum;
+                    }
+                }
+            });
+            ranks = next;
+        }
+        if (property != null) gdb.virtualProperties().put(property, ranks);
+        return ranks;
+    }
+
+    /**
+     * @return the number of relationships of each node in the direction
+     */
+    public int[] degreeCentrality(String property, Direction direction) {
+        final int n = snapshot.getNodeCount();
+        final int[] degrees = new int[n];
+        for (int node = 0; node < n; node++) {
+            degrees[node] = snapshot.degree(node, direction);
+        }
+        if (property != null) gdb.virtualProperties().put(property, degrees);
+        return degrees;
+    }
+
+    private int id(Node node) {
+        final long id = node.getId();
+        if (id < 0 || id >= snapshot.getNodeCount()) throw new NotFoundException("Node " + id + " is not part of the snapshot");
+        return (int) id;
+    }
+
+    private static int[] filled(int size, int value) {
+        final int[] result = new int[size];
+        Arrays.fill(result, value);
+        return result;
+    }
+
+    private static Direction[] sides(Direction direction) {
+        switch (direction) {
+            case OUTGOING:
+                return OUTGOING;
+            case INCOMING:
+                return INCOMING;
+            default:
+                return BOTH;
+        }
+    }
+
+    private WeightedPath path(int[] ids, Direction direction, double weight) {
+        final List<Node> nodes = new ArrayList<Node>(ids.length);
+        final List<Relationship> relationships = new ArrayList<Relationship>(ids.length - 1);
+        for (int i = 0; i < ids.length; i++) {
+            nodes.add(gdb.registeredNode(ids[i]));
+            if (i > 0) relationships.add(relationship(ids[i - 1], ids[i], direction));
+        }
+        return new WeightedPath(nodes, relationships, weight);
+    }
+
+    /**
+     * looks up the relationship of a hop again, only done for the hops of a result path
+     */
+    private Relationship relationship(int from, int to, Direction direction) {
+        if (direction != Direction.INCOMING) {
+            final Relationship relationship = outgoing(from, to);
+            if (relationship != null) return relationship;
+        }
+        return outgoing(to, from);
+    }
+
+    private Relationship outgoing(int start, int end) {
+        final ObjectNode node = gdb.registeredNode(start);
+        if (node == null) return null;
+        for (Relationship relationship : node.getRelationships(Direction.OUTGOING, types)) {
+            if (relationship.getEndNode().getId() == end) return relationship;
+        }
+        return null;
+    }
+
+    private void parallel(int size, ParallelRanges.Range range) {
+        ParallelRanges.run(gdb, size, MIN_CHUNK, range);
+    }
+
+    /**
+     * Binary min heap of node ids by distance, a node is added again when its distance drops.
+     */
+    private static class Heap {
+        private int[] nodes = new int[64];
+        private double[] keys = new double[64];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void add(int node, double key) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) break;
+                nodes[i] = nodes[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+        }
+
+        int poll() {
+            final int result = nodes[0];
+            final int node = nodes[--size];
+            final double key = keys[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+                if (keys[child] >= key) break;
+                nodes[i] = nodes[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+            return result;
+        }
+    }
+
+    /**
+     * A path found by an algorithm with its total cost, the number of relationships for shortest paths.
+     */
+    public static class WeightedPath implements Path {
+        private final List<Node> nodes;
+        private final List<Relationship> relationships;
+        private final double weight;
+
+        WeightedPath(List<Node> nodes, List<Relationship> relationships, double weight) {
+            this.nodes = nodes;
+            this.relationships = relationships;
+            this.weight = weight;
+        }
+
+        public double weight() {
+            return weight;
+        }
+
+        @Override
+        public Node startNode() {
+            return nodes.get(0);
+        }
+
+        @Override
+        public Node endNode() {
+            return nodes.get(nodes.size() - 1);
+        }
+
+        @Override
+        public Relationship lastRelationship() {
+            return relationships.isEmpty() ? null : relationships.get(relationships.size() - 1);
+        }
+
+        @Override
+        public Iterable<Relationship> relationships() {
+            return Collections.unmodifiableList(relationships);
+        }
+
+        @Override
+        public Iterable<Node> nodes() {
+            return Collections.unmodifiableList(nodes);
+        }
+
+        @Override
+        public int length() {
+            return relationships.size();
+        }
+
+        @Override
+        public Iterator<PropertyContainer> iterator() {
+            final List<PropertyContainer> result = new ArrayList<PropertyContainer>(nodes.size() * 2);
+            for (int i = 0; i < nodes.size(); i++) {
+                if (i > 0) result.add(relationships.get(i - 1));
+                result.add(nodes.get(i));
+            }
+            return result.iterator();
+        }
+
+        @Override
+        public String toString() {
+            return nodes + " weight " + weight;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.neo4j.wrapper;
+
+/**
+ * Incremental breadth first discovery of the object network. The id registry doubles as the queue:
+ * every registered node is expanded and indexed once in id order, so nodes that were reached first
+ * by a traversal or lookup are picked up as well.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+class GraphDiscovery implements Runnable {
+    private final ObjectGraphDatabaseService gdb;
+    private final NodeIdRegistry nodeIds;
+    // written under the lock, read without it to skip discovery when no new nodes were registered
+    private volatile long next;
+    private volatile boolean stopped;
+
+    GraphDiscovery(ObjectGraphDatabaseService gdb, NodeIdRegistry nodeIds) {
+        this.gdb = gdb;
+        this.nodeIds = nodeIds;
+    }
+
+    /**
+     * expands and indexes the next registered node
+     * @return false if all registered nodes have been discovered
+     */
+    synchronized boolean discoverNext() {
+        if (next >= nodeIds.size()) return false;
+        final ObjectNode node = nodeIds.node(next++);
+        if (node == null) return true;
+        gdb.expand(node);
+        gdb.addToIndex(node);
+        return true;
+    }
+
+    /**
+     * discovers nodes until the given id is registered or the whole network is discovered
+     */
+    void discoverUntil(long id) {
+        while (id >= nodeIds.size() && discoverNext()) ;
+    }
+
+    void discoverAll() {
+        while (!stopped && next < nodeIds.size() && discoverNext()) ;
+    }
+
+    /**
+     * scans all remaining nodes with the given number of threads, falls back to the sequential
+     * discovery for a single thread
+     */
+    synchronized void discoverAll(int threads) {
+        if (threads > 1) {
+            next = new ParallelGraphScanner(gdb, nodeIds, threads).scan(next);
+        }
+        discoverAll();
+    }
+
+    /**
+     * the nodes up to the id were restored with their index entries and don't need to be discovered
+     */
+    synchronized void restored(long id) {
+        next = Math.max(next, id);
+    }
+
+    synchronized boolean isDiscovered(long id) {
+        return id < next;
+    }
+
+    synchronized boolean isComplete() {
+        return next >= nodeIds.size();
+    }
+
+    @Override
+    public void run() {
+        discoverAll();
+    }
+
+    void start() {
+        final Thread thread = new Thread(this, "object-graph-discovery");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+    }
+}
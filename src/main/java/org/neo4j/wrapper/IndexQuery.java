@@ -0,0 +1,148 @@
+package org.neo4j.wrapper;
+
+import java.util.regex.Pattern;
+
+/**
+ * A small subset of the Lucene query syntax for {@link ObjectNodeIndex#query}:
+ * <ul>
+ * <li>{@code property:value} exact match</li>
+ * <li>{@code [from TO to]} inclusive, {@code {from TO to}} exclusive range, {@code *} for an open end</li>
+ * <li>{@code prefix*} prefix and {@code a?c*} wildcard match on strings</li>
+ * </ul>
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+class IndexQuery {
+    private static final String OPEN = "*";
+
+    enum Kind { EXACT, RANGE, WILDCARD }
+
+    final String property;
+    final Kind kind;
+    final String value;
+    final String from;
+    final String to;
+    final boolean fromInclusive;
+    final boolean toInclusive;
+    final Pattern pattern;
+
+    private IndexQuery(String property, Kind kind, String value, String from, boolean fromInclusive, String to, boolean toInclusive, Pattern pattern) {
+        this.property = property;
+        this.kind = kind;
+        this.value = value;
+        this.from = from;
+        this.fromInclusive = fromInclusive;
+        this.to = to;
+        this.toInclusive = toInclusive;
+        this.pattern = pattern;
+    }
+
+    /**
+     * @param query {@code property:expression}
+     */
+    static IndexQuery parse(String query) {
+        final int colon = query.indexOf(':');
+        if (colon <= 0) throw new IllegalArgumentException("Query " + query + " doesn't start with property:");
+        return parse(query.substring(0, colon).trim(), query.substring(colon + 1));
+    }
+
+    static IndexQuery parse(String property, String expression) {
+        final String query = unquote(expression.trim());
+        if (query.length() > 1 && (query.startsWith("[") || query.startsWith("{"))) {
+            final char close = query.charAt(query.length() - 1);
+            if (close != ']' && close != '}') throw new IllegalArgumentException("Unterminated range " + query);
+            final String[] bounds = query.substring(1, query.length() - 1).trim().split("\\s+TO\\s+");
+            if (bounds.length != 2) throw new IllegalArgumentException("Range " + query + " needs the form [from TO to]");
+            return new IndexQuery(property, Kind.RANGE, null,
+                    bound(bounds[0]), query.charAt(0) == '[',
+                    bound(bounds[1]), close == ']', null);
+        }
+        if (query.indexOf('*') != -1 || query.indexOf('?') != -1) {
+            return new IndexQuery(property, Kind.WILDCARD, query, null, true, null, true, toPattern(query));
+        }
+        return new IndexQuery(property, Kind.EXACT, query, null, true, null, true, null);
+    }
+
+    /**
+     * @return the literal start of a wildcard query, all matches share it
+     */
+    String literalPrefix() {
+        int end = 0;
+        while (end < value.length() && value.charAt(end) != '*' && value.charAt(end) != '?') {
+            end++;
+        }
+        return value.substring(0, end);
+    }
+
+    /**
+     * @return true if the wildcard query is a plain prefix query
+     */
+    boolean isPrefix() {
+        return kind == Kind.WILDCARD && literalPrefix().length() == value.length() - 1 && value.endsWith("*");
+    }
+
+    /**
+     * converts a query string to the type of the indexed values so that it can be compared with them
+     */
+    static Object typed(String value, Object sample) {
+        try {
+            if (sample instanceof Double || sample instanceof Float) return Double.valueOf(value);
+            if (sample instanceof Number) {
+                return value.indexOf('.') != -1 || value.indexOf('e') != -1 || value.indexOf('E') != -1 ? Double.valueOf(value) : Long.valueOf(value);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Can't compare " + value + " with the numeric values of the property", e);
+        }
+        if (sample instanceof Boolean) return Boolean.valueOf(value);
+        if (sample instanceof Character && value.length() == 1) return value.charAt(0);
+        return value;
+    }
+
+    /**
+     * matches a single value by scanning, for indexes without sorted keys
+     */
+    boolean matches(Object candidate) {
+        if (candidate == null) return false;
+        switch (kind) {
+            case RANGE:
+                if (from != null) {
+                    final int compared = ObjectNodeIndex.VALUE_ORDER.compare(candidate, typed(from, candidate));
+                    if (compared < 0 || compared == 0 && !fromInclusive) return false;
+                }
+                if (to != null) {
+                    final int compared = ObjectNodeIndex.VALUE_ORDER.compare(candidate, typed(to, candidate));
+                    if (compared > 0 || compared == 0 && !toInclusive) return false;
+                }
+                return true;
+            case WILDCARD:
+                return candidate instanceof String && pattern.matcher((String) candidate).matches();
+            default:
+                return ObjectNodeIndex.VALUE_ORDER.compare(candidate, typed(value, candidate)) == 0;
+        }
+    }
+
+    private static String bound(String bound) {
+        final String value = unquote(bound.trim());
+        return OPEN.equals(value) ? null : value;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) return value.substring(1, value.length() - 1);
+        return value;
+    }
+
+    private static Pattern toPattern(String wildcard) {
+        final StringBuilder regex = new StringBuilder(wildcard.length() + 8);
+        int literalStart = 0;
+        for (int i = 0; i < wildcard.length(); i++) {
+            final char c = wildcard.charAt(i);
+            if (c != '*' && c != '?') continue;
+            if (i > literalStart) regex.append(Pattern.quote(wildcard.substring(literalStart, i)));
+            regex.append(c == '*' ? ".*" : ".");
+            literalStart = i + 1;
+        }
+        if (literalStart < wildcard.length()) regex.append(Pattern.quote(wildcard.substring(literalStart)));
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
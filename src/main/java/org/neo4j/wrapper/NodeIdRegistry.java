@@ -0,0 +1,391 @@
+package org.neo4j.wrapper;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+/**
+ * Hands out dense, stable ids for wrapped objects, keyed on object identity, and holds the one
+ * canonical {@link ObjectNode} per object. Ids start at 0 and are assigned in registration order,
+ * the id to node lookup is a plain array access so that algorithms can use id-indexed arrays.
+ * <p>
+ * The identity table is split into lock-striped segments so that concurrent scanners mostly
+ * contend only when they register a new object, id allocation itself is a short global section.
+ * <p>
+ * With weak or soft references objects that the application discarded are evicted, their ids are
+ * not handed out again. The canonical node is then only weakly cached and recreated with the same
+ * id as long as its object is alive.
+ * <p>
+ * Ids restored from a {@link SnapshotFile} are bound to their objects lazily: looking up a restored id
+ * resolves its object through the {@link Binder}, looking up an object that is not bound yet binds all
+ * restored ids first.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+public class NodeIdRegistry {
+    public enum References { STRONG, WEAK, SOFT }
+
+    private static final int SEGMENTS = 64;
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int NONE = -1;
+
+    private final ObjectGraphDatabaseService gdb;
+    private final References references;
+    private final ReferenceQueue<Object> evicted = new ReferenceQueue<Object>();
+    private final Segment[] segments = new Segment[SEGMENTS];
+    // holds ObjectNodes for strong references, NodeEntries otherwise
+    private volatile Object[][] pages = new Object[16][];
+    private volatile int size;
+    private volatile Binder binder;
+    private int restored;
+    private ConcurrentBitSet bound;
+
+    public NodeIdRegistry(ObjectGraphDatabaseService gdb) {
+        this(gdb, References.STRONG);
+    }
+
+    public NodeIdRegistry(ObjectGraphDatabaseService gdb, References references) {
+        this.gdb = gdb;
+        this.references = references;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return the id of the object, registering it if it was not seen before
+     */
+    public long register(Object value) {
+        return node(value).getId();
+    }
+
+    /**
+     * @return the canonical node for the object, registering it if it was not seen before
+     */
+    public ObjectNode node(Object value) {
+        if (value == null) throw new IllegalArgumentException("Can't register null");
+        if (references != References.STRONG) expungeEvicted();
+        final int hash = hash(value);
+        if (binder != null && segmentFor(hash).idOf(value, hash) == NONE) bindAll();
+        return segmentFor(hash).register(value, hash);
+    }
+
+    /**
+     * @return the id of the object or -1 if it was not registered
+     */
+    public long idOf(Object value) {
+        if (value == null) return NONE;
+        final int hash = hash(value);
+        final long id = segmentFor(hash).idOf(value, hash);
+        if (id != NONE || binder == null) return id;
+        bindAll();
+        return segmentFor(hash).idOf(value, hash);
+    }
+
+    /**
+     * @return the id of the object or -1 if it is not registered or not bound yet, doesn't bind restored ids
+     */
+    long boundIdOf(Object value) {
+        if (value == null) return NONE;
+        final int hash = hash(value);
+        return segmentFor(hash).idOf(value, hash);
+    }
+
+    /**
+     * Resolves the object of a restored id, using {@link #get(long)} for the objects it is reached from.
+     */
+    interface Binder {
+        /**
+         * @return the object or null if the id can't be bound
+         */
+        Object resolve(int id);
+    }
+
+    /**
+     * hands out the ids up to count as restored ids that are bound on first use, only for an empty registry
+     */
+    synchronized void restore(int count, Binder binder) {
+        if (size != 0) throw new IllegalStateException("Ids can only be restored into an empty registry");
+        this.restored = count;
+        this.bound = new ConcurrentBitSet();
+        this.size = count;
+        this.binder = count == 0 ? null : binder;
+    }
+
+    /**
+     * binds the object to a restored id
+     * @throws IllegalStateException if the object is already registered with another id
+     */
+    void bind(int id, Object value) {
+        final int hash = hash(value);
+        segmentFor(hash).bind(value, hash, id);
+    }
+
+    /**
+     * binds all restored ids that are not bound yet, ids that can't be resolved stay empty
+     */
+    void bindAll() {
+        final Binder current = binder;
+        if (current == null) return;
+        for (int id = 0; id < restored; id++) {
+            if (!bound.contains(id)) bind(current, id);
+        }
+        binder = null;
+    }
+
+    private void bind(Binder current, int id) {
+        final Object value = current.resolve(id);
+        // ids that can't be resolved are marked so they are not resolved again
+        if (value == null) bound.add(id);
+        else bind(id, value);
+    }
+
+    boolean isBound(int id) {
+        return binder == null || id >= restored || bound.contains(id);
+    }
+
+    /**
+     * @return the object registered with the id or null for unknown or evicted ids
+     */
+    public Object get(long id) {
+        final Object slot = slot(id);
+        if (slot instanceof ObjectNode) return ((ObjectNode) slot).getValue();
+        if (slot == null) return null;
+        return ((NodeEntry) slot).get();
+    }
+
+    /**
+     * @return the canonical node registered with the id or null for unknown or evicted ids
+     */
+    public ObjectNode node(long id) {
+        final Object slot = slot(id);
+        if (slot instanceof ObjectNode) return (ObjectNode) slot;
+        if (slot == null) return null;
+        return ((NodeEntry) slot).node();
+    }
+
+    /**
+     * @return the highest id handed out plus one
+     */
+    public int size() {
+        return size;
+    }
+
+    public References getReferences() {
+        return references;
+    }
+
+    /**
+     * removes the entries of objects that have been garbage collected
+     */
+    public void expungeEvicted() {
+        Reference<?> reference;
+        while ((reference = evicted.poll()) != null) {
+            final NodeEntry entry = ((EvictableValue) reference).entry();
+            segmentFor(entry.hash).remove(entry.id, entry.hash);
+            clear(entry.id);
+        }
+    }
+
+    private Object slot(long id) {
+        if (id < 0 || id >= size) return null;
+        final int intId = (int) id;
+        final Binder current = binder;
+        if (current != null && intId < restored && !bound.contains(intId)) bind(current, intId);
+        final Object[] page = pages[intId >>> PAGE_BITS];
+        return page == null ? null : page[intId & PAGE_MASK];
+    }
+
+    private synchronized ObjectNode allocate(Object value, int hash) {
+        final int id = size;
+        if (id == Integer.MAX_VALUE) throw new IllegalStateException("Too many objects registered");
+        final ObjectNode node = store(id, value, hash);
+        size = id + 1;
+        return node;
+    }
+
+    private synchronized ObjectNode store(int id, Object value, int hash) {
+        final int page = id >>> PAGE_BITS;
+        Object[][] current = pages;
+        if (page >= current.length) {
+            final Object[][] grown = new Object[Math.max(current.length * 2, page + 1)][];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        if (current[page] == null) current[page] = new Object[PAGE_SIZE];
+        final ObjectNode node = new ObjectNode(value, gdb, id);
+        current[page][id & PAGE_MASK] = references == References.STRONG ? node : new NodeEntry(node, hash);
+        pages = current;
+        return node;
+    }
+
+    private synchronized void clear(int id) {
+        pages[id >>> PAGE_BITS][id & PAGE_MASK] = null;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash * 0x9E3779B9) >>> 26];
+    }
+
+    private static int hash(Object value) {
+        final int h = System.identityHashCode(value);
+        return h ^ (h >>> 16);
+    }
+
+    private interface EvictableValue {
+        NodeEntry entry();
+    }
+
+    private static class WeakValue extends WeakReference<Object> implements EvictableValue {
+        private final NodeEntry entry;
+
+        WeakValue(Object value, ReferenceQueue<Object> queue, NodeEntry entry) {
+            super(value, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public NodeEntry entry() {
+            return entry;
+        }
+    }
+
+    private static class SoftValue extends SoftReference<Object> implements EvictableValue {
+        private final NodeEntry entry;
+
+        SoftValue(Object value, ReferenceQueue<Object> queue, NodeEntry entry) {
+            super(value, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public NodeEntry entry() {
+            return entry;
+        }
+    }
+
+    /**
+     * Weakly or softly held object with a weakly cached canonical node.
+     */
+    private class NodeEntry {
+        private final Reference<Object> value;
+        private final int id;
+        private final int hash;
+        private volatile WeakReference<ObjectNode> node;
+
+        NodeEntry(ObjectNode node, int hash) {
+            this.id = (int) node.getId();
+            this.hash = hash;
+            this.node = new WeakReference<ObjectNode>(node);
+            this.value = references == References.SOFT
+                    ? new SoftValue(node.getValue(), evicted, this)
+                    : new WeakValue(node.getValue(), evicted, this);
+        }
+
+        Object get() {
+            return value.get();
+        }
+
+        ObjectNode node() {
+            ObjectNode result = node.get();
+            if (result != null) return result;
+            synchronized (this) {
+                result = node.get();
+                if (result != null) return result;
+                final Object object = value.get();
+                if (object == null) return null;
+                result = new ObjectNode(object, gdb, id);
+                node = new WeakReference<ObjectNode>(result);
+                return result;
+            }
+        }
+    }
+
+    private class Segment {
+        // open addressing table of id+1 values, 0 marks a free slot
+        private int[] table = new int[64];
+        private int count;
+
+        synchronized ObjectNode register(Object value, int hash) {
+            final int slot = findSlot(value, hash);
+            if (table[slot] != 0) return node(table[slot] - 1);
+            final ObjectNode node = allocate(value, hash);
+            table[slot] = (int) node.getId() + 1;
+            if (++count * 2 > table.length) rehash();
+            return node;
+        }
+
+        synchronized void bind(Object value, int hash, int id) {
+            if (bound.contains(id)) return;
+            final int slot = findSlot(value, hash);
+            if (table[slot] != 0) throw new IllegalStateException("Object " + value + " is bound to id " + (table[slot] - 1) + " and " + id);
+            store(id, value, hash);
+            table[slot] = id + 1;
+            bound.add(id);
+            if (++count * 2 > table.length) rehash();
+        }
+
+        synchronized long idOf(Object value, int hash) {
+            final int entry = table[findSlot(value, hash)];
+            return entry == 0 ? NONE : entry - 1;
+        }
+
+        synchronized void remove(int id, int hash) {
+            final int mask = table.length - 1;
+            int slot = hash & mask;
+            while (table[slot] != 0 && table[slot] != id + 1) {
+                slot = (slot + 1) & mask;
+            }
+            if (table[slot] == 0) return;
+            table[slot] = 0;
+            count--;
+            // re-insert the rest of the cluster so that lookups don't stop at the gap
+            for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+                final int entry = table[next];
+                table[next] = 0;
+                table[freeSlot(table, entryHash(entry - 1))] = entry;
+            }
+        }
+
+        private int findSlot(Object value, int hash) {
+            final int mask = table.length - 1;
+            int slot = hash & mask;
+            while (true) {
+                final int entry = table[slot];
+                if (entry == 0 || get(entry - 1) == value) return slot;
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void rehash() {
+            final int[] newTable = new int[table.length * 2];
+            for (int entry : table) {
+                if (entry == 0) continue;
+                newTable[freeSlot(newTable, entryHash(entry - 1))] = entry;
+            }
+            table = newTable;
+        }
+
+        private int freeSlot(int[] table, int hash) {
+            final int mask = table.length - 1;
+            int slot = hash & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * the identity hash of the registered object, for entries of collected objects the remembered one
+         */
+        private int entryHash(int id) {
+            final Object slot = slot(id);
+            if (slot instanceof ObjectNode) return hash(((ObjectNode) slot).getValue());
+            return ((NodeEntry) slot).hash;
+        }
+    }
+}
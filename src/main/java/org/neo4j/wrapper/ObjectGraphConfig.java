@@ -0,0 +1,198 @@
+package org.neo4j.wrapper;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Configuration keys understood by {@link ObjectGraphDatabaseService}, passed in as a string map
+ * like the configuration of an embedded graph database.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+public class ObjectGraphConfig {
+    /**
+     * How the object network is discovered: "eager" walks it completely in the constructor,
+     * "lazy" registers nodes when they are first reached, "background" discovers in a daemon thread.
+     */
+    public static final String DISCOVERY = "discovery";
+
+    /**
+     * Number of threads used by the eager discovery, defaults to the number of available processors.
+     */
+    public static final String DISCOVERY_THREADS = "discovery_threads";
+
+    /**
+     * Number of threads of the {@link ParallelTraversal} pool, defaults to the number of available processors.
+     */
+    public static final String TRAVERSAL_THREADS = "traversal_threads";
+
+    /**
+     * "true" keeps an index of incoming relationships so that nodes can be expanded in both directions,
+     * defaults to "false".
+     */
+    public static final String REVERSE_INDEX = "reverse_index";
+
+    /**
+     * "true" adds the outgoing relationships of all discovered nodes to the relationship index
+     * {@link ObjectRelationshipIndex#NAME} by their type name, defaults to "false".
+     */
+    public static final String RELATIONSHIP_INDEX = "relationship_index";
+
+    /**
+     * How the wrapped objects are held: "strong" keeps them for the lifetime of the database, "weak"
+     * and "soft" evict nodes of objects that the application no longer references.
+     */
+    public static final String NODE_REFERENCES = "node_references";
+
+    /**
+     * Comma separated {@code Type.field} list of string properties that are tokenized into the fulltext
+     * index of their type during discovery, see {@link ObjectGraphDatabaseService#fulltextIndexName}.
+     */
+    public static final String FULLTEXT = "fulltext";
+
+    /**
+     * "true" enables the node auto indexer for the {@link #NODE_KEYS_INDEXABLE} properties, like in Neo4j.
+     */
+    public static final String NODE_AUTO_INDEXING = "node_auto_indexing";
+
+    /**
+     * Comma separated property names that are added to the node auto index.
+     */
+    public static final String NODE_KEYS_INDEXABLE = "node_keys_indexable";
+
+    /**
+     * "true" remembers the indexed field values of every node so that changes made directly on the
+     * objects can be picked up with {@link ObjectGraphDatabaseService#refresh}, defaults to "false".
+     */
+    public static final String CHANGE_TRACKING = "change_tracking";
+
+    /**
+     * Milliseconds between the scans of a background thread that refreshes all changed nodes, enables
+     * change tracking, 0 (the default) disables the scanner.
+     */
+    public static final String CHANGE_SCAN_INTERVAL = "change_scan_interval";
+
+    /**
+     * "true" keeps the values and postings of the exact match node indexes in direct buffers outside of the
+     * heap, see {@link OffHeapNodeIndex}, defaults to "false". Single indexes can be created with
+     * {@link OffHeapNodeIndex#CONFIG} instead.
+     */
+    public static final String OFF_HEAP_INDEX = "off_heap_index";
+
+    /**
+     * Path of a file written with {@link ObjectGraphDatabaseService#save}, if it exists and was written for the
+     * type of the root the ids and index entries are restored from it instead of being discovered. Ignored
+     * with the relationship index, change tracking, auto indexing or fulltext fields.
+     */
+    public static final String SNAPSHOT_FILE = "snapshot_file";
+
+    public enum Discovery { EAGER, LAZY, BACKGROUND }
+
+    private final Map<String, String> config;
+    private final Map<String, Set<String>> fulltextFields = new HashMap<String, Set<String>>();
+
+    public ObjectGraphConfig(Map<String, String> config) {
+        this.config = config == null ? Collections.<String, String>emptyMap() : new HashMap<String, String>(config);
+        for (String typeField : get(FULLTEXT, "").split(",")) {
+            final int dot = typeField.lastIndexOf('.');
+            if (dot <= 0) continue;
+            final String type = typeField.substring(0, dot).trim();
+            if (!fulltextFields.containsKey(type)) fulltextFields.put(type, new LinkedHashSet<String>());
+            fulltextFields.get(type).add(typeField.substring(dot + 1).trim());
+        }
+    }
+
+    /**
+     * @param indexName the index name of the type
+     * @return the fields of the type that are indexed as fulltext
+     */
+    public Set<String> getFulltextFields(String indexName) {
+        final Set<String> fields = fulltextFields.get(indexName);
+        return fields == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(fields);
+    }
+
+    public boolean hasFulltextFields() {
+        return !fulltextFields.isEmpty();
+    }
+
+    public Discovery getDiscovery() {
+        return Discovery.valueOf(get(DISCOVERY, "eager").toUpperCase());
+    }
+
+    public int getDiscoveryThreads() {
+        return getInt(DISCOVERY_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getTraversalThreads() {
+        return getInt(TRAVERSAL_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    public NodeIdRegistry.References getNodeReferences() {
+        return NodeIdRegistry.References.valueOf(get(NODE_REFERENCES, "strong").toUpperCase());
+    }
+
+    public boolean isNodeAutoIndexing() {
+        return getBoolean(NODE_AUTO_INDEXING, false);
+    }
+
+    public Set<String> getNodeKeysIndexable() {
+        final Set<String> keys = new LinkedHashSet<String>();
+        for (String key : get(NODE_KEYS_INDEXABLE, "").split(",")) {
+            if (key.trim().length() > 0) keys.add(key.trim());
+        }
+        return keys;
+    }
+
+    public long getChangeScanInterval() {
+        final String value = get(CHANGE_SCAN_INTERVAL, null);
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    public boolean isChangeTracking() {
+        return getBoolean(CHANGE_TRACKING, false) || getChangeScanInterval() > 0;
+    }
+
+    public boolean isReverseIndex() {
+        return getBoolean(REVERSE_INDEX, false);
+    }
+
+    public boolean isOffHeapIndex() {
+        return getBoolean(OFF_HEAP_INDEX, false);
+    }
+
+    public boolean isRelationshipIndex() {
+        return getBoolean(RELATIONSHIP_INDEX, false);
+    }
+
+    /**
+     * @return the snapshot file or null if none is configured
+     */
+    public File getSnapshotFile() {
+        final String value = get(SNAPSHOT_FILE, null);
+        return value == null || value.length() == 0 ? null : new File(value);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        final String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        final String value = get(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public String get(String key, String defaultValue) {
+        final String value = config.get(key);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    public Map<String, String> asMap() {
+        return Collections.unmodifiableMap(config);
+    }
+}
@@ -6,10 +6,14 @@ import org.neo4j.graphdb.event.TransactionEventHandler;
 import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexManager;
 import org.neo4j.helpers.collection.IteratorWrapper;
-import org.neo4j.kernel.Traversal;
+import org.neo4j.helpers.collection.PrefetchingIterator;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author mh
@@ -17,85 +21,596 @@ import java.util.*;
  */
 public class ObjectGraphDatabaseService implements GraphDatabaseService {
     private Object root;
-    private Map<Long, Node> allNodes = new HashMap<Long, Node>();
-    private final ObjectIndexManager objectIndexManager = new ObjectIndexManager();
+    /**
+     * passed as old value of {@link #indexPropertyChange} when the previous value of a property is not known
+     */
+    static final Object UNKNOWN_VALUE = new Object();
+
+    private final NodeIdRegistry nodeIds;
+    private final GraphDiscovery discovery;
+    private final ObjectGraphConfig config;
+    private final ReverseAdjacency reverseAdjacency;
+    private final ChangeTracker changeTracker;
+    private final ObjectRelationshipIndex relationshipIndex;
+    private final ObjectIndexManager objectIndexManager = new ObjectIndexManager(this);
     private final MappingContext mappingContext=new MappingContext();
+    private final VirtualProperties virtualProperties = new VirtualProperties();
+    private final ThreadLocal<ObjectTransaction> transactions = new ThreadLocal<ObjectTransaction>();
+    private volatile int openTransactions;
+    // the only open transaction, lets readers of other threads skip the thread local lookup
+    private volatile ObjectTransaction singleTransaction;
+    private final ReentrantLock commitLock = new ReentrantLock();
+    // odd while a commit or a direct write is applied under the commit lock
+    private volatile int writeVersion;
+    private ExecutorService traversalPool;
+    private final boolean restored;
 
+    /**
+     * @return the canonical node for the object
+     */
     public ObjectNode createNode(Object value) {
-        return new ObjectNode(value, this);
+        return nodeIds.node(value);
     }
 
     static class MappingContext {
+        /**
+         * The flattened field layout of a class. The fields of mapped superclasses come first in the slots
+         * of the superclass layout, followed by the fields declared by the class in name order, a field
+         * that hides an inherited field of the same kind takes over its slot. Superclasses from the JDK are
+         * not mapped, interfaces only contribute constants and are skipped.
+         */
         static class MappingInfo {
             private final Class<?> type;
-            private final Map<String,Field> propertyFields;
-            private final Map<String,Field> relationshipFields;
+            private final Map<String,FieldAccessor> propertyFields;
+            private final Map<String,FieldAccessor> relationshipFields;
+            private final FieldAccessor[] relationshipAccessors;
+            private final RelationshipType[] relationshipTypes;
+            private final Slots relationshipSlots;
+            private final FieldAccessor[] propertyAccessors;
+            private final Slots propertySlots;
 
-            MappingInfo(Class<?> type) {
+            MappingInfo(Class<?> type, MappingContext context) {
                 this.type = type;
-                this.propertyFields = extractPropertyFields(type);
-                this.relationshipFields = extractRelationshipFields(type);
-            }
-            private Map<String, Field> extractRelationshipFields(Class<?> type) {
-                final Field[] allFields = type.getDeclaredFields();
-                Map<String, Field> result = new TreeMap<String, Field>();
-                for (Field field : allFields) {
-                    if (Iterable.class.isAssignableFrom(field.getType())) {
-                        field.setAccessible(true);
-                        result.put(field.getName(), field);
+                final Map<String, FieldAccessor> properties = new LinkedHashMap<String, FieldAccessor>();
+                final Map<String, FieldAccessor> relationships = new LinkedHashMap<String, FieldAccessor>();
+                final Class<?> superclass = type.getSuperclass();
+                if (isMapped(superclass)) {
+                    final MappingInfo parent = context.getInfo(superclass);
+                    properties.putAll(parent.layout(parent.propertyAccessors));
+                    relationships.putAll(parent.layout(parent.relationshipAccessors));
+                }
+                for (FieldAccessor field : declaredFields(type)) {
+                    final boolean relationship = isRelationshipField(field.getField());
+                    (relationship ? properties : relationships).remove(field.getName());
+                    (relationship ? relationships : properties).put(field.getName(), field);
+                }
+                this.relationshipAccessors = relationships.values().toArray(new FieldAccessor[relationships.size()]);
+                this.relationshipTypes = new RelationshipType[relationshipAccessors.length];
+                for (int slot = 0; slot < relationshipAccessors.length; slot++) {
+                    relationshipTypes[slot] = context.relationshipType(relationshipAccessors[slot].getName());
+                }
+                this.relationshipSlots = new Slots(relationshipAccessors);
+                this.propertyAccessors = properties.values().toArray(new FieldAccessor[properties.size()]);
+                this.propertySlots = new Slots(propertyAccessors);
+                this.propertyFields = Collections.unmodifiableMap(new TreeMap<String, FieldAccessor>(properties));
+                this.relationshipFields = Collections.unmodifiableMap(new TreeMap<String, FieldAccessor>(relationships));
+            }
+
+            private static boolean isMapped(Class<?> superclass) {
+                if (superclass == null || superclass == Object.class) return false;
+                final String name = superclass.getName();
+                return !name.startsWith("java.") && !name.startsWith("javax.") && !name.startsWith("sun.");
+            }
+
+            static boolean isRelationshipField(Field field) {
+                return Targets.isTargetField(field);
+            }
+
+            private static List<FieldAccessor> declaredFields(Class<?> type) {
+                final Field[] fields = type.getDeclaredFields();
+                Arrays.sort(fields, new Comparator<Field>() {
+                    @Override
+                    public int compare(Field a, Field b) {
+                        return a.getName().compareTo(b.getName());
                     }
+                });
+                final List<FieldAccessor> result = new ArrayList<FieldAccessor>(fields.length);
+                for (Field field : fields) {
+                    result.add(FieldAccessor.create(field));
                 }
-                return Collections.unmodifiableMap(result);
-            }
-        
-            private Map<String, Field> extractPropertyFields(Class<?> type) {
-                final Field[] allFields = type.getDeclaredFields();
-                Map<String, Field> result = new TreeMap<String, Field>();
-                for (Field field : allFields) {
-                    if (Iterable.class.isAssignableFrom(field.getType())) continue;
-                    field.setAccessible(true);
-                    result.put(field.getName(), field);
+                return result;
+            }
+
+            private Map<String, FieldAccessor> layout(FieldAccessor[] accessors) {
+                final Map<String, FieldAccessor> result = new LinkedHashMap<String, FieldAccessor>();
+                for (FieldAccessor accessor : accessors) {
+                    result.put(accessor.getName(), accessor);
                 }
-                return Collections.unmodifiableMap(result);
+                return result;
             }
 
-            public Map<String, Field> getPropertyFields() {
+            public Map<String, FieldAccessor> getPropertyFields() {
                 return propertyFields;
             }
 
-            public Map<String, Field> getRelationshipFields() {
+            public Map<String, FieldAccessor> getRelationshipFields() {
                 return relationshipFields;
             }
 
             public Class<?> getType() {
                 return type;
             }
+
+            int getRelationshipCount() {
+                return relationshipAccessors.length;
+            }
+
+            FieldAccessor getRelationshipAccessor(int slot) {
+                return relationshipAccessors[slot];
+            }
+
+            RelationshipType getRelationshipType(int slot) {
+                return relationshipTypes[slot];
+            }
+
+            /**
+             * @return the slot of the relationship field or -1 if there is no such field
+             */
+            int getRelationshipSlot(String name) {
+                return relationshipSlots.get(name);
+            }
+
+            int getPropertyCount() {
+                return propertyAccessors.length;
+            }
+
+            FieldAccessor getPropertyAccessor(int slot) {
+                return propertyAccessors[slot];
+            }
+
+            /**
+             * @return the slot of the property field or -1 if there is no such field
+             */
+            int getPropertySlot(String name) {
+                return propertySlots.get(name);
+            }
+
+            /**
+             * Open addressing table from field name to slot, names are mostly the same string instances
+             * so the identity check usually hits before equals.
+             */
+            private static final class Slots {
+                private final String[] names;
+                private final int[] slots;
+                private final int mask;
+
+                Slots(FieldAccessor[] accessors) {
+                    final int capacity = Integer.highestOneBit(Math.max(1, accessors.length) * 2) * 2;
+                    this.names = new String[capacity];
+                    this.slots = new int[capacity];
+                    this.mask = capacity - 1;
+                    for (int slot = 0; slot < accessors.length; slot++) {
+                        final String name = accessors[slot].getName().intern();
+                        int i = name.hashCode() & mask;
+                        while (names[i] != null) {
+                            i = (i + 1) & mask;
+                        }
+                        names[i] = name;
+                        slots[i] = slot;
+                    }
+                }
+
+                int get(String name) {
+                    if (name == null) return -1;
+                    int i = name.hashCode() & mask;
+                    String candidate;
+                    while ((candidate = names[i]) != null) {
+                        if (candidate == name || candidate.equals(name)) return slots[i];
+                        i = (i + 1) & mask;
+                    }
+                    return -1;
+                }
+            }
+        }
+        private final ConcurrentMap<Class<?>, MappingInfo> mappings = new ConcurrentHashMap<Class<?>, MappingInfo>();
+        private final ConcurrentMap<Class<?>, FutureTask<MappingInfo>> computations = new ConcurrentHashMap<Class<?>, FutureTask<MappingInfo>>();
+        private final ConcurrentMap<String, RelationshipType> relationshipTypes = new ConcurrentHashMap<String, RelationshipType>();
+
+        /**
+         * @return the interned relationship type with the name
+         */
+        RelationshipType relationshipType(String name) {
+            final RelationshipType type = relationshipTypes.get(name);
+            if (type != null) return type;
+            final RelationshipType created = DynamicRelationshipType.withName(name);
+            final RelationshipType existing = relationshipTypes.putIfAbsent(name, created);
+            return existing != null ? existing : created;
+        }
+
+        Collection<RelationshipType> getRelationshipTypes() {
+            return Collections.unmodifiableCollection(relationshipTypes.values());
         }
-        Map<Class,MappingInfo> mappings = new HashMap<Class, MappingInfo>();
-        
+
+        /**
+         * lock free for known types, the mapping of a new type is computed exactly once while
+         * concurrent callers for the same type wait for it
+         */
         public MappingInfo getInfo(Class<?> type) {
-            if (!mappings.containsKey(type)) {
-                mappings.put(type, new MappingInfo(type));
+            final MappingInfo info = mappings.get(type);
+            if (info != null) return info;
+            return computeInfo(type);
+        }
+
+        private MappingInfo computeInfo(final Class<?> type) {
+            final FutureTask<MappingInfo> task = new FutureTask<MappingInfo>(new Callable<MappingInfo>() {
+                @Override
+                public MappingInfo call() {
+                    return new MappingInfo(type, MappingContext.this);
+                }
+            });
+            FutureTask<MappingInfo> computation = computations.putIfAbsent(type, task);
+            if (computation == null) {
+                computation = task;
+                computation.run();
+            }
+            try {
+                final MappingInfo info = computation.get();
+                mappings.putIfAbsent(type, info);
+                return info;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while mapping " + type, e);
+            } catch (ExecutionException e) {
+                computations.remove(type, computation);
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new RuntimeException("Error mapping " + type, cause);
             }
-            return mappings.get(type);
         }
     }
     
     public ObjectGraphDatabaseService(Object root) {
+        this(root, null);
+    }
+
+    /**
+     * @param config see {@link ObjectGraphConfig} for the supported keys
+     */
+    public ObjectGraphDatabaseService(Object root, Map<String, String> config) {
         this.root = root;
-        for (Node node : Traversal.description().breadthFirst().traverse(getReferenceNode()).nodes()) {
-            allNodes.put(node.getId(), node);
-            final ObjectNode objectNode = (ObjectNode) node;
-            addToIndex(node, objectNode);
+        this.config = new ObjectGraphConfig(config);
+        this.nodeIds = new NodeIdRegistry(this, this.config.getNodeReferences());
+        this.discovery = new GraphDiscovery(this, nodeIds);
+        this.reverseAdjacency = this.config.isReverseIndex() ? new ReverseAdjacency() : null;
+        this.changeTracker = this.config.isChangeTracking() ? new ChangeTracker(this, reverseAdjacency != null) : null;
+        for (String property : this.config.getNodeKeysIndexable()) {
+            objectIndexManager.getNodeAutoIndexer().startAutoIndexingProperty(property);
+        }
+        objectIndexManager.getNodeAutoIndexer().setEnabled(this.config.isNodeAutoIndexing());
+        this.relationshipIndex = this.config.isRelationshipIndex() ? (ObjectRelationshipIndex) objectIndexManager.forRelationships(ObjectRelationshipIndex.NAME) : null;
+        this.restored = restore(root);
+        if (!restored) nodeIds.register(root);
+        switch (this.config.getDiscovery()) {
+            case EAGER:
+                discovery.discoverAll(this.config.getDiscoveryThreads());
+                break;
+            case BACKGROUND:
+                discovery.start();
+                break;
+        }
+        if (this.config.getChangeScanInterval() > 0) changeTracker.start(this.config.getChangeScanInterval());
+    }
+
+    /**
+     * takes the ids and index entries from the configured snapshot file if it can be used with this configuration
+     * and matches the root
+     */
+    private boolean restore(Object root) {
+        if (relationshipIndex != null || changeTracker != null || config.isNodeAutoIndexing() || config.hasFulltextFields()) return false;
+        final SnapshotFile snapshot = SnapshotFile.open(config.getSnapshotFile(), root);
+        if (snapshot == null || !snapshot.matchesRoot(this, root)) return false;
+        snapshot.restore(this, nodeIds, root, objectIndexManager, reverseAdjacency);
+        discovery.restored(snapshot.getNodeCount());
+        return true;
+    }
+
+    /**
+     * @return true if the ids and index entries were restored from the {@link ObjectGraphConfig#SNAPSHOT_FILE}
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    /**
+     * discovers the graph and writes its ids, relationships and exact index entries to the file, to be restored
+     * with {@link ObjectGraphConfig#SNAPSHOT_FILE}
+     * @throws IllegalArgumentException for index values other than primitives, strings, enums, dates and nodes
+     */
+    public void save(File file) throws IOException {
+        discovery.discoverAll();
+        SnapshotFile.write(this, root, objectIndexManager, file);
+    }
+
+    /**
+     * registers the targets of all outgoing relationships of the node and records them as incoming
+     * relationships of the targets and in the relationship index
+     */
+    void expand(ObjectNode node) {
+        final long id = node.getId();
+        for (Relationship relationship : node.getRelationships(Direction.OUTGOING)) {
+            final long target = relationship.getEndNode().getId();
+            if (reverseAdjacency != null) reverseAdjacency.add(relationship.getType().name(), target, id);
+            if (relationshipIndex != null) relationshipIndex.addOutgoing(relationship, ObjectRelationshipIndex.TYPE, relationship.getType().name());
+        }
+    }
+
+    void relationshipCreated(ObjectNode start, String type, ObjectNode end) {
+        if (changeTracker != null) {
+            changeTracker.refresh(start);
+            return;
         }
+        final long id = start.getId();
+        if (!discovery.isDiscovered(id)) return;
+        if (reverseAdjacency != null) reverseAdjacency.add(type, end.getId(), id);
+        // discovery may have expanded the node after the field changed and indexed the edge already
+        if (relationshipIndex != null) relationshipIndex.add(new ObjectRelationship(start, relationshipType(type), end, this), ObjectRelationshipIndex.TYPE, type);
     }
 
-    private void addToIndex(Node node, ObjectNode objectNode) {
-        final String indexName = objectNode.getType().getSimpleName();
-        final Index<Node> index = index().forNodes(indexName);
-        for (String property : node.getPropertyKeys()) {
-            index.add(node, property, node.getProperty(property));
+    void relationshipRemoved(ObjectNode start, String type, ObjectNode end) {
+        if (changeTracker != null) {
+            changeTracker.refresh(start);
+            return;
         }
+        final long id = start.getId();
+        if (!discovery.isDiscovered(id)) return;
+        if (reverseAdjacency != null) reverseAdjacency.remove(type, end.getId(), id);
+        if (relationshipIndex != null) relationshipIndex.remove(new ObjectRelationship(start, relationshipType(type), end, this), ObjectRelationshipIndex.TYPE, type);
+    }
+
+    /**
+     * re-indexes the outgoing relationships of the type after the change tracker saw the field change
+     */
+    void relationshipsChanged(ObjectNode node, RelationshipType type) {
+        if (relationshipIndex == null) return;
+        relationshipIndex.removeOutgoing(node, type, ObjectRelationshipIndex.TYPE, type.name());
+        for (Relationship relationship : node.getRelationships(Direction.OUTGOING, type)) {
+            relationshipIndex.addOutgoing(relationship, ObjectRelationshipIndex.TYPE, type.name());
+        }
+    }
+
+    /**
+     * @param types the relationship types to follow, all if empty
+     * @return the incoming relationships of the node, needs the reverse index to be enabled
+     */
+    Iterable<Relationship> getIncomingRelationships(final ObjectNode node, final RelationshipType... types) {
+        if (reverseAdjacency == null) return ObjectNode.NO_RELS;
+        discovery.discoverAll();
+        return new Iterable<Relationship>() {
+            @Override
+            public Iterator<Relationship> iterator() {
+                return new IncomingRelationships(node, types == null || types.length == 0 ? null : types);
+            }
+        };
+    }
+
+    /**
+     * Walks the source arrays of the reverse index per type without copying them.
+     */
+    private class IncomingRelationships extends PrefetchingIterator<Relationship> {
+        private final ObjectNode node;
+        private final long id;
+        private final RelationshipType[] types;
+        private final Iterator<String> typeNames;
+        private int nextType;
+        private RelationshipType type;
+        private ReverseAdjacency.Sources sources = ReverseAdjacency.NONE;
+        private int position;
+
+        /**
+         * @param types the types to follow, all types of the reverse index if null
+         */
+        IncomingRelationships(ObjectNode node, RelationshipType[] types) {
+            this.node = node;
+            this.id = node.getId();
+            this.types = types;
+            this.typeNames = types == null ? reverseAdjacency.getTypes().iterator() : null;
+        }
+
+        @Override
+        protected Relationship fetchNextOrNull() {
+            while (true) {
+                while (position < sources.count) {
+                    final ObjectNode source = nodeIds.node(sources.ids[position++]);
+                    if (source != null) return new ObjectRelationship(source, type, node, ObjectGraphDatabaseService.this);
+                }
+                if (types != null) {
+                    if (nextType == types.length) return null;
+                    type = types[nextType++];
+                } else {
+                    if (!typeNames.hasNext()) return null;
+                    type = relationshipType(typeNames.next());
+                }
+                sources = reverseAdjacency.sources(type.name(), id);
+                position = 0;
+            }
+        }
+    }
+
+    void addToIndex(ObjectNode node) {
+        final String indexName = indexName(node.getType());
+        final Index<Node> index = objectIndexManager.forNodes(indexName);
+        final MappingContext.MappingInfo info = node.getMappingInfo();
+        for (int slot = 0; slot < info.getPropertyCount(); slot++) {
+            final Object value = node.getPropertyAt(slot);
+            if (value != null) index.add(node, info.getPropertyAccessor(slot).getName(), value);
+        }
+        objectIndexManager.nodeAutoIndexer().nodeDiscovered(node);
+        if (changeTracker != null) changeTracker.record(node);
+        final Set<String> fulltextFields = config.getFulltextFields(indexName);
+        if (fulltextFields.isEmpty()) return;
+        final Index<Node> fulltext = objectIndexManager.forNodes(fulltextIndexName(node.getType()), FulltextNodeIndex.CONFIG);
+        for (String field : fulltextFields) {
+            if (node.hasProperty(field)) fulltext.add(node, field, node.getProperty(field));
+        }
+    }
+
+    /**
+     * updates the indexes of a discovered node, nodes that are not discovered yet are indexed with
+     * their current values once they are
+     */
+    void propertyChanged(ObjectNode node, String property, Object oldValue, Object newValue) {
+        if (changeTracker != null) {
+            changeTracker.refresh(node, property, oldValue);
+            return;
+        }
+        if (!discovery.isDiscovered(node.getId())) return;
+        indexPropertyChange(node, property, oldValue, newValue);
+    }
+
+    /**
+     * @param oldValue the previous value or {@link #UNKNOWN_VALUE} to remove all entries of the node for the property
+     */
+    void indexPropertyChange(ObjectNode node, String property, Object oldValue, Object newValue) {
+        final String indexName = indexName(node.getType());
+        replaceIndexed(objectIndexManager.forNodes(indexName), node, property, oldValue, newValue);
+        objectIndexManager.nodeAutoIndexer().propertyChanged(node, property, oldValue, newValue);
+        if (!config.getFulltextFields(indexName).contains(property)) return;
+        final Index<Node> fulltext = objectIndexManager.forNodes(fulltextIndexName(node.getType()), FulltextNodeIndex.CONFIG);
+        replaceIndexed(fulltext, node, property, oldValue, newValue);
+    }
+
+    static void replaceIndexed(Index<Node> index, Node node, String property, Object oldValue, Object newValue) {
+        // like discovery, null values are not indexed
+        if (oldValue == UNKNOWN_VALUE) index.remove(node, property);
+        else if (oldValue != null) index.remove(node, property, oldValue);
+        if (newValue != null) index.add(node, property, newValue);
+    }
+
+    void incomingAdded(ObjectNode source, RelationshipType type, long target) {
+        reverseAdjacency.add(type.name(), target, source.getId());
+    }
+
+    void incomingRemoved(ObjectNode source, RelationshipType type, long target) {
+        reverseAdjacency.remove(type.name(), target, source.getId());
+    }
+
+    /**
+     * Picks up changes made directly on the objects, needs {@link ObjectGraphConfig#CHANGE_TRACKING}.
+     * Only changed properties are re-indexed, new targets of changed relationship fields are discovered.
+     * @return the number of changed nodes
+     */
+    public int refresh(Object... objects) {
+        if (changeTracker == null) throw new IllegalStateException("Change tracking is not enabled, see ObjectGraphConfig.CHANGE_TRACKING");
+        int changed = 0;
+        for (Object object : objects) {
+            final long id = nodeIds.idOf(object);
+            final ObjectNode node = id == -1 ? null : nodeIds.node(id);
+            if (node != null && changeTracker.refresh(node)) changed++;
+        }
+        discoverNew();
+        return changed;
+    }
+
+    /**
+     * refreshes all discovered nodes, see {@link #refresh(Object...)}
+     */
+    public int refreshAll() {
+        if (changeTracker == null) throw new IllegalStateException("Change tracking is not enabled, see ObjectGraphConfig.CHANGE_TRACKING");
+        final int changed = changeTracker.refreshAll();
+        discoverNew();
+        return changed;
+    }
+
+    private void discoverNew() {
+        if (config.getDiscovery() != ObjectGraphConfig.Discovery.LAZY) discovery.discoverAll();
+    }
+
+    /**
+     * @return a traversal description that expands the relationship fields of the objects directly
+     */
+    public ObjectTraversalDescription traversalDescription() {
+        return new ObjectTraversalDescription(this);
+    }
+
+    /**
+     * @return a breadth first traversal that expands each level on the threads of the traversal pool
+     */
+    public ParallelTraversal parallelTraversal() {
+        return new ParallelTraversal(this);
+    }
+
+    /**
+     * discovers the graph and takes a snapshot of its relationships for the algorithms
+     * @param types the relationship types to include, all if none are given
+     */
+    public GraphAlgorithms algorithms(RelationshipType... types) {
+        return snapshot(types).algorithms();
+    }
+
+    /**
+     * discovers the graph and copies its relationships into compressed rows on the threads of the traversal pool
+     * @param types the relationship types to include, all if none are given
+     */
+    public AdjacencySnapshot snapshot(RelationshipType... types) {
+        discovery.discoverAll();
+        return AdjacencySnapshot.build(this, types);
+    }
+
+    /**
+     * drops a property that an algorithm wrote to all nodes
+     */
+    public void removeVirtualProperty(String name) {
+        virtualProperties.remove(name);
+    }
+
+    VirtualProperties virtualProperties() {
+        return virtualProperties;
+    }
+
+    int getTraversalThreads() {
+        return config.getTraversalThreads();
+    }
+
+    /**
+     * the pool is started with the first large parallel traversal and stopped on shutdown
+     */
+    synchronized ExecutorService traversalPool() {
+        if (traversalPool == null) {
+            traversalPool = Executors.newFixedThreadPool(getTraversalThreads(), new ThreadFactory() {
+                private int count;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "object-graph-traversal-" + (count++));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return traversalPool;
+    }
+
+    /**
+     * @return the nodes that have been expanded and indexed so far, without discovering more
+     */
+    Iterable<ObjectNode> getDiscoveredNodes() {
+        return new Iterable<ObjectNode>() {
+            @Override
+            public Iterator<ObjectNode> iterator() {
+                return new PrefetchingIterator<ObjectNode>() {
+                    private long id = 0;
+
+                    @Override
+                    protected ObjectNode fetchNextOrNull() {
+                        while (discovery.isDiscovered(id)) {
+                            final ObjectNode node = nodeIds.node(id++);
+                            if (node != null) return node;
+                        }
+                        return null;
+                    }
+                };
+            }
+        };
     }
 
     @Override
@@ -105,36 +620,148 @@ public class ObjectGraphDatabaseService implements GraphDatabaseService {
 
     @Override
     public ObjectNode getNodeById(long id) {
-        return (ObjectNode) allNodes.get(id);
+        discovery.discoverUntil(id);
+        return nodeIds.node(id);
     }
 
     @Override
-    public Relationship getRelationshipById(long l) {
-        throw new UnsupportedOperationException();
+    public ObjectRelationship getRelationshipById(long id) {
+        final ObjectNode start = id < 0 ? null : getNodeById(ObjectRelationship.startNodeId(id));
+        ObjectRelationship relationship = start == null ? null : start.getRelationshipAt(ObjectRelationship.slot(id), ObjectRelationship.position(id));
+        final ObjectTransaction tx = currentTransaction();
+        if (relationship == null && start != null && tx != null) relationship = tx.createdRelationship(start.getValue(), id);
+        if (relationship == null) throw new NotFoundException("Relationship " + id + " not found");
+        return relationship;
     }
 
     @Override
     public ObjectNode getReferenceNode() {
-        return new ObjectNode(root, this);
+        return createNode(root);
     }
 
     @Override
     public Iterable<Node> getAllNodes() {
-        return allNodes.values();
+        return new Iterable<Node>() {
+            @Override
+            public Iterator<Node> iterator() {
+                return new PrefetchingIterator<Node>() {
+                    private long id = 0;
+
+                    @Override
+                    protected Node fetchNextOrNull() {
+                        while (true) {
+                            discovery.discoverUntil(id);
+                            if (id >= nodeIds.size()) return null;
+                            final ObjectNode node = nodeIds.node(id++);
+                            if (node != null) return node;
+                        }
+                    }
+                };
+            }
+        };
     }
 
     @Override
     public Iterable<RelationshipType> getRelationshipTypes() {
-        throw new UnsupportedOperationException();
+        discovery.discoverAll();
+        return mappingContext.getRelationshipTypes();
+    }
+
+    RelationshipType relationshipType(String name) {
+        return mappingContext.relationshipType(name);
     }
 
     @Override
     public void shutdown() {
+        discovery.stop();
+        if (changeTracker != null) changeTracker.stop();
+        synchronized (this) {
+            if (traversalPool != null) traversalPool.shutdownNow();
+            traversalPool = null;
+        }
     }
 
+    /**
+     * Starts a transaction that buffers the property and relationship changes of this thread until it
+     * finishes successfully. Writes outside of a transaction are applied directly. A transaction started
+     * while the thread already has one joins it, marking it as failed rolls back the outer one.
+     */
     @Override
     public Transaction beginTx() {
-        throw new UnsupportedOperationException();
+        final ObjectTransaction current = transactions.get();
+        if (current != null) return current.nested();
+        final ObjectTransaction tx = new ObjectTransaction(this);
+        transactions.set(tx);
+        opened(tx);
+        return tx;
+    }
+
+    /**
+     * readers only look up the thread's transaction while any thread has one open
+     */
+    boolean hasOpenTransactions() {
+        return openTransactions != 0;
+    }
+
+    /**
+     * @return the open transaction of this thread or null
+     */
+    ObjectTransaction currentTransaction() {
+        if (openTransactions == 0) return null;
+        final ObjectTransaction single = singleTransaction;
+        if (single != null) return single.isOwner(Thread.currentThread()) ? single : null;
+        return transactions.get();
+    }
+
+    void transactionFinished(ObjectTransaction tx) {
+        if (transactions.get() != tx) return;
+        transactions.remove();
+        closed(tx);
+    }
+
+    /**
+     * takes the commit lock for a commit or a direct write, writes of other threads wait until
+     * {@link #writeFinished()}, nested writes of the same thread join the outer one
+     */
+    void writeStarted() {
+        commitLock.lock();
+        if (commitLock.getHoldCount() == 1) writeVersion++;
+    }
+
+    void writeFinished() {
+        if (commitLock.getHoldCount() == 1) writeVersion++;
+        commitLock.unlock();
+    }
+
+    /**
+     * @return the version of the committed state, waits for a write of another thread to finish first
+     */
+    int stableVersion() {
+        final int version = writeVersion;
+        if ((version & 1) == 0 || commitLock.isHeldByCurrentThread()) return version;
+        commitLock.lock();
+        try {
+            return writeVersion;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if no write started since the {@link #stableVersion()} was read
+     */
+    boolean unchangedSince(int version) {
+        return writeVersion == version;
+    }
+
+    private synchronized void opened(ObjectTransaction tx) {
+        singleTransaction = openTransactions == 0 ? tx : null;
+        openTransactions++;
+    }
+
+    private synchronized void closed(ObjectTransaction tx) {
+        openTransactions--;
+        if (singleTransaction == tx || openTransactions == 0) singleTransaction = null;
     }
 
     @Override
@@ -159,14 +786,56 @@ public class ObjectGraphDatabaseService implements GraphDatabaseService {
 
     @Override
     public IndexManager index() {
+        discovery.discoverAll();
         return objectIndexManager;
     }
 
-    Map<String, Field> getRelationshipFields(Class<?> type) {
+    /**
+     * @return true if all nodes reachable from the root have been discovered and indexed
+     */
+    public boolean isDiscoveryComplete() {
+        return discovery.isComplete();
+    }
+
+    public ObjectGraphConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the node with the id without triggering discovery, null for evicted nodes
+     */
+    ObjectNode registeredNode(long id) {
+        return nodeIds.node(id);
+    }
+
+    Object registeredValue(long id) {
+        return nodeIds.get(id);
+    }
+
+    /**
+     * @return the id of the object or -1 if it is not registered, without registering it
+     */
+    long registeredId(Object value) {
+        return nodeIds.idOf(value);
+    }
+
+    int nodeCount() {
+        return nodeIds.size();
+    }
+
+    long nodeId(Object value) {
+        return nodeIds.register(value);
+    }
+
+    MappingContext.MappingInfo getMappingInfo(Class<?> type) {
+        return mappingContext.getInfo(type);
+    }
+
+    Map<String, FieldAccessor> getRelationshipFields(Class<?> type) {
         return mappingContext.getInfo(type).getRelationshipFields();
     }
 
-    Map<String, Field> getPropertyFields(Class<?> type) {
+    Map<String, FieldAccessor> getPropertyFields(Class<?> type) {
         return mappingContext.getInfo(type).getPropertyFields();
     }
 
@@ -182,4 +851,11 @@ public class ObjectGraphDatabaseService implements GraphDatabaseService {
     public String indexName(Class<?> type) {
         return type.getSimpleName();
     }
+
+    /**
+     * @return the name of the fulltext index of the type, filled for the fields configured with {@link ObjectGraphConfig#FULLTEXT}
+     */
+    public String fulltextIndexName(Class<?> type) {
+        return indexName(type) + "_fulltext";
+    }
 }
@@ -2,18 +2,31 @@ package org.neo4j.wrapper;
 
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.index.*;
 
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author mh
  * @since 25.11.11
  */
 public class ObjectIndexManager implements IndexManager {
-    private final Map<String,Index<Node>> indexes = new HashMap<String, Index<Node>>();
+    private final ConcurrentMap<String,Index<Node>> indexes = new ConcurrentHashMap<String, Index<Node>>();
+    private final ConcurrentMap<String,RelationshipIndex> relationshipIndexes = new ConcurrentHashMap<String, RelationshipIndex>();
+    private final ConcurrentMap<String,Map<String,String>> configs = new ConcurrentHashMap<String, Map<String, String>>();
+    private final ConcurrentMap<String,Map<String,String>> relationshipConfigs = new ConcurrentHashMap<String, Map<String, String>>();
+    private final ObjectGraphDatabaseService gdb;
+    private final ObjectNodeAutoIndexer nodeAutoIndexer;
+
+    public ObjectIndexManager(ObjectGraphDatabaseService gdb) {
+        this.gdb = gdb;
+        this.nodeAutoIndexer = new ObjectNodeAutoIndexer(gdb);
+    }
 
     @Override
     public boolean existsForNodes(String name) {
@@ -22,15 +35,32 @@ public class ObjectIndexManager implements IndexManager {
 
     @Override
     public Index<Node> forNodes(String name) {
-        if (!existsForNodes(name)) {
-            indexes.put(name, new ObjectNodeIndex(name));
-        }
-        return indexes.get(name);
+        return forNodes(name, Collections.<String, String>emptyMap());
     }
 
+    /**
+     * @param config {@code type=fulltext} creates a {@link FulltextNodeIndex}, otherwise an exact match index,
+     * with {@code storage=off_heap} or {@link ObjectGraphConfig#OFF_HEAP_INDEX} an {@link OffHeapNodeIndex},
+     * the config of an existing index is not changed
+     */
     @Override
     public Index<Node> forNodes(String name, Map<String, String> config) {
-        return forNodes(name);
+        final Index<Node> index = indexes.get(name);
+        if (index != null) return index;
+        final Index<Node> created;
+        if (FulltextNodeIndex.FULLTEXT.equals(config.get(FulltextNodeIndex.TYPE))) created = new FulltextNodeIndex(name, gdb);
+        else if (isOffHeap(config)) created = new OffHeapNodeIndex(name, gdb);
+        else created = new ObjectNodeIndex(name, gdb);
+        final Index<Node> existing = indexes.putIfAbsent(name, created);
+        if (existing != null) return existing;
+        configs.put(name, Collections.unmodifiableMap(new HashMap<String, String>(config)));
+        return created;
+    }
+
+    private boolean isOffHeap(Map<String, String> config) {
+        final String storage = config.get(OffHeapNodeIndex.STORAGE);
+        if (storage != null) return OffHeapNodeIndex.OFF_HEAP.equals(storage);
+        return gdb.getConfig().isOffHeapIndex();
     }
 
     @Override
@@ -40,27 +70,37 @@ public class ObjectIndexManager implements IndexManager {
 
     @Override
     public boolean existsForRelationships(String name) {
-        return false;
+        return relationshipIndexes.containsKey(name);
     }
 
     @Override
     public RelationshipIndex forRelationships(String name) {
-        throw new UnsupportedOperationException();
+        return forRelationships(name, Collections.<String, String>emptyMap());
     }
 
+    /**
+     * @param config only exact match relationship indexes are supported, the config is just stored
+     */
     @Override
     public RelationshipIndex forRelationships(String name, Map<String, String> config) {
-        throw new UnsupportedOperationException();
+        final RelationshipIndex index = relationshipIndexes.get(name);
+        if (index != null) return index;
+        final RelationshipIndex created = new ObjectRelationshipIndex(name, gdb);
+        final RelationshipIndex existing = relationshipIndexes.putIfAbsent(name, created);
+        if (existing != null) return existing;
+        relationshipConfigs.put(name, Collections.unmodifiableMap(new HashMap<String, String>(config)));
+        return created;
     }
 
     @Override
     public String[] relationshipIndexNames() {
-        return new String[0];
+        return relationshipIndexes.keySet().toArray(new String[relationshipIndexes.size()]);
     }
 
     @Override
     public Map<String, String> getConfiguration(Index<? extends PropertyContainer> index) {
-        return Collections.emptyMap();
+        final Map<String, String> config = (Relationship.class.equals(index.getEntityType()) ? relationshipConfigs : configs).get(index.getName());
+        return config == null ? Collections.<String, String>emptyMap() : config;
     }
 
     @Override
@@ -75,7 +115,11 @@ public class ObjectIndexManager implements IndexManager {
 
     @Override
     public AutoIndexer<Node> getNodeAutoIndexer() {
-        throw new UnsupportedOperationException();
+        return nodeAutoIndexer;
+    }
+
+    ObjectNodeAutoIndexer nodeAutoIndexer() {
+        return nodeAutoIndexer;
     }
 
     @Override
@@ -4,10 +4,8 @@ import org.neo4j.graphdb.*;
 import org.neo4j.helpers.collection.CombiningIterable;
 import org.neo4j.helpers.collection.IterableWrapper;
 import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.helpers.collection.PrefetchingIterator;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 import java.util.*;
 
 import static java.util.Collections.singleton;
@@ -21,35 +19,90 @@ public class ObjectNode implements Node {
     static final Set<Relationship> NO_RELS = Collections.emptySet();
     private ObjectGraphDatabaseService gdb;
     private Object value;
+    private long id;
+    private ObjectGraphDatabaseService.MappingContext.MappingInfo mappingInfo;
 
+    /**
+     * prefer {@link ObjectGraphDatabaseService#createNode(Object)} which returns the canonical node for the value
+     */
     public ObjectNode(Object value, ObjectGraphDatabaseService gdb) {
-        this.value = value;
-        this.gdb = gdb;
+        this(value, gdb, -1);
     }
 
-    private void setValue(String name, Object newValue) {
-        try {
-            final Field field = getField(name);
-            if (field == null) throw new RuntimeException("No such field " + name);
-            field.set(value, newValue);
-        } catch (IllegalAccessException e) {
-            // ignore
+    ObjectNode(Object value, ObjectGraphDatabaseService gdb, long id) {
+        this.value = value;
+        this.gdb = gdb;
+        this.id = id;
+    }
+
+    /**
+     * writes the field and updates the indexes, bypassing the transaction of the thread
+     * @return the previous value
+     */
+    Object setValue(String name, Object newValue) {
+        final FieldAccessor field = getField(name);
+        if (field == null) throw new RuntimeException("No such field " + name);
+        final Object oldValue = field.get(value);
+        field.set(value, newValue);
+        gdb.propertyChanged(this, name, oldValue, newValue);
+        return oldValue;
+    }
+
+    /**
+     * buffers the change in the transaction of the thread or writes it directly without one
+     */
+    private void changeValue(String name, Object newValue) {
+        final ObjectTransaction tx = gdb.currentTransaction();
+        if (tx == null) {
+            gdb.writeStarted();
+            try {
+                setValue(name, newValue);
+            } finally {
+                gdb.writeFinished();
+            }
+            return;
         }
+        if (getField(name) == null) throw new RuntimeException("No such field " + name);
+        tx.propertyChanged(this, name, newValue);
     }
 
     private Object getValue(String name) {
-        final Field field = getField(name);
-        if (field == null) return null;
+        final FieldAccessor field = getField(name);
+        if (field == null) return gdb.virtualProperties().get(name, getId());
         return getValue(field);
     }
 
-    private Field getField(String name) {
-       return getPropertyFields().get(name);
+    private FieldAccessor getField(String name) {
+        final ObjectGraphDatabaseService.MappingContext.MappingInfo info = getMappingInfo();
+        final int slot = info.getPropertySlot(name);
+        return slot == -1 ? null : info.getPropertyAccessor(slot);
+    }
+
+    private FieldAccessor getRelationshipField(String name) {
+        final ObjectGraphDatabaseService.MappingContext.MappingInfo info = getMappingInfo();
+        final int slot = info.getRelationshipSlot(name);
+        return slot == -1 ? null : info.getRelationshipAccessor(slot);
+    }
+
+    /**
+     * resolves a property name once, the slot is valid for all nodes of the same type
+     * @return the slot of the property or -1 if the type has no such property
+     */
+    public int propertySlot(String name) {
+        return getMappingInfo().getPropertySlot(name);
+    }
+
+    /**
+     * @param slot see {@link #propertySlot(String)}
+     */
+    public Object getPropertyAt(int slot) {
+        return getValue(getMappingInfo().getPropertyAccessor(slot));
     }
 
     @Override
     public long getId() {
-        return System.identityHashCode(value);
+        if (id == -1) id = gdb.nodeId(value);
+        return id;
     }
 
     @Override
@@ -59,7 +112,7 @@ public class ObjectNode implements Node {
 
     @Override
     public Iterable<Relationship> getRelationships() {
-        return toRelationships(getRelationshipFields());
+        return getRelationships(Direction.BOTH);
     }
 
     @Override
@@ -69,30 +122,29 @@ public class ObjectNode implements Node {
 
     @Override
     public Iterable<Relationship> getRelationships(RelationshipType... relationshipTypes) {
-        final Map<String, Field> allRelationshipFields = getRelationshipFields();
-        final HashMap<String, Field> relationshipFields = new HashMap<String, Field>();
-        for (RelationshipType type : relationshipTypes) {
-            relationshipFields.put(type.name(), allRelationshipFields.get(type.name()));
-        }
-        return toRelationships(relationshipFields);
+        return getRelationships(Direction.BOTH, relationshipTypes);
     }
 
     @Override
     public Iterable<Relationship> getRelationships(Direction direction, RelationshipType... relationshipTypes) {
-        if (direction == Direction.INCOMING) return NO_RELS;
-        return getRelationships(relationshipTypes);
+        switch (direction) {
+            case OUTGOING:
+                return withCreated(outgoingRelationships(relationshipTypes), relationshipTypes);
+            case INCOMING:
+                return gdb.getIncomingRelationships(this, relationshipTypes);
+            default:
+                return bothDirections(withCreated(outgoingRelationships(relationshipTypes), relationshipTypes), gdb.getIncomingRelationships(this, relationshipTypes));
+        }
     }
 
     @Override
     public boolean hasRelationship(RelationshipType... relationshipTypes) {
-        return hasRelationship(Direction.OUTGOING,relationshipTypes);
+        return hasRelationship(Direction.BOTH, relationshipTypes);
     }
 
     @Override
     public boolean hasRelationship(Direction direction, RelationshipType... relationshipTypes) {
-        if (direction == Direction.INCOMING) return false;
-        final Iterable<Relationship> values = getRelationships(relationshipTypes);
-        return isNotEmpty(values);
+        return isNotEmpty(getRelationships(direction, relationshipTypes));
     }
 
     private boolean isNotEmpty(Iterable<Relationship> values) {
@@ -101,9 +153,7 @@ public class ObjectNode implements Node {
 
     @Override
     public Iterable<Relationship> getRelationships(Direction direction) {
-        if (direction == Direction.INCOMING) return NO_RELS;
-        final Map<String, Field> relationshipFields = getRelationshipFields();
-        return toRelationships(relationshipFields);
+        return getRelationships(direction, new RelationshipType[0]);
     }
 
     @Override
@@ -112,46 +162,112 @@ public class ObjectNode implements Node {
     }
 
     @SuppressWarnings("unchecked")
-    private Iterable<Relationship> toRelationships(final Map<String, Field> relationshipFields) {
-        return new CombiningIterable<Relationship>(new IterableWrapper<Iterable<Relationship>, Map.Entry<String, Field>>(relationshipFields.entrySet()) {
+    private Iterable<Relationship> bothDirections(Iterable<Relationship> outgoing, Iterable<Relationship> incoming) {
+        if (incoming == NO_RELS) return outgoing;
+        return new CombiningIterable<Relationship>(Arrays.asList(outgoing, incoming));
+    }
+
+    /**
+     * adds the relationships that the transaction of this thread created but didn't commit yet
+     */
+    private Iterable<Relationship> withCreated(Iterable<Relationship> outgoing, RelationshipType... relationshipTypes) {
+        final ObjectTransaction tx = gdb.currentTransaction();
+        if (tx == null) return outgoing;
+        final Iterable<Relationship> created = tx.createdRelationships(value, relationshipTypes);
+        if (!created.iterator().hasNext()) return outgoing;
+        return bothDirections(outgoing, created);
+    }
+
+    /**
+     * @param relationshipTypes the relationship fields to expand, all if empty
+     */
+    private Iterable<Relationship> outgoingRelationships(final RelationshipType... relationshipTypes) {
+        final ObjectGraphDatabaseService.MappingContext.MappingInfo info = getMappingInfo();
+        if (info.getRelationshipCount() == 0) return NO_RELS;
+        return new Iterable<Relationship>() {
             @Override
-            protected Iterable<Relationship> underlyingObjectToObject(Map.Entry<String, Field> entry) {
-                final Object iterableValue = getValue(entry.getValue());
-                if (iterableValue instanceof Iterable<?>) {
-                    final DynamicRelationshipType relationshipType = DynamicRelationshipType.withName(entry.getKey());
-                    return toRelationships(relationshipType, (Iterable<Object>) iterableValue);
+            public Iterator<Relationship> iterator() {
+                return new OutgoingRelationships(info, relationshipTypes);
+            }
+        };
+    }
+
+    /**
+     * Walks the relationship fields and their elements directly, reusing the canonical nodes of the
+     * targets and the relationship types interned per field.
+     */
+    private class OutgoingRelationships extends PrefetchingIterator<Relationship> {
+        private final ObjectGraphDatabaseService.MappingContext.MappingInfo info;
+        private final RelationshipType[] types;
+        private int next;
+        private Iterator<?> targets;
+        private RelationshipType type;
+        private int slot;
+        private int position;
+
+        OutgoingRelationships(ObjectGraphDatabaseService.MappingContext.MappingInfo info, RelationshipType[] types) {
+            this.info = info;
+            this.types = types == null || types.length == 0 ? null : types;
+        }
+
+        @Override
+        protected Relationship fetchNextOrNull() {
+            while (true) {
+                while (targets != null && targets.hasNext()) {
+                    final Object target = targets.next();
+                    final int targetPosition = position++;
+                    if (target != null) {
+                        return new ObjectRelationship(ObjectNode.this, type, gdb.createNode(target), gdb, slot, targetPosition);
+                    }
                 }
-                return NO_RELS;
+                slot = nextSlot();
+                if (slot == -1) return null;
+                final Object fieldValue = info.getRelationshipAccessor(slot).get(value);
+                final Iterable<Object> fieldTargets = Targets.targets(fieldValue);
+                targets = fieldTargets == null ? null : fieldTargets.iterator();
+                type = info.getRelationshipType(slot);
+                position = 0;
             }
-        });
+        }
+
+        private int nextSlot() {
+            if (types == null) return next < info.getRelationshipCount() ? next++ : -1;
+            while (next < types.length) {
+                final int slot = info.getRelationshipSlot(types[next++].name());
+                if (slot != -1) return slot;
+            }
+            return -1;
+        }
     }
 
     @Override
     public boolean hasRelationship(Direction direction) {
-        if (direction == Direction.INCOMING) return false;
-        return !getRelationshipFields().isEmpty(); // todo look at content
+        return isNotEmpty(getRelationships(direction));
     }
 
     @SuppressWarnings("unchecked")
     public Iterable<Object> getRelationshipValue(RelationshipType relationshipType, Direction direction) {
         if (direction == Direction.INCOMING) return null;
         final String name = relationshipType.name();
-        final Field field = getField(name);
-        final Object value = getValue(name);
-        if (isEntityCollection(field)) return (Iterable<Object>) value;
+        final FieldAccessor relationshipField = getRelationshipField(name);
+        if (relationshipField != null) return Targets.targets(getValue(relationshipField));
+        final FieldAccessor field = getField(name);
+        if (field == null) return null;
+        final Object value = getValue(field);
+        if (value == null) return null;
         if (isEntity(field)) return singleton(value);
         return null;
     }
 
-    private boolean isEntity(Field field) {
+    boolean isEntity(FieldAccessor field) {
         final Class<?> type = field.getType();
         return isEntity(type);
     }
 
     private boolean isEntity(Class<?> type) {
-        if (type.isPrimitive()) return false;
+        if (type.isPrimitive() || type.isArray()) return false;
         final Package fieldPackage = type.getPackage();
-        if (fieldPackage.getName().startsWith("java.")) return false;
+        if (fieldPackage == null || fieldPackage.getName().startsWith("java.")) return false;
         return fieldPackage.equals(getPackage(value));
     }
 
@@ -161,31 +277,20 @@ public class ObjectNode implements Node {
         return isEntity(value.getClass());
     }
 
-    private Class getActualType(Field field) {
-        final Type genericType = field.getGenericType();
-        if (genericType instanceof ParameterizedType) {
-            ParameterizedType parameterizedType = (ParameterizedType) genericType;
-            final Type actualType = parameterizedType.getActualTypeArguments()[0];
-            if (actualType instanceof Class) return (Class)actualType;
-        }
-        return Object.class;
-    }
-    private boolean isEntityCollection(Field field) {
-        final Class<?> type = field.getType();
-        if (!Iterable.class.isAssignableFrom(type)) return false;
-        final Type genericType = field.getGenericType();
-        if (genericType instanceof ParameterizedType) {
-            ParameterizedType parameterizedType = (ParameterizedType) genericType;
-            final Type actualType = parameterizedType.getActualTypeArguments()[0];
-            if (actualType instanceof Class) return isEntity((Class)actualType);
+    /**
+     * collections, arrays and maps declared with an entity element type, otherwise decided by the first
+     * non null target
+     */
+    private boolean isEntityCollection(FieldAccessor field) {
+        if (!Targets.isTargetField(field.getField())) return false;
+        final Class<?> elementType = Targets.elementType(field.getField());
+        if (elementType != Object.class) return isEntity(elementType);
+        final Iterable<Object> targets = Targets.targets(getValue(field));
+        if (targets == null) return false;
+        for (Object target : targets) {
+            if (target != null) return isEntity(target);
         }
-        return isEntityCollection(getValue(field));
-    }
-    private boolean isEntityCollection(Object value) {
-        if (!(value instanceof Iterable)) return false;
-        final Iterable<Object> iterable = (Iterable<Object>) value;
-        final Object first = firstOrNull(iterable);
-        return isEntity(first);
+        return false;
     }
 
     private Package getPackage(Object value) {
@@ -194,8 +299,12 @@ public class ObjectNode implements Node {
 
     @Override
     public Iterable<Relationship> getRelationships(final RelationshipType relationshipType, Direction direction) {
-        final Iterable<Object> relationshipValue = getRelationshipValue(relationshipType, direction);
-        return toRelationships(relationshipType, relationshipValue);
+        if (direction == Direction.INCOMING) return gdb.getIncomingRelationships(this, relationshipType);
+        final Iterable<Relationship> outgoing = getMappingInfo().getRelationshipSlot(relationshipType.name()) != -1
+                ? withCreated(outgoingRelationships(relationshipType), relationshipType)
+                : toRelationships(relationshipType, getRelationshipValue(relationshipType, Direction.OUTGOING));
+        if (direction == Direction.OUTGOING) return outgoing;
+        return bothDirections(outgoing, gdb.getIncomingRelationships(this, relationshipType));
     }
 
     private Iterable<Relationship> toRelationships(final RelationshipType relationshipType, final Iterable<Object> relationshipValue) {
@@ -203,17 +312,61 @@ public class ObjectNode implements Node {
         return new IterableWrapper<Relationship, Object>(relationshipValue) {
             @Override
             protected Relationship underlyingObjectToObject(Object other) {
-                final ObjectNode otherNode = new ObjectNode(other, gdb);
+                final ObjectNode otherNode = gdb.createNode(other);
                 return new ObjectRelationship(ObjectNode.this, relationshipType, otherNode, gdb);
             }
         };
     }
 
+    /**
+     * Relationship fields use their slot, fields referring to a single entity are numbered after them.
+     * @return the packed id of the relationship
+     * @throws NotFoundException if the end node is no longer referenced by the field
+     */
+    long relationshipId(RelationshipType type, ObjectNode end) {
+        final ObjectGraphDatabaseService.MappingContext.MappingInfo info = getMappingInfo();
+        final Object endValue = end.getValue();
+        final int slot = info.getRelationshipSlot(type.name());
+        if (slot != -1) {
+            final Object fieldValue = info.getRelationshipAccessor(slot).get(value);
+            final Iterable<Object> targets = Targets.targets(fieldValue);
+            if (targets != null) {
+                int position = 0;
+                for (Object target : targets) {
+                    if (target == endValue) return ObjectRelationship.toId(getId(), slot, position);
+                    position++;
+                }
+            }
+        } else {
+            final int propertySlot = info.getPropertySlot(type.name());
+            if (propertySlot != -1 && info.getPropertyAccessor(propertySlot).get(value) == endValue) {
+                return ObjectRelationship.toId(getId(), info.getRelationshipCount() + propertySlot, 0);
+            }
+        }
+        throw new NotFoundException("Relationship " + type.name() + " from " + this + " to " + end + " not found");
+    }
+
+    /**
+     * @return the relationship at the slot and position or null if there is none
+     */
+    ObjectRelationship getRelationshipAt(int slot, int position) {
+        final ObjectGraphDatabaseService.MappingContext.MappingInfo info = getMappingInfo();
+        if (slot < info.getRelationshipCount()) {
+            final Object target = Targets.elementAt(info.getRelationshipAccessor(slot).get(value), position);
+            if (target == null) return null;
+            return new ObjectRelationship(this, info.getRelationshipType(slot), gdb.createNode(target), gdb, slot, position);
+        }
+        final int propertySlot = slot - info.getRelationshipCount();
+        if (propertySlot >= info.getPropertyCount() || position != 0) return null;
+        final FieldAccessor field = info.getPropertyAccessor(propertySlot);
+        final Object target = field.get(value);
+        if (!isEntity(field) || target == null) return null;
+        return new ObjectRelationship(this, gdb.relationshipType(field.getName()), gdb.createNode(target), gdb, slot, position);
+    }
+
     @Override
     public boolean hasRelationship(RelationshipType relationshipType, Direction direction) {
-        final Iterable<Object> relationshipValue = getRelationshipValue(relationshipType, direction);
-        if (relationshipValue == null) return false;
-        return firstOrNull(relationshipValue) != null;
+        return isNotEmpty(getRelationships(relationshipType, direction));
     }
 
     @Override
@@ -224,42 +377,92 @@ public class ObjectNode implements Node {
     @Override
     public Relationship createRelationshipTo(Node node, RelationshipType relationshipType) {
         final String relType = relationshipType.name();
-        final Field field = getRelationshipFields().get(relType);
+        final FieldAccessor field = getRelationshipField(relType);
         if (field==null) throw new IllegalArgumentException("Relationship-Type "+ relType+" invalid for fields of type "+getType());
         ObjectNode other = (ObjectNode) node;
         final Object otherValue = other.getValue();
         if (isEntity(field)) {
             if (field.getType().isInstance(otherValue)) {
-                setValue(relType, otherValue);
+                changeValue(relType, otherValue);
                 return new ObjectRelationship(this, relationshipType,other,gdb);
             } else {
                 throw new IllegalArgumentException("Relationship-Type "+ relType+" only valid for node types " + field.getType());
             }
         }
         if (isEntityCollection(field)) {
-            final Class actualType = getActualType(field);
+            final Class<?> actualType = Targets.elementType(field.getField());
             if (!actualType.isInstance(otherValue)) throw new IllegalArgumentException("Relationship-Type "+ relType+" only valid for node types " + actualType);
-
-            @SuppressWarnings("unchecked") Collection<Object> values=(Collection<Object>) getValue(field);
-            values.add(otherValue);
+            if (getValue(field) instanceof Map) throw new UnsupportedOperationException("Can't add to the map of " + relType + " without a key");
+            final ObjectTransaction tx = gdb.currentTransaction();
+            if (tx != null) return tx.relationshipCreated(this, field, relationshipType, other);
+            gdb.writeStarted();
+            try {
+                addRelationship(field, other);
+            } finally {
+                gdb.writeFinished();
+            }
             return new ObjectRelationship(this,relationshipType, other,gdb);
         }
         throw new IllegalArgumentException("Relationship-Type "+ relType+" only valid for node types " + field.getType());
     }
 
+    /**
+     * adds the end node to the collection or array of the relationship field and updates the indexes
+     * @return false if the collection already contained it
+     */
+    boolean addRelationship(FieldAccessor field, ObjectNode other) {
+        final Object targets = field.get(value);
+        if (field.getType().isArray()) {
+            // arrays have a fixed size, the field gets a copy with the new target
+            field.set(value, Targets.append((Object[]) targets, Targets.elementType(field.getField()), other.getValue()));
+            gdb.relationshipCreated(this, field.getName(), other);
+            return true;
+        }
+        @SuppressWarnings("unchecked") Collection<Object> values=(Collection<Object>) targets;
+        if (!values.add(other.getValue())) return false;
+        gdb.relationshipCreated(this, field.getName(), other);
+        return true;
+    }
+
+    /**
+     * undoes {@link #addRelationship}, arrays get their previous value back
+     */
+    void removeRelationship(FieldAccessor field, Object previous, ObjectNode other) {
+        if (field.getType().isArray()) {
+            field.set(value, previous);
+        } else if (previous instanceof List) {
+            final List<?> values = (List<?>) previous;
+            values.remove(values.lastIndexOf(other.getValue()));
+        } else {
+            ((Collection<?>) previous).remove(other.getValue());
+        }
+        gdb.relationshipRemoved(this, field.getName(), other);
+    }
+
     @Override
     public Traverser traverse(Traverser.Order order, StopEvaluator stopEvaluator, ReturnableEvaluator returnableEvaluator, RelationshipType relationshipType, Direction direction) {
-        throw new UnsupportedOperationException();
+        return traverse(order, stopEvaluator, returnableEvaluator, new Object[]{relationshipType, direction});
     }
 
     @Override
     public Traverser traverse(Traverser.Order order, StopEvaluator stopEvaluator, ReturnableEvaluator returnableEvaluator, RelationshipType relationshipType, Direction direction, RelationshipType relationshipType1, Direction direction1) {
-        throw new UnsupportedOperationException();
+        return traverse(order, stopEvaluator, returnableEvaluator, new Object[]{relationshipType, direction, relationshipType1, direction1});
     }
 
+    /**
+     * @param typesAndDirections pairs of relationship type and direction
+     */
     @Override
-    public Traverser traverse(Traverser.Order order, StopEvaluator stopEvaluator, ReturnableEvaluator returnableEvaluator, Object... objects) {
-        throw new UnsupportedOperationException();
+    public Traverser traverse(Traverser.Order order, StopEvaluator stopEvaluator, ReturnableEvaluator returnableEvaluator, Object... typesAndDirections) {
+        if (typesAndDirections.length % 2 != 0) throw new IllegalArgumentException("Expected pairs of relationship type and direction");
+        final RelationshipType[] types = new RelationshipType[typesAndDirections.length / 2];
+        final Direction[] directions = new Direction[types.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = (RelationshipType) typesAndDirections[i * 2];
+            directions[i] = (Direction) typesAndDirections[i * 2 + 1];
+        }
+        final ObjectTraversal traversal = new ObjectTraversal(gdb, order == Traverser.Order.DEPTH_FIRST, types, directions, null, ObjectTraversal.UNLIMITED, true);
+        return traversal.traverse(this, stopEvaluator, returnableEvaluator);
     }
 
     @Override
@@ -283,49 +486,95 @@ public class ObjectNode implements Node {
         return value != null ? value : defaultValue;
     }
 
+    /**
+     * reads a numeric property without boxing it
+     */
+    public long getLongProperty(String name) {
+        final FieldAccessor field = getField(name);
+        if (field == null) throw new NotFoundException("No such property " + name);
+        final Object changed = changedValue(field);
+        return changed == ObjectTransaction.UNCHANGED ? field.getLong(value) : ((Number) changed).longValue();
+    }
+
+    /**
+     * reads a numeric property without boxing it
+     */
+    public double getDoubleProperty(String name) {
+        final FieldAccessor field = getField(name);
+        if (field == null) throw new NotFoundException("No such property " + name);
+        final Object changed = changedValue(field);
+        return changed == ObjectTransaction.UNCHANGED ? field.getDouble(value) : ((Number) changed).doubleValue();
+    }
+
     @Override
     public void setProperty(String name, Object newValue) {
-        setValue(name, newValue);
+        changeValue(name, newValue);
     }
 
     @Override
     public Object removeProperty(String name) {
         final Object old = getValue(name);
-        setValue(name, null);
+        changeValue(name, null);
         return old;
     }
 
-    private Object getValue(Field field) {
-        try {
-            return field.get(value);
-        } catch (IllegalAccessException e) {
-            return null;
-        }
+    /**
+     * @return the field value, or the uncommitted value if the transaction of this thread changed it
+     */
+    private Object getValue(FieldAccessor field) {
+        if (gdb.hasOpenTransactions()) return transactionalValue(field);
+        return field.get(value);
+    }
+
+    private Object transactionalValue(FieldAccessor field) {
+        final Object changed = changedValue(field);
+        return changed == ObjectTransaction.UNCHANGED ? field.get(value) : changed;
+    }
+
+    private Object changedValue(FieldAccessor field) {
+        final ObjectTransaction tx = gdb.currentTransaction();
+        return tx == null ? ObjectTransaction.UNCHANGED : tx.changedValue(value, field.getName());
     }
 
     @Override
     public Iterable<String> getPropertyKeys() {
-        return getPropertyFields().keySet();
+        final VirtualProperties virtualProperties = gdb.virtualProperties();
+        if (virtualProperties.isEmpty()) return getPropertyFields().keySet();
+        final Set<String> keys = new LinkedHashSet<String>(getPropertyFields().keySet());
+        for (String name : virtualProperties.names()) {
+            if (virtualProperties.get(name, getId()) != null) keys.add(name);
+        }
+        return keys;
     }
 
+    /**
+     * reads all values from one committed state, never from the middle of a commit
+     */
     @Override
     public Iterable<Object> getPropertyValues() {
-        return new IterableWrapper<Object, Field>(getPropertyFields().values()) {
-            @Override
-            protected Object underlyingObjectToObject(Field field) {
-                return getValue(field);
+        while (true) {
+            final int version = gdb.stableVersion();
+            final List<Object> values = new ArrayList<Object>();
+            if (gdb.virtualProperties().isEmpty()) {
+                for (FieldAccessor field : getPropertyFields().values()) {
+                    values.add(getValue(field));
+                }
+            } else {
+                for (String name : getPropertyKeys()) {
+                    values.add(getValue(name));
+                }
             }
-        };
+            if (gdb.unchangedSince(version)) return values;
+        }
     }
 
-    private Map<String, Field> getPropertyFields() {
-        final Class<?> type = value.getClass();
-        return gdb.getPropertyFields(type);
+    ObjectGraphDatabaseService.MappingContext.MappingInfo getMappingInfo() {
+        if (mappingInfo == null) mappingInfo = gdb.getMappingInfo(value.getClass());
+        return mappingInfo;
     }
 
-    private Map<String, Field> getRelationshipFields() {
-        final Class<?> type = value.getClass();
-        return gdb.getRelationshipFields(type);
+    private Map<String, FieldAccessor> getPropertyFields() {
+        return getMappingInfo().getPropertyFields();
     }
 
     public Object getValue() {
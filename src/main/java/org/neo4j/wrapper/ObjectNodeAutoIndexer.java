@@ -0,0 +1,126 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.index.AutoIndexer;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.index.ReadableIndex;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Keeps the read only {@code node_auto_index} in sync with the auto indexed properties of all node types.
+ * Nodes are added when they are discovered and updated when a property changes through the wrapper,
+ * enabling the indexer or starting a property adds the nodes that were discovered before. Disabling it
+ * clears the index.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+class ObjectNodeAutoIndexer implements AutoIndexer<Node> {
+    static final String INDEX_NAME = "node_auto_index";
+
+    private final ObjectGraphDatabaseService gdb;
+    private final ObjectNodeIndex index;
+    private final Set<String> properties = new CopyOnWriteArraySet<String>();
+    private volatile boolean enabled;
+
+    ObjectNodeAutoIndexer(ObjectGraphDatabaseService gdb) {
+        this.gdb = gdb;
+        this.index = new ObjectNodeIndex(INDEX_NAME, gdb);
+    }
+
+    @Override
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled == this.enabled) return;
+        this.enabled = enabled;
+        if (!enabled) {
+            // changes are not tracked while disabled, the nodes are indexed again with their current values
+            for (String property : properties) {
+                index.removeProperty(property);
+            }
+            return;
+        }
+        for (ObjectNode node : gdb.getDiscoveredNodes()) {
+            for (String property : properties) {
+                addProperty(node, property);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public ReadableIndex<Node> getAutoIndex() {
+        return new ReadableIndex<Node>() {
+            @Override
+            public String getName() {
+                return INDEX_NAME;
+            }
+
+            @Override
+            public Class<Node> getEntityType() {
+                return Node.class;
+            }
+
+            @Override
+            public IndexHits<Node> get(String property, Object value) {
+                return index.get(property, value);
+            }
+
+            @Override
+            public IndexHits<Node> query(String property, Object query) {
+                return index.query(property, query);
+            }
+
+            @Override
+            public IndexHits<Node> query(Object query) {
+                return index.query(query);
+            }
+
+            @Override
+            public boolean isWriteable() {
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void startAutoIndexingProperty(String property) {
+        if (!properties.add(property) || !enabled) return;
+        for (ObjectNode node : gdb.getDiscoveredNodes()) {
+            addProperty(node, property);
+        }
+    }
+
+    @Override
+    public synchronized void stopAutoIndexingProperty(String property) {
+        if (properties.remove(property)) index.removeProperty(property);
+    }
+
+    @Override
+    public Set<String> getAutoIndexedProperties() {
+        return Collections.unmodifiableSet(properties);
+    }
+
+    void nodeDiscovered(ObjectNode node) {
+        if (!enabled) return;
+        for (String property : properties) {
+            addProperty(node, property);
+        }
+    }
+
+    void propertyChanged(ObjectNode node, String property, Object oldValue, Object newValue) {
+        if (!enabled || !properties.contains(property)) return;
+        ObjectGraphDatabaseService.replaceIndexed(index, node, property, oldValue, newValue);
+    }
+
+    private void addProperty(ObjectNode node, String property) {
+        final Object value = node.getProperty(property, null);
+        if (value != null) index.add(node, property, value);
+    }
+}
@@ -1,73 +1,136 @@
 package org.neo4j.wrapper;
 
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.helpers.collection.PrefetchingIterator;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
+ * Exact match index, per property and value the ids of the indexed nodes as a primitive int array.
+ * Writers are serialized per lock stripe, readers never lock on the hot path and iterate an immutable
+ * snapshot of the postings, nodes are resolved from their ids only while iterating.
+ * <p>
+ * The first range, prefix or wildcard query on a property builds a sorted set of its values which is
+ * maintained from then on, see {@link IndexQuery} for the query syntax.
+ *
  * @author mh
  * @since 25.11.11
  */
-public class ObjectNodeIndex implements Index<Node> {
+public class ObjectNodeIndex implements PostingsIndex {
+    private static final int STRIPES = 64;
+    // ConcurrentHashMap doesn't allow null keys
+    private static final Object NULL = new Object();
+
     private final String name;
-    Map<String,Map<Object,Collection<Node>>> data = new HashMap<String, Map<Object, Collection<Node>>>();
+    private final ObjectGraphDatabaseService gdb;
+    private final ConcurrentMap<String, PropertyValues> data = new ConcurrentHashMap<String, PropertyValues>();
+    private final Object[] locks = new Object[STRIPES];
 
-    public ObjectNodeIndex(String name) {
+    public ObjectNodeIndex(String name, ObjectGraphDatabaseService gdb) {
         this.name = name;
+        this.gdb = gdb;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
     }
 
     @Override
     public void add(Node node, String property, Object value) {
-        if (!data.containsKey(property)) {
-            data.put(property, new HashMap<Object, Collection<Node>>());
-        }
-        final Map<Object, Collection<Node>> values = data.get(property);
-        if (!values.containsKey(value)) {
-            values.put(value,new HashSet<Node>());
+        final Object key = key(value);
+        final PropertyValues values = indexValues(property, true);
+        synchronized (lock(property, key)) {
+            final Postings postings = values.postings.get(key);
+            values.postings.put(key, postings == null ? Postings.of(id(node)) : postings.add(id(node)));
+            if (postings == null) values.keyAdded(key);
         }
-        values.get(value).add(node);
     }
 
     @Override
     public void remove(Node node, String property, Object value) {
-        if (!data.containsKey(property)) return;
-        final Map<Object, Collection<Node>> values = data.get(property);
-        if (!values.containsKey(value)) return;
-        values.remove(node);
-        if (values.isEmpty()) data.remove(property);
+        final PropertyValues values = indexValues(property, false);
+        if (values != null) remove(values, lock(property, key(value)), key(value), id(node));
     }
 
+    /**
+     * scans all values of the property, the index keeps no node to value mapping
+     */
     @Override
     public void remove(Node node, String property) {
-        if (!data.containsKey(property)) return;
-        final Map<Object, Collection<Node>> values = data.get(property);
-        for (Iterator<Collection<Node>> it = values.values().iterator(); it.hasNext(); ) {
-            Collection<Node> nodes = it.next();
-            nodes.remove(node);
-            if (nodes.isEmpty()) {
-                it.remove();
-            }
+        final PropertyValues values = indexValues(property, false);
+        if (values == null) return;
+        final int id = id(node);
+        for (Object key : values.postings.keySet()) {
+            remove(values, lock(property, key), key, id);
         }
-        if (values.isEmpty()) data.remove(property);
     }
 
     @Override
     public void remove(Node node) {
-        for (Iterator<Map<Object, Collection<Node>>> itProperties = data.values().iterator(); itProperties.hasNext(); ) {
-            Map<Object, Collection<Node>> values = itProperties.next();
-            for (Iterator<Collection<Node>> itValues = values.values().iterator(); itValues.hasNext(); ) {
-                Collection<Node> nodes = itValues.next();
-                nodes.remove(node);
-                if (nodes.isEmpty()) {
-                    itValues.remove();
+        for (String property : data.keySet()) {
+            remove(node, property);
+        }
+    }
+
+    private void remove(PropertyValues values, Object lock, Object key, int id) {
+        synchronized (lock) {
+            final Postings postings = values.postings.get(key);
+            if (postings == null) return;
+            final Postings removed = postings.remove(id);
+            if (removed == postings) return;
+            if (removed.size == 0) {
+                values.postings.remove(key);
+                values.keyRemoved(key);
+            } else {
+                values.postings.put(key, removed);
+            }
+        }
+    }
+
+    @Override
+    public void restore(String property, Object value, int[] ids) {
+        if (ids.length == 0) return;
+        final Object key = key(value);
+        final PropertyValues values = indexValues(property, true);
+        synchronized (lock(property, key)) {
+            final Postings postings = values.postings.get(key);
+            Postings restored = postings == null ? new Postings(ids, ids.length, true) : postings.sort();
+            if (postings != null) {
+                for (int id : ids) {
+                    restored = restored.add(id);
                 }
             }
+            values.postings.put(key, restored);
+            if (postings == null) values.keyAdded(key);
         }
     }
 
+    @Override
+    public Set<String> properties() {
+        return data.keySet();
+    }
+
+    @Override
+    public Map<Object, int[]> postings(String property) {
+        final PropertyValues values = indexValues(property, false);
+        if (values == null) return Collections.emptyMap();
+        final Map<Object, int[]> result = new LinkedHashMap<Object, int[]>();
+        for (Object key : values.postings.keySet()) {
+            final Postings postings = postings(property, key);
+            if (postings.size > 0) result.put(key == NULL ? null : key, Arrays.copyOf(postings.ids, postings.size));
+        }
+        return result;
+    }
+
+    @Override
+    public void removeProperty(String property) {
+        data.remove(property);
+    }
+
     @Override
     public void delete() {
         data.clear();
@@ -85,30 +148,116 @@ public class ObjectNodeIndex implements Index<Node> {
 
     @Override
     public IndexHits<Node> get(String property, Object value) {
-        final Collection<Node> nodes = indexNodes(property, value);
-        return new NodeIndexHits(nodes);
+        return new NodeIndexHits(Collections.singletonList(postings(property, key(value))));
     }
 
-    private Collection<Node> indexNodes(String property, Object value) {
-        final Map<Object, Collection<Node>> values = indexValues(property);
-        if (!values.containsKey(value)) return Collections.emptyList();
-        return values.get(value);
+    private Postings postings(String property, Object key) {
+        final PropertyValues values = indexValues(property, false);
+        if (values == null) return Postings.EMPTY;
+        final Postings postings = values.postings.get(key);
+        if (postings == null) return Postings.EMPTY;
+        if (postings.sorted) return postings;
+        synchronized (lock(property, key)) {
+            final Postings current = values.postings.get(key);
+            if (current == null) return Postings.EMPTY;
+            final Postings sorted = current.sort();
+            if (sorted != current) values.postings.put(key, sorted);
+            return sorted;
+        }
+    }
+
+    private PropertyValues indexValues(String property, boolean create) {
+        final PropertyValues values = data.get(property);
+        if (values != null || !create) return values;
+        final PropertyValues created = new PropertyValues();
+        final PropertyValues existing = data.putIfAbsent(property, created);
+        return existing != null ? existing : created;
     }
 
-    private Map<Object, Collection<Node>> indexValues(String property) {
-        if (!data.containsKey(property)) return Collections.emptyMap();
-        return data.get(property);
+    private Object lock(String property, Object key) {
+        final int hash = property.hashCode() * 31 + key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
     }
 
+    private static Object key(Object value) {
+        return value == null ? NULL : value;
+    }
+
+    private static int id(Node node) {
+        return (int) node.getId();
+    }
+
+    /**
+     * @param value a query expression like {@code [1 TO 5]} or {@code abc*}, other values are matched exactly
+     */
     @Override
     public IndexHits<Node> query(String property, Object value) {
-        throw new UnsupportedOperationException();
-        // return new NodeIndexHits(indexNodes(property, value));
+        if (!(value instanceof String)) return get(property, value);
+        return query(IndexQuery.parse(property, (String) value));
     }
 
+    /**
+     * @param query a query like {@code date:[1 TO 5]} or {@code twid:mesi*}
+     */
     @Override
-    public IndexHits<Node> query(Object o) {
-        throw new UnsupportedOperationException();
+    public IndexHits<Node> query(Object query) {
+        if (query == null) throw new IllegalArgumentException("Query must not be null");
+        return query(IndexQuery.parse(query.toString()));
+    }
+
+    IndexHits<Node> query(IndexQuery query) {
+        final PropertyValues values = indexValues(query.property, false);
+        if (values == null) return new NodeIndexHits(Collections.<Postings>emptyList());
+        final NavigableSet<Object> sortedKeys = values.sortedKeys();
+        final Object sample = sortedKeys.isEmpty() ? null : sortedKeys.first();
+        switch (query.kind) {
+            case RANGE:
+                return new NodeIndexHits(postings(query.property, range(sortedKeys, query, sample), null));
+            case WILDCARD:
+                final String prefix = query.literalPrefix();
+                final Set<Object> candidates = sample instanceof String ? sortedKeys.tailSet(prefix, true) : Collections.emptySet();
+                return new NodeIndexHits(postings(query.property, candidates, query));
+            default:
+                final Object key = IndexQuery.typed(query.value, sample);
+                if (key instanceof String) return get(query.property, key);
+                return new NodeIndexHits(postings(query.property, sortedKeys.subSet(key, true, key, true), null));
+        }
+    }
+
+    private NavigableSet<Object> range(NavigableSet<Object> sortedKeys, IndexQuery query, Object sample) {
+        NavigableSet<Object> keys = sortedKeys;
+        if (query.from != null) keys = keys.tailSet(IndexQuery.typed(query.from, sample), query.fromInclusive);
+        if (query.to != null) keys = keys.headSet(IndexQuery.typed(query.to, sample), query.toInclusive);
+        return keys;
+    }
+
+    /**
+     * streams the postings of the keys in key order, for wildcard queries only string keys that share
+     * the literal prefix and match the pattern
+     */
+    private Iterable<Postings> postings(final String property, final Iterable<Object> keys, final IndexQuery wildcard) {
+        return new Iterable<Postings>() {
+            @Override
+            public Iterator<Postings> iterator() {
+                final Iterator<Object> it = keys.iterator();
+                final String prefix = wildcard == null ? null : wildcard.literalPrefix();
+                return new PrefetchingIterator<Postings>() {
+                    @Override
+                    protected Postings fetchNextOrNull() {
+                        while (it.hasNext()) {
+                            final Object key = it.next();
+                            if (wildcard != null) {
+                                if (!(key instanceof String) || !((String) key).startsWith(prefix)) return null;
+                                if (!wildcard.isPrefix() && !wildcard.pattern.matcher((String) key).matches()) continue;
+                            }
+                            final Postings postings = postings(property, key);
+                            if (postings.size > 0) return postings;
+                        }
+                        return null;
+                    }
+                };
+            }
+        };
     }
 
     @Override
@@ -116,52 +265,186 @@ public class ObjectNodeIndex implements Index<Node> {
         return true;
     }
 
-    private static class NodeIndexHits implements IndexHits<Node> {
-        final Iterator<Node> iterator;
-        private final Collection<Node> nodes;
+    /**
+     * Orders numbers by value regardless of their type, other values by their natural order and values
+     * of different types by type name.
+     */
+    static final Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(Object a, Object b) {
+            if (a instanceof Number && b instanceof Number) return compareNumbers((Number) a, (Number) b);
+            if (a.getClass() == b.getClass() && a instanceof Comparable) return ((Comparable<Object>) a).compareTo(b);
+            final int byType = a.getClass().getName().compareTo(b.getClass().getName());
+            if (byType != 0) return byType;
+            final int byString = a.toString().compareTo(b.toString());
+            if (byString != 0) return byString;
+            return compareInts(System.identityHashCode(a), System.identityHashCode(b));
+        }
 
-        public NodeIndexHits(Collection<Node> nodes) {
-            this.nodes = nodes;
-            iterator = nodes.iterator();
+        private int compareNumbers(Number a, Number b) {
+            if (isIntegral(a) && isIntegral(b)) {
+                final long x = a.longValue(), y = b.longValue();
+                return x < y ? -1 : x == y ? 0 : 1;
+            }
+            return Double.compare(a.doubleValue(), b.doubleValue());
         }
 
-        @Override
-        public int size() {
-            return nodes.size();
+        private boolean isIntegral(Number number) {
+            return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
         }
 
-        @Override
-        public void close() {
+        private int compareInts(int x, int y) {
+            return x < y ? -1 : x == y ? 0 : 1;
+        }
+    };
+
+    /**
+     * The postings of one property, the sorted keys are only built for range queries.
+     */
+    private static class PropertyValues {
+        final ConcurrentMap<Object, Postings> postings = new ConcurrentHashMap<Object, Postings>();
+        private volatile ConcurrentSkipListSet<Object> sortedKeys;
+
+        /**
+         * called under the stripe lock of the key after it was added to the postings
+         */
+        void keyAdded(Object key) {
+            final ConcurrentSkipListSet<Object> keys = sortedKeys;
+            if (keys != null && key != NULL) keys.add(key);
+        }
+
+        void keyRemoved(Object key) {
+            final ConcurrentSkipListSet<Object> keys = sortedKeys;
+            if (keys != null) keys.remove(key);
+        }
+
+        NavigableSet<Object> sortedKeys() {
+            ConcurrentSkipListSet<Object> keys = sortedKeys;
+            if (keys != null) return keys;
+            synchronized (this) {
+                if (sortedKeys != null) return sortedKeys;
+                keys = new ConcurrentSkipListSet<Object>(VALUE_ORDER);
+                // publish first, keys added concurrently are then either seen by the copy or added by the writer
+                sortedKeys = keys;
+                for (Object key : postings.keySet()) {
+                    if (key != NULL) keys.add(key);
+                }
+                return keys;
+            }
+        }
+    }
+
+    /**
+     * Immutable view of the first {@code size} ids of the array. Appends write behind the end of the
+     * view and share the array, everything else copies, so a view never changes once published.
+     * Ids are appended in registration order which is mostly ascending, out of order appends are
+     * sorted and deduplicated by the next reader.
+     */
+    static final class Postings {
+        static final Postings EMPTY = new Postings(new int[0], 0, true);
+
+        final int[] ids;
+        final int size;
+        final boolean sorted;
+
+        private Postings(int[] ids, int size, boolean sorted) {
+            this.ids = ids;
+            this.size = size;
+            this.sorted = sorted;
+        }
+
+        static Postings of(int id) {
+            return new Postings(new int[]{id}, 1, true);
+        }
+
+        Postings add(int id) {
+            final int last = ids[size - 1];
+            if (sorted && id == last) return this;
+            final int[] target = size == ids.length ? Arrays.copyOf(ids, size + (size >> 1) + 1) : ids;
+            target[size] = id;
+            return new Postings(target, size + 1, sorted && id > last);
+        }
+
+        Postings remove(int id) {
+            final Postings sorted = sort();
+            final int index = Arrays.binarySearch(sorted.ids, 0, sorted.size, id);
+            if (index < 0) return sorted;
+            final int[] copy = new int[sorted.size - 1];
+            System.arraycopy(sorted.ids, 0, copy, 0, index);
+            System.arraycopy(sorted.ids, index + 1, copy, index, copy.length - index);
+            return new Postings(copy, copy.length, true);
+        }
+
+        Postings sort() {
+            if (sorted) return this;
+            final int[] copy = Arrays.copyOf(ids, size);
+            Arrays.sort(copy);
+            int unique = 0;
+            for (int i = 0; i < copy.length; i++) {
+                if (unique == 0 || copy[i] != copy[unique - 1]) copy[unique++] = copy[i];
+            }
+            return new Postings(unique == copy.length ? copy : Arrays.copyOf(copy, unique), unique, true);
+        }
+    }
+
+    private class NodeIndexHits extends PrefetchingIterator<Node> implements IndexHits<Node> {
+        private final Iterable<Postings> source;
+        private final Iterator<Postings> postings;
+        private Postings current = Postings.EMPTY;
+        private int next;
+        private int size = -1;
+
+        NodeIndexHits(Iterable<Postings> source) {
+            this.source = source;
+            this.postings = source.iterator();
         }
 
         @Override
-        public Node getSingle() {
-            return IteratorUtil.singleOrNull(nodes);
+        protected Node fetchNextOrNull() {
+            while (true) {
+                while (next < current.size) {
+                    final Node node = gdb.registeredNode(current.ids[next++]);
+                    if (node != null) return node;
+                }
+                if (!postings.hasNext()) return null;
+                current = postings.next();
+                next = 0;
+            }
         }
 
+        /**
+         * counts the postings without resolving the nodes
+         */
         @Override
-        public float currentScore() {
-            return 0;
+        public int size() {
+            if (size == -1) {
+                int count = 0;
+                for (Postings each : source) {
+                    count += each.size;
+                }
+                size = count;
+            }
+            return size;
         }
 
         @Override
-        public Iterator<Node> iterator() {
-            return iterator;
+        public void close() {
         }
 
         @Override
-        public boolean hasNext() {
-            return iterator.hasNext();
+        public Node getSingle() {
+            return IteratorUtil.singleOrNull((Iterator<Node>) this);
         }
 
         @Override
-        public Node next() {
-            return iterator.next();
+        public float currentScore() {
+            return 0;
         }
 
         @Override
-        public void remove() {
-            iterator.remove();
+        public Iterator<Node> iterator() {
+            return this;
         }
     }
 }
@@ -8,25 +8,74 @@ import org.neo4j.graphdb.RelationshipType;
 import java.util.Collections;
 
 /**
+ * Relationship ids pack the start node id, the slot of the relationship field and the position of the
+ * end node in that field, so they decode back to the relationship without a global relationship map.
+ * Positions are only stable as long as the collection is not modified. The id is only packed when it is
+ * asked for, relationships are equal if they have the same start node, type and end node.
+ *
  * @author mh
  * @since 25.11.11
  */
 public class ObjectRelationship implements Relationship {
+    static final int SLOT_BITS = 8;
+    static final int POSITION_BITS = 24;
+    static final int MAX_SLOT = (1 << SLOT_BITS) - 1;
+    static final int MAX_POSITION = (1 << POSITION_BITS) - 1;
+    private static final long UNKNOWN = -1;
+    private static final int NO_SLOT = -1;
+
     private final ObjectNode start;
     private final RelationshipType relationshipType;
     private final ObjectNode end;
     private ObjectGraphDatabaseService gdb;
+    private final int slot;
+    private final int position;
+    private long id = UNKNOWN;
 
     public ObjectRelationship(ObjectNode start, RelationshipType relationshipType, ObjectNode end, ObjectGraphDatabaseService gdb) {
+        this(start, relationshipType, end, gdb, NO_SLOT, 0);
+    }
+
+    /**
+     * @param slot the slot of the field that refers to the end node, -1 if unknown
+     * @param position the position of the end node in the field
+     */
+    ObjectRelationship(ObjectNode start, RelationshipType relationshipType, ObjectNode end, ObjectGraphDatabaseService gdb, int slot, int position) {
         this.start = start;
         this.relationshipType = relationshipType;
         this.end = end;
         this.gdb = gdb;
+        this.slot = slot;
+        this.position = position;
+    }
+
+    static long toId(long startNodeId, int slot, int position) {
+        if (slot > MAX_SLOT) throw new IllegalStateException("Too many relationship fields for a relationship id: " + slot);
+        if (position > MAX_POSITION) throw new IllegalStateException("Collection too large for a relationship id: " + position);
+        return startNodeId << (SLOT_BITS + POSITION_BITS) | (long) slot << POSITION_BITS | position;
+    }
+
+    static long startNodeId(long id) {
+        return id >>> (SLOT_BITS + POSITION_BITS);
+    }
+
+    static int slot(long id) {
+        return (int) (id >>> POSITION_BITS) & MAX_SLOT;
+    }
+
+    static int position(long id) {
+        return (int) id & MAX_POSITION;
     }
 
+    /**
+     * @throws IllegalStateException if the slot or position don't fit into a relationship id
+     * @throws org.neo4j.graphdb.NotFoundException if the position is unknown and the field no longer refers to the end node
+     */
     @Override
     public long getId() {
-        return start.getId() << 32 + end.getId() + relationshipType.name().hashCode();
+        if (id != UNKNOWN) return id;
+        id = slot == NO_SLOT ? start.relationshipId(relationshipType, end) : toId(start.getId(), slot, position);
+        return id;
     }
 
     @Override
@@ -103,4 +152,33 @@ public class ObjectRelationship implements Relationship {
     public Iterable<Object> getPropertyValues() {
         return Collections.emptySet();
     }
+
+    @Override
+    public int hashCode() {
+        final long startId = start.getId(), endId = end.getId();
+        return 31 * (31 * (int) (startId ^ (startId >>> 32)) + relationshipType.name().hashCode()) + (int) (endId ^ (endId >>> 32));
+    }
+
+    /**
+     * compares the endpoints and type, and the slot and position when both are known so that parallel
+     * edges to the same end node stay distinct like their ids
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (obj instanceof Relationship) {
+            final Relationship other = (Relationship) obj;
+            if (start.getId() != other.getStartNode().getId() || end.getId() != other.getEndNode().getId()
+                    || !relationshipType.name().equals(other.getType().name())) return false;
+            if (slot == NO_SLOT || !(other instanceof ObjectRelationship)) return true;
+            final ObjectRelationship relationship = (ObjectRelationship) other;
+            return relationship.slot == NO_SLOT || (slot == relationship.slot && position == relationship.position);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("(%d)-[%s]->(%d)", start.getId(), relationshipType.name(), end.getId());
+    }
 }
@@ -0,0 +1,391 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.index.RelationshipIndex;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.helpers.collection.PrefetchingIterator;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Exact match relationship index, per property and value the indexed edges grouped by start node id and
+ * by end node id, so that lookups restricted to an endpoint only touch the edges of that endpoint.
+ * Edges are kept as node ids and type, relationships are created while iterating, so the index doesn't
+ * depend on the positional relationship ids. Readers iterate immutable snapshots, writers lock per value.
+ * <p>
+ * With {@link ObjectGraphConfig#RELATIONSHIP_INDEX} the index {@link #NAME} holds all outgoing relationships
+ * of the discovered nodes under {@link #TYPE} and their type name.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+public class ObjectRelationshipIndex implements RelationshipIndex {
+    public static final String NAME = "relationships";
+    public static final String TYPE = "type";
+    // ConcurrentHashMap doesn't allow null keys
+    private static final Object NULL = new Object();
+
+    private final String name;
+    private final ObjectGraphDatabaseService gdb;
+    private final ConcurrentMap<String, ConcurrentMap<Object, Entries>> data = new ConcurrentHashMap<String, ConcurrentMap<Object, Entries>>();
+
+    public ObjectRelationshipIndex(String name, ObjectGraphDatabaseService gdb) {
+        this.name = name;
+        this.gdb = gdb;
+    }
+
+    /**
+     * adds the edge unless it is already indexed for the value
+     */
+    @Override
+    public void add(Relationship relationship, String property, Object value) {
+        entries(property, key(value), true).add(id(relationship.getStartNode()), relationship.getType(), id(relationship.getEndNode()), true);
+    }
+
+    /**
+     * adds an edge that is visited once per outgoing field position, like by discovery, without checking the
+     * indexed edges of the start node, parallel edges are indexed once each
+     */
+    void addOutgoing(Relationship relationship, String property, Object value) {
+        entries(property, key(value), true).add(id(relationship.getStartNode()), relationship.getType(), id(relationship.getEndNode()), false);
+    }
+
+    @Override
+    public void remove(Relationship relationship, String property, Object value) {
+        final Entries entries = entries(property, key(value), false);
+        if (entries != null) entries.remove(id(relationship.getStartNode()), relationship.getType(), id(relationship.getEndNode()));
+    }
+
+    @Override
+    public void remove(Relationship relationship, String property) {
+        final ConcurrentMap<Object, Entries> values = data.get(property);
+        if (values == null) return;
+        final int start = id(relationship.getStartNode()), end = id(relationship.getEndNode());
+        for (Entries entries : values.values()) {
+            entries.remove(start, relationship.getType(), end);
+        }
+    }
+
+    @Override
+    public void remove(Relationship relationship) {
+        for (String property : data.keySet()) {
+            remove(relationship, property);
+        }
+    }
+
+    /**
+     * removes the edges of the type that start at the node, before re-adding its current relationships
+     */
+    void removeOutgoing(ObjectNode start, RelationshipType type, String property, Object value) {
+        final Entries entries = entries(property, key(value), false);
+        if (entries != null) entries.removeOutgoing(id(start), type);
+    }
+
+    @Override
+    public void delete() {
+        data.clear();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Class<Relationship> getEntityType() {
+        return Relationship.class;
+    }
+
+    @Override
+    public IndexHits<Relationship> get(String property, Object value) {
+        return get(property, value, null, null);
+    }
+
+    /**
+     * @param startNodeOrNull only edges starting at the node
+     * @param endNodeOrNull only edges ending at the node, with both endpoints the shorter edge list is scanned
+     */
+    @Override
+    public IndexHits<Relationship> get(String property, Object value, Node startNodeOrNull, Node endNodeOrNull) {
+        final Entries entries = entries(property, key(value), false);
+        if (entries == null) return new RelationshipIndexHits(Collections.<Edges>emptyList());
+        return new RelationshipIndexHits(entries.edges(startNodeOrNull, endNodeOrNull));
+    }
+
+    @Override
+    public IndexHits<Relationship> query(String property, Object query) {
+        return query(property, query, null, null);
+    }
+
+    /**
+     * scans the values of the property, see {@link IndexQuery} for the query syntax
+     */
+    @Override
+    public IndexHits<Relationship> query(String property, Object query, Node startNodeOrNull, Node endNodeOrNull) {
+        if (query == null) return new RelationshipIndexHits(Collections.<Edges>emptyList());
+        return query(IndexQuery.parse(property, query.toString()), startNodeOrNull, endNodeOrNull);
+    }
+
+    @Override
+    public IndexHits<Relationship> query(Object query) {
+        return query(query, null, null);
+    }
+
+    /**
+     * @param query {@code property:expression}
+     */
+    @Override
+    public IndexHits<Relationship> query(Object query, Node startNodeOrNull, Node endNodeOrNull) {
+        return query(IndexQuery.parse(query.toString()), startNodeOrNull, endNodeOrNull);
+    }
+
+    private IndexHits<Relationship> query(IndexQuery query, Node startNodeOrNull, Node endNodeOrNull) {
+        final ConcurrentMap<Object, Entries> values = data.get(query.property);
+        final List<Edges> edges = new ArrayList<Edges>();
+        if (values == null) return new RelationshipIndexHits(edges);
+        for (Map.Entry<Object, Entries> entry : values.entrySet()) {
+            if (entry.getKey() != NULL && query.matches(entry.getKey())) {
+                edges.addAll(entry.getValue().edges(startNodeOrNull, endNodeOrNull));
+            }
+        }
+        return new RelationshipIndexHits(edges);
+    }
+
+    @Override
+    public boolean isWriteable() {
+        return true;
+    }
+
+    private Entries entries(String property, Object key, boolean create) {
+        ConcurrentMap<Object, Entries> values = data.get(property);
+        if (values == null) {
+            if (!create) return null;
+            final ConcurrentMap<Object, Entries> created = new ConcurrentHashMap<Object, Entries>();
+            final ConcurrentMap<Object, Entries> existing = data.putIfAbsent(property, created);
+            values = existing != null ? existing : created;
+        }
+        final Entries entries = values.get(key);
+        if (entries != null || !create) return entries;
+        final Entries created = new Entries();
+        final Entries existing = values.putIfAbsent(key, created);
+        return existing != null ? existing : created;
+    }
+
+    private static Object key(Object value) {
+        return value == null ? NULL : value;
+    }
+
+    private static int id(Node node) {
+        return (int) node.getId();
+    }
+
+    /**
+     * The edges of one value, once per start and once per end node.
+     */
+    private static class Entries {
+        final ConcurrentMap<Integer, Edges> byStart = new ConcurrentHashMap<Integer, Edges>();
+        final ConcurrentMap<Integer, Edges> byEnd = new ConcurrentHashMap<Integer, Edges>();
+
+        synchronized void add(int start, RelationshipType type, int end, boolean unique) {
+            final Edges outgoing = byStart.get(start);
+            if (unique && outgoing != null && outgoing.indexOf(type, end) != -1) return;
+            byStart.put(start, outgoing == null ? Edges.of(start, true, type, end) : outgoing.add(type, end));
+            final Edges incoming = byEnd.get(end);
+            byEnd.put(end, incoming == null ? Edges.of(end, false, type, start) : incoming.add(type, start));
+        }
+
+        synchronized void remove(int start, RelationshipType type, int end) {
+            if (remove(byStart, start, type, end)) remove(byEnd, end, type, start);
+        }
+
+        /**
+         * filters the edges of the start node in one pass, the incoming edges of each end node are searched
+         */
+        synchronized void removeOutgoing(int start, RelationshipType type) {
+            final Edges outgoing = byStart.get(start);
+            if (outgoing == null) return;
+            final Edges remaining = outgoing.without(type);
+            if (remaining == outgoing) return;
+            if (remaining.size == 0) byStart.remove(start);
+            else byStart.put(start, remaining);
+            for (int i = 0; i < outgoing.size; i++) {
+                if (outgoing.types[i].name().equals(type.name())) remove(byEnd, outgoing.others[i], outgoing.types[i], start);
+            }
+        }
+
+        private static boolean remove(ConcurrentMap<Integer, Edges> edges, int node, RelationshipType type, int other) {
+            final Edges current = edges.get(node);
+            if (current == null) return false;
+            final Edges removed = current.remove(type, other);
+            if (removed == current) return false;
+            if (removed.size == 0) edges.remove(node);
+            else edges.put(node, removed);
+            return true;
+        }
+
+        Collection<Edges> edges(Node start, Node end) {
+            if (start == null && end == null) return byStart.values();
+            final Edges outgoing = start == null ? null : byStart.get(id(start));
+            final Edges incoming = end == null ? null : byEnd.get(id(end));
+            if (start != null && end != null) {
+                if (outgoing == null || incoming == null) return Collections.emptyList();
+                return Collections.singletonList(outgoing.size <= incoming.size ? outgoing.to(id(end)) : incoming.to(id(start)));
+            }
+            final Edges edges = start != null ? outgoing : incoming;
+            return edges == null ? Collections.<Edges>emptyList() : Collections.singletonList(edges);
+        }
+    }
+
+    /**
+     * Immutable view of the first {@code size} edges of one node, appends write behind the end of the
+     * view and share the arrays, removals copy.
+     */
+    private static final class Edges {
+        final int node;
+        final boolean outgoing;
+        final RelationshipType[] types;
+        final int[] others;
+        final int size;
+
+        private Edges(int node, boolean outgoing, RelationshipType[] types, int[] others, int size) {
+            this.node = node;
+            this.outgoing = outgoing;
+            this.types = types;
+            this.others = others;
+            this.size = size;
+        }
+
+        static Edges of(int node, boolean outgoing, RelationshipType type, int other) {
+            return new Edges(node, outgoing, new RelationshipType[]{type}, new int[]{other}, 1);
+        }
+
+        int indexOf(RelationshipType type, int other) {
+            for (int i = 0; i < size; i++) {
+                if (others[i] == other && types[i].name().equals(type.name())) return i;
+            }
+            return -1;
+        }
+
+        Edges add(RelationshipType type, int other) {
+            final boolean full = size == others.length;
+            final int capacity = size + (size >> 1) + 1;
+            final RelationshipType[] newTypes = full ? Arrays.copyOf(types, capacity) : types;
+            final int[] newOthers = full ? Arrays.copyOf(others, capacity) : others;
+            newTypes[size] = type;
+            newOthers[size] = other;
+            return new Edges(node, outgoing, newTypes, newOthers, size + 1);
+        }
+
+        Edges remove(RelationshipType type, int other) {
+            final int index = indexOf(type, other);
+            if (index == -1) return this;
+            final RelationshipType[] newTypes = new RelationshipType[size - 1];
+            final int[] newOthers = new int[size - 1];
+            System.arraycopy(types, 0, newTypes, 0, index);
+            System.arraycopy(types, index + 1, newTypes, index, size - 1 - index);
+            System.arraycopy(others, 0, newOthers, 0, index);
+            System.arraycopy(others, index + 1, newOthers, index, size - 1 - index);
+            return new Edges(node, outgoing, newTypes, newOthers, newTypes.length);
+        }
+
+        /**
+         * @return a copy without the edges of the type, this view if there are none
+         */
+        Edges without(RelationshipType type) {
+            int count = 0;
+            final RelationshipType[] newTypes = new RelationshipType[size];
+            final int[] newOthers = new int[size];
+            for (int i = 0; i < size; i++) {
+                if (types[i].name().equals(type.name())) continue;
+                newTypes[count] = types[i];
+                newOthers[count++] = others[i];
+            }
+            return count == size ? this : new Edges(node, outgoing, newTypes, newOthers, count);
+        }
+
+        /**
+         * @return the edges to the other node
+         */
+        Edges to(int other) {
+            int count = 0;
+            final RelationshipType[] newTypes = new RelationshipType[size];
+            final int[] newOthers = new int[size];
+            for (int i = 0; i < size; i++) {
+                if (others[i] != other) continue;
+                newTypes[count] = types[i];
+                newOthers[count++] = other;
+            }
+            return new Edges(node, outgoing, newTypes, newOthers, count);
+        }
+    }
+
+    private class RelationshipIndexHits extends PrefetchingIterator<Relationship> implements IndexHits<Relationship> {
+        private final Collection<Edges> source;
+        private final Iterator<Edges> edges;
+        private Edges current;
+        private int next;
+        private int size = -1;
+
+        RelationshipIndexHits(Collection<Edges> source) {
+            this.source = source;
+            this.edges = source.iterator();
+        }
+
+        @Override
+        protected Relationship fetchNextOrNull() {
+            while (true) {
+                while (current != null && next < current.size) {
+                    final int i = next++;
+                    final ObjectNode node = gdb.registeredNode(current.node);
+                    final ObjectNode other = gdb.registeredNode(current.others[i]);
+                    if (node == null || other == null) continue;
+                    return current.outgoing
+                            ? new ObjectRelationship(node, current.types[i], other, gdb)
+                            : new ObjectRelationship(other, current.types[i], node, gdb);
+                }
+                if (!edges.hasNext()) return null;
+                current = edges.next();
+                next = 0;
+            }
+        }
+
+        /**
+         * counts the edges without resolving the nodes
+         */
+        @Override
+        public int size() {
+            if (size == -1) {
+                int count = 0;
+                for (Edges each : source) {
+                    count += each.size;
+                }
+                size = count;
+            }
+            return size;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Relationship getSingle() {
+            return IteratorUtil.singleOrNull((Iterator<Relationship>) this);
+        }
+
+        @Override
+        public float currentScore() {
+            return 0;
+        }
+
+        @Override
+        public Iterator<Relationship> iterator() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+
+import java.util.*;
+
+/**
+ * Buffers the property and relationship changes of one thread in a change set that only this thread
+ * reads, the wrapped objects stay untouched until the transaction commits. On {@link #finish()} after
+ * {@link #success()} the changes are applied in order under the commit lock of the database together
+ * with their index updates, if a change can't be applied the changes before it are undone. Direct
+ * writes outside of transactions take the same lock.
+ * <p>
+ * Commits don't block single field reads, they see each field either before or after it was changed.
+ * Reads of several properties at once wait for a running commit and retry if one started meanwhile, see
+ * {@link ObjectGraphDatabaseService#stableVersion()}, so they never see a partially applied change set.
+ * Relationships created in the transaction get a provisional id from their position after the current
+ * targets of the field, unordered collections may place them elsewhere on commit.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+class ObjectTransaction implements Transaction {
+    /**
+     * returned by {@link #changedValue(Object, String)} for properties the transaction didn't change
+     */
+    static final Object UNCHANGED = new Object();
+
+    private final ObjectGraphDatabaseService gdb;
+    private final Thread owner = Thread.currentThread();
+    private final List<Change> changes = new ArrayList<Change>();
+    // pending values and relationships per wrapped object, for reads of the owning thread
+    private final Map<Object, Map<String, Object>> properties = new IdentityHashMap<Object, Map<String, Object>>();
+    private final Map<Object, List<Relationship>> relationships = new IdentityHashMap<Object, List<Relationship>>();
+    private boolean success;
+    private boolean failure;
+    private boolean finished;
+
+    ObjectTransaction(ObjectGraphDatabaseService gdb) {
+        this.gdb = gdb;
+    }
+
+    @Override
+    public void success() {
+        success = true;
+    }
+
+    @Override
+    public void failure() {
+        failure = true;
+    }
+
+    /**
+     * commits the change set if the transaction was marked successful and not failed, otherwise discards it
+     * @throws TransactionFailureException if a change could not be applied, none of the changes are applied then
+     */
+    @Override
+    public void finish() {
+        if (finished) return;
+        finished = true;
+        gdb.transactionFinished(this);
+        if (success && !failure) commit();
+    }
+
+    boolean isOwner(Thread thread) {
+        return thread == owner;
+    }
+
+    /**
+     * @return a transaction for nested {@link ObjectGraphDatabaseService#beginTx()} calls, only its failure is passed on
+     */
+    Transaction nested() {
+        return new Transaction() {
+            @Override
+            public void success() {
+            }
+
+            @Override
+            public void failure() {
+                ObjectTransaction.this.failure();
+            }
+
+            @Override
+            public void finish() {
+            }
+        };
+    }
+
+    void propertyChanged(ObjectNode node, String name, Object newValue) {
+        changes.add(new PropertyChange(node, name, newValue));
+        Map<String, Object> values = properties.get(node.getValue());
+        if (values == null) {
+            values = new HashMap<String, Object>();
+            properties.put(node.getValue(), values);
+        }
+        values.put(name, newValue);
+    }
+
+    /**
+     * @return the pending relationship with its provisional id
+     */
+    ObjectRelationship relationshipCreated(ObjectNode start, FieldAccessor field, RelationshipType type, ObjectNode end) {
+        changes.add(new RelationshipChange(start, field, end));
+        List<Relationship> created = relationships.get(start.getValue());
+        if (created == null) {
+            created = new ArrayList<Relationship>();
+            relationships.put(start.getValue(), created);
+        }
+        int position = Targets.size(field.get(start.getValue()));
+        for (Relationship relationship : created) {
+            if (relationship.getType().name().equals(type.name())) position++;
+        }
+        final int slot = start.getMappingInfo().getRelationshipSlot(field.getName());
+        final ObjectRelationship relationship = new ObjectRelationship(start, type, end, gdb, slot, position);
+        created.add(relationship);
+        return relationship;
+    }
+
+    /**
+     * @return the pending relationship from the object with the provisional id or null
+     */
+    ObjectRelationship createdRelationship(Object value, long id) {
+        for (Relationship relationship : createdRelationships(value)) {
+            if (relationship.getId() == id) return (ObjectRelationship) relationship;
+        }
+        return null;
+    }
+
+    /**
+     * @return the value this transaction set for the property of the object or {@link #UNCHANGED}
+     */
+    Object changedValue(Object value, String name) {
+        if (properties.isEmpty()) return UNCHANGED;
+        final Map<String, Object> values = properties.get(value);
+        if (values == null || !values.containsKey(name)) return UNCHANGED;
+        return values.get(name);
+    }
+
+    /**
+     * @param types the relationship types to return, all if empty
+     * @return the relationships this transaction created from the object
+     */
+    List<Relationship> createdRelationships(Object value, RelationshipType... types) {
+        if (relationships.isEmpty()) return Collections.emptyList();
+        final List<Relationship> created = relationships.get(value);
+        if (created == null) return Collections.emptyList();
+        if (types == null || types.length == 0) return created;
+        final List<Relationship> result = new ArrayList<Relationship>();
+        for (Relationship relationship : created) {
+            for (RelationshipType type : types) {
+                if (type.name().equals(relationship.getType().name())) {
+                    result.add(relationship);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private void commit() {
+        gdb.writeStarted();
+        int applied = 0;
+        try {
+            for (Change change : changes) {
+                change.apply();
+                applied++;
+            }
+        } catch (RuntimeException e) {
+            for (int i = applied - 1; i >= 0; i--) {
+                changes.get(i).undo();
+            }
+            throw new TransactionFailureException("Transaction rolled back, change " + changes.get(applied) + " failed", e);
+        } finally {
+            gdb.writeFinished();
+        }
+    }
+
+    private abstract static class Change {
+        abstract void apply();
+
+        abstract void undo();
+    }
+
+    private static class PropertyChange extends Change {
+        private final ObjectNode node;
+        private final String name;
+        private final Object value;
+        private Object oldValue;
+
+        PropertyChange(ObjectNode node, String name, Object value) {
+            this.node = node;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        void apply() {
+            oldValue = node.setValue(name, value);
+        }
+
+        @Override
+        void undo() {
+            node.setValue(name, oldValue);
+        }
+
+        @Override
+        public String toString() {
+            return node + "." + name + " = " + value;
+        }
+    }
+
+    private static class RelationshipChange extends Change {
+        private final ObjectNode start;
+        private final FieldAccessor field;
+        private final ObjectNode end;
+        private Object previous;
+        private boolean added;
+
+        RelationshipChange(ObjectNode start, FieldAccessor field, ObjectNode end) {
+            this.start = start;
+            this.field = field;
+            this.end = end;
+        }
+
+        @Override
+        void apply() {
+            previous = field.get(start.getValue());
+            added = start.addRelationship(field, end);
+        }
+
+        @Override
+        void undo() {
+            if (added) start.removeRelationship(field, previous, end);
+        }
+
+        @Override
+        public String toString() {
+            return start + " -[" + field.getName() + "]-> " + end;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.traversal.Evaluation;
+import org.neo4j.helpers.collection.PrefetchingIterator;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Breadth and depth first traversal engine over the wrapped objects. Outgoing relationships are expanded
+ * by reading the relationship fields of the resolved slots directly, without creating relationship objects.
+ * The visited nodes are kept in primitive arrays, indexed by the order in which they were reached: node id,
+ * parent entry, depth and the slot and position of the relationship that led to them. Relationships and
+ * paths are only created when they are asked for. Node uniqueness is a bitset over the dense node ids.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+class ObjectTraversal {
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    // slot markers for relationships that are not read from an outgoing field
+    private static final int INCOMING = -1;
+    private static final int EXPANDED = -2;
+    private static final int[] NO_SLOTS = new int[0];
+
+    private final ObjectGraphDatabaseService gdb;
+    private final boolean depthFirst;
+    private final RelationshipType[] types;
+    private final Direction[] directions;
+    private final RelationshipExpander expander;
+    private final int maxDepth;
+    private final boolean unique;
+    private final RelationshipType[] incomingFilter;
+    private final boolean followIncoming;
+    private final ConcurrentMap<ObjectGraphDatabaseService.MappingContext.MappingInfo, int[]> outgoingSlots =
+            new ConcurrentHashMap<ObjectGraphDatabaseService.MappingContext.MappingInfo, int[]>();
+
+    /**
+     * @param types the relationship types to follow with their directions, all types if empty, in the single
+     * direction or in both if there is none
+     * @param expander used instead of the types if not null
+     */
+    ObjectTraversal(ObjectGraphDatabaseService gdb, boolean depthFirst, RelationshipType[] types, Direction[] directions,
+                    RelationshipExpander expander, int maxDepth, boolean unique) {
+        this.gdb = gdb;
+        this.depthFirst = depthFirst;
+        this.types = types;
+        this.directions = directions;
+        this.expander = expander;
+        this.maxDepth = maxDepth;
+        this.unique = unique;
+        final List<RelationshipType> incoming = new ArrayList<RelationshipType>(types.length);
+        for (int i = 0; i < types.length; i++) {
+            if (directions[i] != Direction.OUTGOING) incoming.add(types[i]);
+        }
+        this.incomingFilter = incoming.toArray(new RelationshipType[incoming.size()]);
+        this.followIncoming = followsIncoming();
+    }
+
+    /**
+     * the outgoing slots of the filter for the type of node: relationship fields by their slot, fields
+     * referring to a single entity after them like in the relationship ids
+     */
+    private int[] outgoingSlots(ObjectNode node) {
+        final ObjectGraphDatabaseService.MappingContext.MappingInfo info = node.getMappingInfo();
+        final int[] slots = outgoingSlots.get(info);
+        if (slots != null) return slots;
+        final int[] resolved = resolveSlots(node, info);
+        outgoingSlots.putIfAbsent(info, resolved);
+        return resolved;
+    }
+
+    private int[] resolveSlots(ObjectNode node, ObjectGraphDatabaseService.MappingContext.MappingInfo info) {
+        if (types.length == 0) {
+            if (directions.length > 0 && directions[0] == Direction.INCOMING) return NO_SLOTS;
+            final int[] all = new int[info.getRelationshipCount()];
+            for (int slot = 0; slot < all.length; slot++) {
+                all[slot] = slot;
+            }
+            return all;
+        }
+        int[] slots = new int[types.length];
+        int count = 0;
+        for (int i = 0; i < types.length; i++) {
+            if (directions[i] == Direction.INCOMING) continue;
+            final String name = types[i].name();
+            final int slot = info.getRelationshipSlot(name);
+            if (slot != -1) {
+                slots[count++] = slot;
+                continue;
+            }
+            final int propertySlot = info.getPropertySlot(name);
+            if (propertySlot != -1 && node.isEntity(info.getPropertyAccessor(propertySlot))) {
+                slots[count++] = info.getRelationshipCount() + propertySlot;
+            }
+        }
+        return count == 0 ? NO_SLOTS : Arrays.copyOf(slots, count);
+    }
+
+    /**
+     * Receives the targets of an expanded node, incoming relationships come with their type.
+     */
+    interface TargetVisitor {
+        void target(int node, int slot, int position, RelationshipType incomingType);
+    }
+
+    /**
+     * reads the targets of the relationship fields of the filter and the incoming relationships if needed
+     */
+    void expand(ObjectNode node, TargetVisitor visitor) {
+        final ObjectGraphDatabaseService.MappingContext.MappingInfo info = node.getMappingInfo();
+        final Object value = node.getValue();
+        for (int slot : outgoingSlots(node)) {
+            if (slot < info.getRelationshipCount()) {
+                final Iterable<Object> targets = Targets.targets(info.getRelationshipAccessor(slot).get(value));
+                if (targets == null) continue;
+                int position = 0;
+                for (Object target : targets) {
+                    final int targetPosition = position++;
+                    if (target != null) visitor.target((int) gdb.nodeId(target), slot, targetPosition, null);
+                }
+            } else {
+                final Object target = info.getPropertyAccessor(slot - info.getRelationshipCount()).get(value);
+                if (target != null) visitor.target((int) gdb.nodeId(target), slot, 0, null);
+            }
+        }
+        if (!followIncoming) return;
+        for (Relationship relationship : gdb.getIncomingRelationships(node, incomingFilter)) {
+            visitor.target((int) relationship.getStartNode().getId(), INCOMING, -1, relationship.getType());
+        }
+    }
+
+    private boolean followsIncoming() {
+        if (types.length == 0) return directions.length == 0 || directions[0] != Direction.OUTGOING;
+        for (Direction direction : directions) {
+            if (direction != Direction.OUTGOING) return true;
+        }
+        return false;
+    }
+
+    /**
+     * One pass over the graph, {@link #next()} returns the entries that are included by {@link #evaluate(int)}.
+     */
+    abstract class Run implements TargetVisitor {
+        private int[] nodes = new int[64];
+        private int[] parents = new int[64];
+        private int[] depths = new int[64];
+        private int[] slots = new int[64];
+        private int[] positions = new int[64];
+        private int size;
+        private int head;
+        private int[] stack;
+        private int top;
+        private final BitSet visited = new BitSet();
+        private final List<RelationshipType> incomingTypes = new ArrayList<RelationshipType>();
+        private final List<Relationship> expanded = new ArrayList<Relationship>();
+        private int expanding;
+        int returned;
+
+        Run(ObjectNode start) {
+            if (depthFirst) stack = new int[64];
+            add(-1, (int) start.getId(), EXPANDED, -1);
+        }
+
+        abstract Evaluation evaluate(int entry);
+
+        /**
+         * @return the next included entry or -1
+         */
+        int next() {
+            while (true) {
+                final int entry = poll();
+                if (entry == -1) return -1;
+                final Evaluation evaluation = evaluate(entry);
+                if (evaluation.continues() && depths[entry] < maxDepth) expand(entry);
+                if (evaluation.includes()) {
+                    returned++;
+                    return entry;
+                }
+            }
+        }
+
+        private int poll() {
+            if (depthFirst) return top == 0 ? -1 : stack[--top];
+            return head == size ? -1 : head++;
+        }
+
+        private void expand(int entry) {
+            final ObjectNode node = gdb.registeredNode(nodes[entry]);
+            if (node == null) return;
+            if (expander != null) {
+                for (Relationship relationship : expander.expand(node)) {
+                    expanded.add(relationship);
+                    add(entry, (int) relationship.getOtherNode(node).getId(), EXPANDED, expanded.size() - 1);
+                }
+                return;
+            }
+            expanding = entry;
+            ObjectTraversal.this.expand(node, this);
+        }
+
+        @Override
+        public void target(int node, int slot, int position, RelationshipType incomingType) {
+            add(expanding, node, slot, slot == INCOMING ? typeIndex(incomingType) : position);
+        }
+
+        private int typeIndex(RelationshipType type) {
+            for (int i = 0; i < incomingTypes.size(); i++) {
+                if (incomingTypes.get(i).name().equals(type.name())) return i;
+            }
+            incomingTypes.add(type);
+            return incomingTypes.size() - 1;
+        }
+
+        private void add(int parent, int node, int slot, int position) {
+            if (unique) {
+                if (visited.get(node)) return;
+                visited.set(node);
+            }
+            if (size == nodes.length) {
+                final int capacity = size + (size >> 1);
+                nodes = Arrays.copyOf(nodes, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+                slots = Arrays.copyOf(slots, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+            }
+            nodes[size] = node;
+            parents[size] = parent;
+            depths[size] = parent == -1 ? 0 : depths[parent] + 1;
+            slots[size] = slot;
+            positions[size] = position;
+            if (depthFirst) {
+                if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = size;
+            }
+            size++;
+        }
+
+        ObjectNode node(int entry) {
+            return gdb.registeredNode(nodes[entry]);
+        }
+
+        int parent(int entry) {
+            return parents[entry];
+        }
+
+        int depth(int entry) {
+            return depths[entry];
+        }
+
+        /**
+         * @return the relationship that led to the entry, null for the start node
+         */
+        Relationship relationship(int entry) {
+            final int parent = parents[entry];
+            if (parent == -1) return null;
+            switch (slots[entry]) {
+                case EXPANDED:
+                    return expanded.get(positions[entry]);
+                case INCOMING:
+                    return new ObjectRelationship(node(entry), incomingTypes.get(positions[entry]), node(parent), gdb);
+                default:
+                    return node(parent).getRelationshipAt(slots[entry], positions[entry]);
+            }
+        }
+
+        Path path(int entry) {
+            return new EntryPath(this, entry);
+        }
+    }
+
+    /**
+     * Path from the start node to an entry, following the parent entries.
+     */
+    private static class EntryPath implements Path {
+        private final Run run;
+        private final int entry;
+
+        EntryPath(Run run, int entry) {
+            this.run = run;
+            this.entry = entry;
+        }
+
+        @Override
+        public Node startNode() {
+            return run.node(0);
+        }
+
+        @Override
+        public Node endNode() {
+            return run.node(entry);
+        }
+
+        @Override
+        public Relationship lastRelationship() {
+            return run.relationship(entry);
+        }
+
+        @Override
+        public Iterable<Relationship> relationships() {
+            final LinkedList<Relationship> result = new LinkedList<Relationship>();
+            for (int current = entry; run.parent(current) != -1; current = run.parent(current)) {
+                result.addFirst(run.relationship(current));
+            }
+            return result;
+        }
+
+        @Override
+        public Iterable<Node> nodes() {
+            final LinkedList<Node> result = new LinkedList<Node>();
+            for (int current = entry; current != -1; current = run.parent(current)) {
+                result.addFirst(run.node(current));
+            }
+            return result;
+        }
+
+        @Override
+        public int length() {
+            return run.depth(entry);
+        }
+
+        @Override
+        public Iterator<PropertyContainer> iterator() {
+            final LinkedList<PropertyContainer> result = new LinkedList<PropertyContainer>();
+            for (int current = entry; current != -1; current = run.parent(current)) {
+                result.addFirst(run.node(current));
+                if (run.parent(current) != -1) result.addFirst(run.relationship(current));
+            }
+            return result.iterator();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder result = new StringBuilder();
+            for (PropertyContainer element : this) {
+                if (element instanceof Node) result.append('(').append(((Node) element).getId()).append(')');
+                else result.append("-[").append(((Relationship) element).getType().name()).append("]-");
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * Implements the legacy {@link Node#traverse} methods, nodes are visited once.
+     */
+    Traverser traverse(ObjectNode start, final StopEvaluator stopEvaluator, final ReturnableEvaluator returnableEvaluator) {
+        return new LegacyTraverser(start, stopEvaluator, returnableEvaluator);
+    }
+
+    private class LegacyTraverser extends PrefetchingIterator<Node> implements Traverser {
+        private final Run run;
+        private Position current;
+
+        LegacyTraverser(ObjectNode start, final StopEvaluator stopEvaluator, final ReturnableEvaluator returnableEvaluator) {
+            this.run = new Run(start) {
+                @Override
+                Evaluation evaluate(int entry) {
+                    final Position position = new Position(this, entry);
+                    return Evaluation.of(returnableEvaluator.isReturnableNode(position), !stopEvaluator.isStopNode(position));
+                }
+            };
+        }
+
+        @Override
+        protected Node fetchNextOrNull() {
+            final int entry = run.next();
+            if (entry == -1) return null;
+            current = new Position(run, entry);
+            return run.node(entry);
+        }
+
+        @Override
+        public TraversalPosition currentPosition() {
+            return current;
+        }
+
+        @Override
+        public Collection<Node> getAllNodes() {
+            final List<Node> result = new ArrayList<Node>();
+            while (hasNext()) {
+                result.add(next());
+            }
+            return result;
+        }
+
+        @Override
+        public Iterator<Node> iterator() {
+            return this;
+        }
+    }
+
+    private static class Position implements TraversalPosition {
+        private final Run run;
+        private final int entry;
+
+        Position(Run run, int entry) {
+            this.run = run;
+            this.entry = entry;
+        }
+
+        @Override
+        public Node currentNode() {
+            return run.node(entry);
+        }
+
+        @Override
+        public Node previousNode() {
+            return isStartNode() ? null : run.node(run.parent(entry));
+        }
+
+        @Override
+        public Relationship lastRelationshipTraversed() {
+            return run.relationship(entry);
+        }
+
+        @Override
+        public int depth() {
+            return run.depth(entry);
+        }
+
+        @Override
+        public int returnedNodesCount() {
+            return run.returned;
+        }
+
+        @Override
+        public boolean notStartNode() {
+            return !isStartNode();
+        }
+
+        @Override
+        public boolean isStartNode() {
+            return run.parent(entry) == -1;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.traversal.*;
+import org.neo4j.helpers.Predicate;
+import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.kernel.Uniqueness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Immutable {@link TraversalDescription} that runs on the {@link ObjectTraversal} engine of the object graph,
+ * see {@link ObjectGraphDatabaseService#traversalDescription()}. Supports breadth and depth first order,
+ * relationship types with directions or a custom expander, evaluators, prune evaluators and filters, and
+ * {@link Uniqueness#NODE_GLOBAL} (the default) or {@link Uniqueness#NONE}. {@link #toDepth(int)} limits the
+ * depth without evaluating paths.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+public class ObjectTraversalDescription implements TraversalDescription {
+    private static final RelationshipType[] NO_TYPES = new RelationshipType[0];
+    private static final Direction[] NO_DIRECTIONS = new Direction[0];
+
+    private final ObjectGraphDatabaseService gdb;
+    private final boolean depthFirst;
+    private final RelationshipType[] types;
+    private final Direction[] directions;
+    private final RelationshipExpander expander;
+    private final Evaluator[] evaluators;
+    private final int maxDepth;
+    private final boolean unique;
+    private volatile ObjectTraversal traversal;
+
+    ObjectTraversalDescription(ObjectGraphDatabaseService gdb) {
+        this(gdb, false, NO_TYPES, NO_DIRECTIONS, null, new Evaluator[0], ObjectTraversal.UNLIMITED, true);
+    }
+
+    private ObjectTraversalDescription(ObjectGraphDatabaseService gdb, boolean depthFirst, RelationshipType[] types, Direction[] directions,
+                                       RelationshipExpander expander, Evaluator[] evaluators, int maxDepth, boolean unique) {
+        this.gdb = gdb;
+        this.depthFirst = depthFirst;
+        this.types = types;
+        this.directions = directions;
+        this.expander = expander;
+        this.evaluators = evaluators;
+        this.maxDepth = maxDepth;
+        this.unique = unique;
+    }
+
+    @Override
+    public ObjectTraversalDescription uniqueness(UniquenessFactory uniqueness) {
+        if (uniqueness != Uniqueness.NODE_GLOBAL && uniqueness != Uniqueness.NONE) {
+            throw new IllegalArgumentException("Only NODE_GLOBAL and NONE uniqueness are supported, not " + uniqueness);
+        }
+        return new ObjectTraversalDescription(gdb, depthFirst, types, directions, expander, evaluators, maxDepth, uniqueness == Uniqueness.NODE_GLOBAL);
+    }
+
+    @Override
+    public ObjectTraversalDescription uniqueness(UniquenessFactory uniqueness, Object parameter) {
+        if (parameter != null) throw new IllegalArgumentException("Uniqueness parameters are not supported");
+        return uniqueness(uniqueness);
+    }
+
+    @Override
+    public ObjectTraversalDescription prune(final PruneEvaluator pruning) {
+        return evaluator(new Evaluator() {
+            @Override
+            public Evaluation evaluate(Path path) {
+                return pruning.pruneAfter(path) ? Evaluation.INCLUDE_AND_PRUNE : Evaluation.INCLUDE_AND_CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public ObjectTraversalDescription filter(final Predicate<Path> filter) {
+        return evaluator(new Evaluator() {
+            @Override
+            public Evaluation evaluate(Path path) {
+                return filter.accept(path) ? Evaluation.INCLUDE_AND_CONTINUE : Evaluation.EXCLUDE_AND_CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public ObjectTraversalDescription evaluator(Evaluator evaluator) {
+        final Evaluator[] added = Arrays.copyOf(evaluators, evaluators.length + 1);
+        added[evaluators.length] = evaluator;
+        return new ObjectTraversalDescription(gdb, depthFirst, types, directions, expander, added, maxDepth, unique);
+    }
+
+    /**
+     * only the custom orders of the traversal framework are not supported, use {@link #breadthFirst()} or {@link #depthFirst()}
+     */
+    @Override
+    public ObjectTraversalDescription order(BranchOrderingPolicy order) {
+        throw new UnsupportedOperationException("Custom branch ordering is not supported, use breadthFirst() or depthFirst()");
+    }
+
+    @Override
+    public ObjectTraversalDescription depthFirst() {
+        return new ObjectTraversalDescription(gdb, true, types, directions, expander, evaluators, maxDepth, unique);
+    }
+
+    @Override
+    public ObjectTraversalDescription breadthFirst() {
+        return new ObjectTraversalDescription(gdb, false, types, directions, expander, evaluators, maxDepth, unique);
+    }
+
+    @Override
+    public ObjectTraversalDescription relationships(RelationshipType type) {
+        return relationships(type, Direction.BOTH);
+    }
+
+    @Override
+    public ObjectTraversalDescription relationships(RelationshipType type, Direction direction) {
+        final RelationshipType[] addedTypes = Arrays.copyOf(types, types.length + 1);
+        addedTypes[types.length] = type;
+        final Direction[] addedDirections = Arrays.copyOf(directions, types.length + 1);
+        addedDirections[types.length] = direction;
+        return new ObjectTraversalDescription(gdb, depthFirst, addedTypes, addedDirections, null, evaluators, maxDepth, unique);
+    }
+
+    /**
+     * the expander is called with the generic node and relationship objects, prefer {@link #relationships}
+     */
+    @Override
+    public ObjectTraversalDescription expand(RelationshipExpander expander) {
+        return new ObjectTraversalDescription(gdb, depthFirst, NO_TYPES, NO_DIRECTIONS, expander, evaluators, maxDepth, unique);
+    }
+
+    /**
+     * all relationship types in the direction
+     */
+    public ObjectTraversalDescription direction(Direction direction) {
+        return new ObjectTraversalDescription(gdb, depthFirst, NO_TYPES, new Direction[]{direction}, null, evaluators, maxDepth, unique);
+    }
+
+    /**
+     * stops expanding at the depth, like {@link Evaluators#toDepth(int)} but without evaluating a path per node
+     */
+    public ObjectTraversalDescription toDepth(int depth) {
+        return new ObjectTraversalDescription(gdb, depthFirst, types, directions, expander, evaluators, depth, unique);
+    }
+
+    @Override
+    public org.neo4j.graphdb.traversal.Traverser traverse(final Node startNode) {
+        final ObjectTraversal traversal = traversal();
+        return new org.neo4j.graphdb.traversal.Traverser() {
+            @Override
+            public Iterable<Node> nodes() {
+                return new Iterable<Node>() {
+                    @Override
+                    public Iterator<Node> iterator() {
+                        final ObjectTraversal.Run run = run(traversal, startNode);
+                        return new PrefetchingIterator<Node>() {
+                            @Override
+                            protected Node fetchNextOrNull() {
+                                final int entry = run.next();
+                                return entry == -1 ? null : run.node(entry);
+                            }
+                        };
+                    }
+                };
+            }
+
+            @Override
+            public Iterable<Relationship> relationships() {
+                return new Iterable<Relationship>() {
+                    @Override
+                    public Iterator<Relationship> iterator() {
+                        final ObjectTraversal.Run run = run(traversal, startNode);
+                        return new PrefetchingIterator<Relationship>() {
+                            @Override
+                            protected Relationship fetchNextOrNull() {
+                                int entry;
+                                while ((entry = run.next()) != -1) {
+                                    final Relationship relationship = run.relationship(entry);
+                                    if (relationship != null) return relationship;
+                                }
+                                return null;
+                            }
+                        };
+                    }
+                };
+            }
+
+            @Override
+            public Iterator<Path> iterator() {
+                final ObjectTraversal.Run run = run(traversal, startNode);
+                return new PrefetchingIterator<Path>() {
+                    @Override
+                    protected Path fetchNextOrNull() {
+                        final int entry = run.next();
+                        return entry == -1 ? null : run.path(entry);
+                    }
+                };
+            }
+        };
+    }
+
+    private ObjectTraversal traversal() {
+        ObjectTraversal result = traversal;
+        if (result == null) {
+            result = new ObjectTraversal(gdb, depthFirst, types, directions, expander, maxDepth, unique);
+            traversal = result;
+        }
+        return result;
+    }
+
+    private ObjectTraversal.Run run(ObjectTraversal traversal, Node startNode) {
+        final ObjectNode start = gdb.getNodeById(startNode.getId());
+        if (evaluators.length == 0) {
+            return traversal.new Run(start) {
+                @Override
+                Evaluation evaluate(int entry) {
+                    return Evaluation.INCLUDE_AND_CONTINUE;
+                }
+            };
+        }
+        return traversal.new Run(start) {
+            @Override
+            Evaluation evaluate(int entry) {
+                final Path path = path(entry);
+                boolean includes = true, continues = true;
+                for (Evaluator evaluator : evaluators) {
+                    final Evaluation evaluation = evaluator.evaluate(path);
+                    includes &= evaluation.includes();
+                    continues &= evaluation.continues();
+                }
+                return Evaluation.of(includes, continues);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        final List<String> expansion = new ArrayList<String>();
+        for (int i = 0; i < types.length; i++) {
+            expansion.add(types[i].name() + ":" + directions[i]);
+        }
+        return "ObjectTraversalDescription[" + (depthFirst ? "depth first" : "breadth first") + ", " + expansion
+                + (maxDepth == ObjectTraversal.UNLIMITED ? "" : ", to depth " + maxDepth) + "]";
+    }
+}
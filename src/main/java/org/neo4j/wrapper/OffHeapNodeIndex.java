@@ -0,0 +1,611 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.helpers.collection.PrefetchingIterator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Exact match index that keeps its values and postings in direct buffers outside of the heap, so that
+ * large indexes don't add to the garbage collection work. Values are stored in their {@link ValueCodec}
+ * encoding, objects of domain types as the id of their node, and are matched by comparing the encoded bytes.
+ * Values without an encoding, like arrays or other JDK types, are kept in an on-heap {@link ObjectNodeIndex}.
+ * <p>
+ * Per property there is an open addressing table of entry offsets, the entries with the hash, the location
+ * of the postings and the encoded value, and the postings, which are sorted id arrays that move to a block twice
+ * as large when full. The single id of a unique value is kept in its entry. Writers of a property are serialized,
+ * readers copy the ids of a value under a shared lock.
+ * Range, wildcard and term queries decode and scan all values of the property.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+public class OffHeapNodeIndex implements PostingsIndex {
+    public static final String STORAGE = "storage";
+    public static final String OFF_HEAP = "off_heap";
+    public static final Map<String, String> CONFIG = Collections.singletonMap(STORAGE, OFF_HEAP);
+
+    private final String name;
+    private final ObjectGraphDatabaseService gdb;
+    private final ConcurrentMap<String, Dictionary> data = new ConcurrentHashMap<String, Dictionary>();
+    private final ObjectNodeIndex heap;
+
+    public OffHeapNodeIndex(String name, ObjectGraphDatabaseService gdb) {
+        this.name = name;
+        this.gdb = gdb;
+        this.heap = new ObjectNodeIndex(name, gdb);
+    }
+
+    @Override
+    public void add(Node node, String property, Object value) {
+        final byte[] key = ValueCodec.encode(value, gdb, true);
+        if (key == null) heap.add(node, property, value);
+        else dictionary(property, true).add(key, hash(value, key), id(node));
+    }
+
+    @Override
+    public void remove(Node node, String property, Object value) {
+        final byte[] key = ValueCodec.encode(value, gdb, false);
+        if (key == null) {
+            heap.remove(node, property, value);
+            return;
+        }
+        final Dictionary dictionary = dictionary(property, false);
+        if (dictionary != null) dictionary.remove(key, hash(value, key), id(node));
+    }
+
+    /**
+     * scans all values of the property, the index keeps no node to value mapping
+     */
+    @Override
+    public void remove(Node node, String property) {
+        heap.remove(node, property);
+        final Dictionary dictionary = dictionary(property, false);
+        if (dictionary != null) dictionary.removeAll(id(node));
+    }
+
+    @Override
+    public void remove(Node node) {
+        heap.remove(node);
+        for (Dictionary dictionary : data.values()) {
+            dictionary.removeAll(id(node));
+        }
+    }
+
+    @Override
+    public void restore(String property, Object value, int[] ids) {
+        final byte[] key = ValueCodec.encode(value, gdb, true);
+        if (key == null) {
+            heap.restore(property, value, ids);
+            return;
+        }
+        final Dictionary dictionary = dictionary(property, true);
+        final int hash = hash(value, key);
+        for (int id : ids) {
+            dictionary.add(key, hash, id);
+        }
+    }
+
+    @Override
+    public Set<String> properties() {
+        final Set<String> properties = new LinkedHashSet<String>(data.keySet());
+        properties.addAll(heap.properties());
+        return properties;
+    }
+
+    @Override
+    public Map<Object, int[]> postings(String property) {
+        final Map<Object, int[]> result = new LinkedHashMap<Object, int[]>(heap.postings(property));
+        final Dictionary dictionary = dictionary(property, false);
+        if (dictionary == null) return result;
+        for (Map.Entry<Object, int[]> entry : dictionary.scan(null)) {
+            if (entry.getKey() != ValueCodec.MISSING) result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    @Override
+    public void removeProperty(String property) {
+        heap.removeProperty(property);
+        data.remove(property);
+    }
+
+    @Override
+    public void delete() {
+        heap.delete();
+        data.clear();
+    }
+
+    /**
+     * @return the bytes reserved outside of the heap
+     */
+    public long sizeInBytes() {
+        long size = 0;
+        for (Dictionary dictionary : data.values()) {
+            size += dictionary.sizeInBytes();
+        }
+        return size;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Class<Node> getEntityType() {
+        return Node.class;
+    }
+
+    @Override
+    public IndexHits<Node> get(String property, Object value) {
+        final Dictionary dictionary = dictionary(property, false);
+        final int[] ids;
+        if (value instanceof String && isAscii((String) value)) {
+            ids = dictionary == null ? null : dictionary.get((String) value, null, hash(value, null));
+        } else {
+            final byte[] key = ValueCodec.encode(value, gdb, false);
+            // objects without a node were never added
+            if (key == null) return heap.get(property, value);
+            ids = dictionary == null ? null : dictionary.get(null, key, hash(value, key));
+        }
+        return new NodeIndexHits(ids == null ? Collections.<int[]>emptyList() : Collections.singletonList(ids));
+    }
+
+    /**
+     * @param value a query expression like {@code [1 TO 5]} or {@code abc*}, other values are matched exactly
+     */
+    @Override
+    public IndexHits<Node> query(String property, Object value) {
+        if (!(value instanceof String)) return get(property, value);
+        return query(IndexQuery.parse(property, (String) value));
+    }
+
+    /**
+     * @param query a query like {@code date:[1 TO 5]} or {@code twid:mesi*}
+     */
+    @Override
+    public IndexHits<Node> query(Object query) {
+        if (query == null) throw new IllegalArgumentException("Query must not be null");
+        return query(IndexQuery.parse(query.toString()));
+    }
+
+    /**
+     * the postings of the matching values in value order followed by the matches of the on-heap values
+     */
+    private IndexHits<Node> query(IndexQuery query) {
+        final List<int[]> postings = new ArrayList<int[]>();
+        final Dictionary dictionary = dictionary(query.property, false);
+        if (dictionary != null) {
+            final List<Map.Entry<Object, int[]>> matches = dictionary.scan(query);
+            Collections.sort(matches, new Comparator<Map.Entry<Object, int[]>>() {
+                @Override
+                public int compare(Map.Entry<Object, int[]> a, Map.Entry<Object, int[]> b) {
+                    return ObjectNodeIndex.VALUE_ORDER.compare(a.getKey(), b.getKey());
+                }
+            });
+            for (Map.Entry<Object, int[]> match : matches) {
+                postings.add(match.getValue());
+            }
+        }
+        if (heap.properties().contains(query.property)) {
+            final IndexHits<Node> hits = heap.query(query);
+            final int[] ids = new int[hits.size()];
+            int count = 0;
+            for (Node node : hits) {
+                ids[count++] = id(node);
+            }
+            postings.add(Arrays.copyOf(ids, count));
+        }
+        return new NodeIndexHits(postings);
+    }
+
+    @Override
+    public boolean isWriteable() {
+        return true;
+    }
+
+    private Dictionary dictionary(String property, boolean create) {
+        final Dictionary dictionary = data.get(property);
+        if (dictionary != null || !create) return dictionary;
+        final Dictionary created = new Dictionary();
+        final Dictionary existing = data.putIfAbsent(property, created);
+        return existing != null ? existing : created;
+    }
+
+    private static int id(Node node) {
+        return (int) node.getId();
+    }
+
+    /**
+     * The values of one property with their postings, in three direct buffers that are copied to a twice
+     * as large buffer when full.
+     */
+    private class Dictionary {
+        // entry: hash, postings start, postings size, postings capacity, value length, value bytes,
+        // with capacity 1 the start is the single id itself so unique values don't need a postings block
+        private static final int HASH = 0, START = 4, SIZE = 8, CAPACITY = 12, LENGTH = 16, HEADER = 20;
+        private static final int INLINE = 1;
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // entry offsets + 1, 0 marks a free slot
+        private ByteBuffer table = allocate(64 * 4);
+        private ByteBuffer entries = allocate(1024);
+        private ByteBuffer postings = allocate(1024);
+        private int count, entriesEnd, postingsEnd, garbage;
+
+        void add(byte[] key, int hash, int id) {
+            lock.writeLock().lock();
+            try {
+                int entry = find(null, key, hash);
+                if (entry == -1) entry = insert(key, hash);
+                addId(entry, id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(byte[] key, int hash, int id) {
+            lock.writeLock().lock();
+            try {
+                final int entry = find(null, key, hash);
+                if (entry != -1) removeId(entry, id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void removeAll(int id) {
+            lock.writeLock().lock();
+            try {
+                for (int entry = 0; entry < entriesEnd; entry += HEADER + entries.getInt(entry + LENGTH)) {
+                    removeId(entry, id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * @param ascii an ASCII string that is compared without encoding it or null to compare the key
+         * @return a copy of the ids of the value or null if it is not indexed
+         */
+        int[] get(String ascii, byte[] key, int hash) {
+            lock.readLock().lock();
+            try {
+                final int entry = find(ascii, key, hash);
+                return entry == -1 ? null : ids(entry);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * @return the decoded values that match the query, all if it is null, with a copy of their ids
+         */
+        List<Map.Entry<Object, int[]>> scan(IndexQuery query) {
+            final List<Map.Entry<Object, int[]>> result = new ArrayList<Map.Entry<Object, int[]>>();
+            final ClassLoader classLoader = gdb.getClass().getClassLoader();
+            lock.readLock().lock();
+            try {
+                final ByteBuffer in = entries.duplicate();
+                for (int entry = 0; entry < entriesEnd; entry += HEADER + entries.getInt(entry + LENGTH)) {
+                    if (entries.getInt(entry + SIZE) == 0) continue;
+                    in.position(entry + HEADER);
+                    final Object value = ValueCodec.decode(in, gdb, classLoader);
+                    if (query != null && (value == ValueCodec.MISSING || !query.matches(value))) continue;
+                    result.add(new AbstractMap.SimpleImmutableEntry<Object, int[]>(value, ids(entry)));
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            return result;
+        }
+
+        long sizeInBytes() {
+            lock.readLock().lock();
+            try {
+                return table.capacity() + entries.capacity() + postings.capacity();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private int[] ids(int entry) {
+            final int start = entries.getInt(entry + START);
+            final int[] ids = new int[entries.getInt(entry + SIZE)];
+            if (entries.getInt(entry + CAPACITY) == INLINE) {
+                if (ids.length == 1) ids[0] = start;
+                return ids;
+            }
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = postings.getInt((start + i) << 2);
+            }
+            return ids;
+        }
+
+        private int find(String ascii, byte[] key, int hash) {
+            final int mask = (table.capacity() >> 2) - 1;
+            for (int slot = slot(hash, mask); ; slot = (slot + 1) & mask) {
+                final int entry = table.getInt(slot << 2) - 1;
+                if (entry == -1) return -1;
+                if (entries.getInt(entry + HASH) != hash) continue;
+                if (ascii != null ? sameString(entry, ascii) : sameValue(entry, key)) return entry;
+            }
+        }
+
+        /**
+         * the encoding of an ASCII string is the tag, the length and one byte per char
+         */
+        private boolean sameString(int entry, String ascii) {
+            final int length = ascii.length();
+            if (entries.getInt(entry + LENGTH) != 5 + length || entries.get(entry + HEADER) != ValueCodec.STRING) return false;
+            final int chars = entry + HEADER + 5;
+            for (int i = 0; i < length; i++) {
+                if (entries.get(chars + i) != (byte) ascii.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private boolean sameValue(int entry, byte[] key) {
+            if (entries.getInt(entry + LENGTH) != key.length) return false;
+            for (int i = 0; i < key.length; i++) {
+                if (entries.get(entry + HEADER + i) != key[i]) return false;
+            }
+            return true;
+        }
+
+        private int insert(byte[] key, int hash) {
+            entries = ensure(entries, entriesEnd, HEADER + key.length);
+            final int entry = entriesEnd;
+            entries.putInt(entry + HASH, hash);
+            entries.putInt(entry + START, 0);
+            entries.putInt(entry + SIZE, 0);
+            entries.putInt(entry + CAPACITY, INLINE);
+            entries.putInt(entry + LENGTH, key.length);
+            for (int i = 0; i < key.length; i++) {
+                entries.put(entry + HEADER + i, key[i]);
+            }
+            entriesEnd += HEADER + key.length;
+            putSlot(table, hash, entry);
+            if (++count * 2 > table.capacity() >> 2) rehash();
+            return entry;
+        }
+
+        private void rehash() {
+            final ByteBuffer grown = allocate(table.capacity() * 2);
+            for (int entry = 0; entry < entriesEnd; entry += HEADER + entries.getInt(entry + LENGTH)) {
+                putSlot(grown, entries.getInt(entry + HASH), entry);
+            }
+            table = grown;
+        }
+
+        private void putSlot(ByteBuffer table, int hash, int entry) {
+            final int mask = (table.capacity() >> 2) - 1;
+            int slot = slot(hash, mask);
+            while (table.getInt(slot << 2) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table.putInt(slot << 2, entry + 1);
+        }
+
+        /**
+         * the high bits of the Fibonacci hash, sequential values like ids in strings spread over the table
+         */
+        private int slot(int hash, int mask) {
+            return hash * 0x9E3779B9 >>> Integer.numberOfLeadingZeros(mask);
+        }
+
+        /**
+         * inserts the id in order, ids are mostly added in ascending order so this is usually an append
+         */
+        private void addId(int entry, int id) {
+            int start = entries.getInt(entry + START);
+            final int size = entries.getInt(entry + SIZE);
+            if (entries.getInt(entry + CAPACITY) == INLINE) {
+                if (size == 0) {
+                    entries.putInt(entry + START, id);
+                    entries.putInt(entry + SIZE, 1);
+                    return;
+                }
+                if (start == id) return;
+                final int block = reserve(2);
+                postings.putInt(block << 2, Math.min(start, id));
+                postings.putInt((block + 1) << 2, Math.max(start, id));
+                entries.putInt(entry + START, block);
+                entries.putInt(entry + SIZE, 2);
+                entries.putInt(entry + CAPACITY, 2);
+                return;
+            }
+            int index = size;
+            if (size > 0 && postings.getInt((start + size - 1) << 2) >= id) {
+                index = search(start, size, id);
+                if (index >= 0) return;
+                index = -index - 1;
+            }
+            final int capacity = entries.getInt(entry + CAPACITY);
+            if (size == capacity) {
+                final int moved = reserve(capacity * 2);
+                // reserving may have compacted the postings and moved this entry's ids
+                start = entries.getInt(entry + START);
+                for (int i = 0; i < size; i++) {
+                    postings.putInt((moved + i) << 2, postings.getInt((start + i) << 2));
+                }
+                garbage += capacity;
+                start = moved;
+                entries.putInt(entry + START, start);
+                entries.putInt(entry + CAPACITY, capacity * 2);
+            }
+            for (int i = size; i > index; i--) {
+                postings.putInt((start + i) << 2, postings.getInt((start + i - 1) << 2));
+            }
+            postings.putInt((start + index) << 2, id);
+            entries.putInt(entry + SIZE, size + 1);
+        }
+
+        private void removeId(int entry, int id) {
+            final int start = entries.getInt(entry + START);
+            final int size = entries.getInt(entry + SIZE);
+            if (entries.getInt(entry + CAPACITY) == INLINE) {
+                if (size == 1 && start == id) entries.putInt(entry + SIZE, 0);
+                return;
+            }
+            final int index = search(start, size, id);
+            if (index < 0) return;
+            for (int i = index; i < size - 1; i++) {
+                postings.putInt((start + i) << 2, postings.getInt((start + i + 1) << 2));
+            }
+            entries.putInt(entry + SIZE, size - 1);
+        }
+
+        /**
+         * @return the index of the id or -(insertion point) - 1
+         */
+        private int search(int start, int size, int id) {
+            int low = 0, high = size - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int value = postings.getInt((start + middle) << 2);
+                if (value < id) low = middle + 1;
+                else if (value > id) high = middle - 1;
+                else return middle;
+            }
+            return -(low + 1);
+        }
+
+        /**
+         * @return the start of a new postings block, compacts the postings first if half of them are abandoned blocks
+         */
+        private int reserve(int capacity) {
+            if (garbage > 1024 && garbage * 2 > postingsEnd) compact();
+            if ((long) postingsEnd + capacity > Integer.MAX_VALUE >> 2) throw new IllegalStateException("Postings of index " + name + " exceed 2GB");
+            postings = ensure(postings, postingsEnd << 2, capacity << 2);
+            final int start = postingsEnd;
+            postingsEnd += capacity;
+            return start;
+        }
+
+        private void compact() {
+            final ByteBuffer compacted = allocate(postings.capacity());
+            int end = 0;
+            for (int entry = 0; entry < entriesEnd; entry += HEADER + entries.getInt(entry + LENGTH)) {
+                final int start = entries.getInt(entry + START), capacity = entries.getInt(entry + CAPACITY);
+                if (capacity == INLINE) continue;
+                for (int i = 0; i < entries.getInt(entry + SIZE); i++) {
+                    compacted.putInt((end + i) << 2, postings.getInt((start + i) << 2));
+                }
+                entries.putInt(entry + START, end);
+                end += capacity;
+            }
+            postings = compacted;
+            postingsEnd = end;
+            garbage = 0;
+        }
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    /**
+     * the hash of JDK values, which strings cache, and of the encoding of nodes, whose objects may hash by mutable fields
+     */
+    private static int hash(Object value, byte[] key) {
+        int hash = 1;
+        if (value == null) {
+            hash = 0;
+        } else if (value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof Date) {
+            hash = value.hashCode();
+        } else {
+            for (byte b : key) {
+                hash = 31 * hash + b;
+            }
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return the buffer or a copy of its used bytes with at least the needed free bytes
+     */
+    private static ByteBuffer ensure(ByteBuffer buffer, int used, int needed) {
+        if (buffer.capacity() - used >= needed) return buffer;
+        final long capacity = Math.max(buffer.capacity() * 2L, (long) used + needed);
+        if (capacity > Integer.MAX_VALUE) throw new IllegalStateException("Off-heap index buffer exceeds 2GB");
+        final ByteBuffer grown = allocate((int) capacity);
+        final ByteBuffer source = buffer.duplicate();
+        source.position(0);
+        source.limit(used);
+        grown.put(source);
+        grown.clear();
+        return grown;
+    }
+
+    private class NodeIndexHits extends PrefetchingIterator<Node> implements IndexHits<Node> {
+        private final List<int[]> source;
+        private final Iterator<int[]> postings;
+        private int[] current = new int[0];
+        private int next;
+
+        NodeIndexHits(List<int[]> source) {
+            this.source = source;
+            this.postings = source.iterator();
+        }
+
+        @Override
+        protected Node fetchNextOrNull() {
+            while (true) {
+                while (next < current.length) {
+                    final Node node = gdb.registeredNode(current[next++]);
+                    if (node != null) return node;
+                }
+                if (!postings.hasNext()) return null;
+                current = postings.next();
+                next = 0;
+            }
+        }
+
+        @Override
+        public int size() {
+            int count = 0;
+            for (int[] ids : source) {
+                count += ids.length;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Node getSingle() {
+            return IteratorUtil.singleOrNull((Iterator<Node>) this);
+        }
+
+        @Override
+        public float currentScore() {
+            return 0;
+        }
+
+        @Override
+        public Iterator<Node> iterator() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.neo4j.wrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Level synchronous breadth first scan of the object network on several threads. The registry is the
+ * concurrent visited set, each frontier is the id range registered during the previous level. Workers
+ * claim small chunks of the frontier, so busy threads don't hold up idle ones, and add the nodes to
+ * the concurrent indexes directly.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+class ParallelGraphScanner {
+    private static final int MIN_CHUNK = 64;
+
+    private final ObjectGraphDatabaseService gdb;
+    private final NodeIdRegistry nodeIds;
+    private final int threads;
+
+    ParallelGraphScanner(ObjectGraphDatabaseService gdb, NodeIdRegistry nodeIds, int threads) {
+        this.gdb = gdb;
+        this.nodeIds = nodeIds;
+        this.threads = threads;
+    }
+
+    /**
+     * scans all nodes registered from the start id on, including the ones registered while scanning
+     * @return the id up to which all nodes have been scanned
+     */
+    long scan(long start) {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, new ScannerThreadFactory());
+        try {
+            long end = nodeIds.size();
+            while (start < end) {
+                scanLevel(pool, start, end);
+                start = end;
+                end = nodeIds.size();
+            }
+            return end;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void scanLevel(ExecutorService pool, final long start, final long end) {
+        final AtomicLong cursor = new AtomicLong(start);
+        final long chunk = Math.max(MIN_CHUNK, (end - start) / (threads * 8));
+        final List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+        for (int i = 0; i < threads; i++) {
+            futures.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long from;
+                    while ((from = cursor.getAndAdd(chunk)) < end) {
+                        final long to = Math.min(end, from + chunk);
+                        for (long id = from; id < to; id++) {
+                            scanNode(id);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while scanning object graph", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Error scanning object graph", e.getCause());
+            }
+        }
+    }
+
+    private void scanNode(long id) {
+        final Object value = nodeIds.get(id);
+        if (value == null) return;
+        final ObjectNode node = gdb.createNode(value);
+        gdb.expand(node);
+        gdb.addToIndex(node);
+    }
+
+    private static class ScannerThreadFactory implements ThreadFactory {
+        private int count;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "object-graph-scanner-" + (count++));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
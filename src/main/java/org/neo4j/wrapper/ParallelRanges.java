@@ -0,0 +1,83 @@
+package org.neo4j.wrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a task over the ranges of [0, size) on the threads of the traversal pool. The threads claim chunks
+ * from a shared cursor so busy threads don't hold up idle ones, small sizes run on the calling thread.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+final class ParallelRanges {
+    private ParallelRanges() {
+    }
+
+    interface Range {
+        void run(int from, int to);
+    }
+
+    /**
+     * creates the range of one worker, for state that each worker keeps to itself
+     */
+    interface Workers<R extends Range> {
+        R create();
+    }
+
+    static void run(ObjectGraphDatabaseService gdb, int size, int minChunk, final Range range) {
+        runWorkers(gdb, size, minChunk, new Workers<Range>() {
+            @Override
+            public Range create() {
+                return range;
+            }
+        });
+    }
+
+    /**
+     * like {@link #run} with a range per worker thread
+     * @return the ranges of the workers in the order they were created, a single one if the calling thread ran the task
+     */
+    static <R extends Range> List<R> runWorkers(ObjectGraphDatabaseService gdb, final int size, int minChunk, Workers<R> factory) {
+        final int threads = gdb.getTraversalThreads();
+        if (threads == 1 || size < minChunk * 2) {
+            final R range = factory.create();
+            range.run(0, size);
+            return Collections.singletonList(range);
+        }
+        final ExecutorService pool = gdb.traversalPool();
+        final int chunk = Math.max(minChunk, size / (threads * 8));
+        final AtomicInteger cursor = new AtomicInteger();
+        final List<R> workers = new ArrayList<R>(threads);
+        final List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+        for (int i = 0; i < threads; i++) {
+            final R range = factory.create();
+            workers.add(range);
+            futures.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    int from;
+                    while ((from = cursor.getAndAdd(chunk)) < size) {
+                        range.run(from, Math.min(size, from + chunk));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while running on the traversal pool", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Error while running on the traversal pool", e.getCause());
+            }
+        }
+        return workers;
+    }
+}
@@ -0,0 +1,234 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.helpers.collection.PrefetchingIterator;
+
+import java.util.*;
+
+/**
+ * Level synchronous breadth first traversal on several threads for queries with a large fan-out:
+ * reachability, k-hop neighbourhoods and shortest hop counts. Each frontier is split into chunks that
+ * the workers of the traversal pool claim one after the other, the targets are read with the
+ * {@link ObjectTraversal} engine and claimed in a concurrent bitset of the node ids, so every node is
+ * reached exactly once. The levels are computed one at a time while the caller iterates them.
+ * <p>
+ * Immutable like {@link ObjectTraversalDescription}, see {@link ObjectGraphDatabaseService#parallelTraversal()}.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+public class ParallelTraversal {
+    private static final int MIN_CHUNK = 256;
+    private static final int[] NONE = new int[0];
+    private static final RelationshipType[] NO_TYPES = new RelationshipType[0];
+
+    private final ObjectGraphDatabaseService gdb;
+    private final RelationshipType[] types;
+    private final Direction[] directions;
+    private final int maxDepth;
+    private final ObjectTraversal traversal;
+
+    ParallelTraversal(ObjectGraphDatabaseService gdb) {
+        this(gdb, NO_TYPES, new Direction[]{Direction.OUTGOING}, ObjectTraversal.UNLIMITED);
+    }
+
+    private ParallelTraversal(ObjectGraphDatabaseService gdb, RelationshipType[] types, Direction[] directions, int maxDepth) {
+        this.gdb = gdb;
+        this.types = types;
+        this.directions = directions;
+        this.maxDepth = maxDepth;
+        this.traversal = new ObjectTraversal(gdb, false, types, directions, null, maxDepth, true);
+    }
+
+    /**
+     * follows the relationship type in the direction, all outgoing relationship fields if none is given
+     */
+    public ParallelTraversal relationships(RelationshipType type, Direction direction) {
+        final RelationshipType[] addedTypes = Arrays.copyOf(types, types.length + 1);
+        addedTypes[types.length] = type;
+        final Direction[] addedDirections = types.length == 0 ? new Direction[1] : Arrays.copyOf(directions, types.length + 1);
+        addedDirections[types.length] = direction;
+        return new ParallelTraversal(gdb, addedTypes, addedDirections, maxDepth);
+    }
+
+    public ParallelTraversal toDepth(int depth) {
+        return new ParallelTraversal(gdb, types, directions, depth);
+    }
+
+    /**
+     * @return the levels of the breadth first traversal, starting with the start node at depth 0,
+     * each level is computed when the iterator advances to it
+     */
+    public Iterable<Level> levels(final Node start) {
+        return new Iterable<Level>() {
+            @Override
+            public Iterator<Level> iterator() {
+                return new Levels(start);
+            }
+        };
+    }
+
+    /**
+     * @return the number of nodes reachable from the start node, including it
+     */
+    public int countReachable(Node start) {
+        int count = 0;
+        for (Level level : levels(start)) {
+            count += level.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the nodes within the number of hops of the start node, including it
+     */
+    public List<Node> neighbourhood(Node start, int hops) {
+        final List<Node> result = new ArrayList<Node>();
+        for (Level level : toDepth(Math.min(hops, maxDepth)).levels(start)) {
+            for (Node node : level.nodes()) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * stops at the first level that reaches the end node
+     * @return the number of hops from start to end or -1 if it can't be reached
+     */
+    public int shortestHops(Node start, Node end) {
+        final int target = (int) end.getId();
+        final Levels levels = new Levels(start);
+        while (levels.hasNext()) {
+            final Level level = levels.next();
+            if (levels.visited.contains(target)) return level.depth;
+        }
+        return -1;
+    }
+
+    /**
+     * The nodes first reached at one depth, by their ids.
+     */
+    public final class Level {
+        private final int depth;
+        private final int[] ids;
+
+        private Level(int depth, int[] ids) {
+            this.depth = depth;
+            this.ids = ids;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        public long getId(int index) {
+            return ids[index];
+        }
+
+        public Iterable<Node> nodes() {
+            return new Iterable<Node>() {
+                @Override
+                public Iterator<Node> iterator() {
+                    return new PrefetchingIterator<Node>() {
+                        private int next;
+
+                        @Override
+                        protected Node fetchNextOrNull() {
+                            while (next < ids.length) {
+                                final Node node = gdb.registeredNode(ids[next++]);
+                                if (node != null) return node;
+                            }
+                            return null;
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private class Levels extends PrefetchingIterator<Level> {
+        final ConcurrentBitSet visited = new ConcurrentBitSet();
+        private final int start;
+        private Level previous;
+
+        Levels(Node start) {
+            this.start = (int) gdb.getNodeById(start.getId()).getId();
+        }
+
+        @Override
+        protected Level fetchNextOrNull() {
+            if (previous == null) {
+                visited.add(start);
+                return previous = new Level(0, new int[]{start});
+            }
+            if (previous.depth >= maxDepth || previous.size() == 0) return null;
+            final Level next = expand(previous);
+            previous = next;
+            return next.size() == 0 ? null : next;
+        }
+
+        /**
+         * small frontiers are expanded on the calling thread, larger ones in chunks by the workers
+         */
+        private Level expand(Level level) {
+            final int[] frontier = level.ids;
+            final List<Worker> workers = ParallelRanges.runWorkers(gdb, frontier.length, MIN_CHUNK, new ParallelRanges.Workers<Worker>() {
+                @Override
+                public Worker create() {
+                    return new Worker(frontier);
+                }
+            });
+            if (workers.size() == 1) return new Level(level.depth + 1, workers.get(0).result());
+            int size = 0;
+            for (Worker worker : workers) {
+                size += worker.size;
+            }
+            final int[] next = new int[size];
+            int offset = 0;
+            for (Worker worker : workers) {
+                System.arraycopy(worker.ids, 0, next, offset, worker.size);
+                offset += worker.size;
+            }
+            return new Level(level.depth + 1, next);
+        }
+
+        /**
+         * Expands the chunks of the frontier it is given and collects the newly reached node ids in its own buffer.
+         */
+        private class Worker implements ParallelRanges.Range, ObjectTraversal.TargetVisitor {
+            private final int[] frontier;
+            int[] ids = NONE;
+            int size;
+
+            Worker(int[] frontier) {
+                this.frontier = frontier;
+            }
+
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    final ObjectNode node = gdb.registeredNode(frontier[i]);
+                    if (node != null) traversal.expand(node, this);
+                }
+            }
+
+            @Override
+            public void target(int node, int slot, int position, RelationshipType incomingType) {
+                if (!visited.add(node)) return;
+                if (size == ids.length) ids = Arrays.copyOf(ids, Math.max(16, size * 2));
+                ids[size++] = node;
+            }
+
+            int[] result() {
+                return size == ids.length ? ids : Arrays.copyOf(ids, size);
+            }
+        }
+    }
+}
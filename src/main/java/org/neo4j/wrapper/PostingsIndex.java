@@ -0,0 +1,32 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.index.Index;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exact match node index that exposes its postings as sorted id arrays, for {@link SnapshotFile}.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+interface PostingsIndex extends Index<Node> {
+    /**
+     * adds the sorted ids to the postings of the value
+     */
+    void restore(String property, Object value, int[] ids);
+
+    Set<String> properties();
+
+    /**
+     * @return the values of the property with their sorted ids, null for the null value
+     */
+    Map<Object, int[]> postings(String property);
+
+    /**
+     * drops the postings of all values of the property
+     */
+    void removeProperty(String property);
+}
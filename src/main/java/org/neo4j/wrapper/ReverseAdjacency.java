@@ -0,0 +1,144 @@
+package org.neo4j.wrapper;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Incoming edges of the object network, per relationship type and target node id a compact array of
+ * source node ids. Writers append under a striped lock behind the published count and then publish a
+ * new immutable {@link Sources}, removals copy the array. Readers don't lock, they see the sources as
+ * of the last published add or remove.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+class ReverseAdjacency {
+    static final Sources NONE = new Sources(new int[0], 0);
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int STRIPES = 64;
+
+    private final ConcurrentMap<String, TypeAdjacency> types = new ConcurrentHashMap<String, TypeAdjacency>();
+
+    /**
+     * The first count ids of the array, final fields make the ids written before publishing visible to
+     * every reader.
+     */
+    static final class Sources {
+        final int[] ids;
+        final int count;
+
+        Sources(int[] ids, int count) {
+            this.ids = ids;
+            this.count = count;
+        }
+    }
+
+    void add(String type, long target, long source) {
+        typeAdjacency(type).add((int) target, (int) source);
+    }
+
+    void remove(String type, long target, long source) {
+        final TypeAdjacency adjacency = types.get(type);
+        if (adjacency != null) adjacency.remove((int) target, (int) source);
+    }
+
+    Sources sources(String type, long target) {
+        final TypeAdjacency adjacency = types.get(type);
+        if (adjacency == null) return NONE;
+        return adjacency.sources((int) target);
+    }
+
+    Set<String> getTypes() {
+        return Collections.unmodifiableSet(types.keySet());
+    }
+
+    private TypeAdjacency typeAdjacency(String type) {
+        final TypeAdjacency adjacency = types.get(type);
+        if (adjacency != null) return adjacency;
+        final TypeAdjacency created = new TypeAdjacency();
+        final TypeAdjacency existing = types.putIfAbsent(type, created);
+        return existing != null ? existing : created;
+    }
+
+    private static class TypeAdjacency {
+        private final Object[] locks = new Object[STRIPES];
+        private volatile Sources[][] pages = new Sources[16][];
+
+        TypeAdjacency() {
+            for (int i = 0; i < STRIPES; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        void add(int target, int source) {
+            final Sources[] page = page(target, true);
+            synchronized (locks[target & (STRIPES - 1)]) {
+                final Sources current = page[target & PAGE_MASK];
+                int[] ids;
+                int count = 0;
+                if (current == null) {
+                    ids = new int[2];
+                } else {
+                    ids = current.ids;
+                    count = current.count;
+                    // readers only see the ids up to the published count, appending behind it is safe
+                    if (count == ids.length) {
+                        final int[] grown = new int[ids.length * 2];
+                        System.arraycopy(ids, 0, grown, 0, count);
+                        ids = grown;
+                    }
+                }
+                ids[count] = source;
+                page[target & PAGE_MASK] = new Sources(ids, count + 1);
+            }
+        }
+
+        void remove(int target, int source) {
+            final Sources[] page = page(target, false);
+            if (page == null) return;
+            synchronized (locks[target & (STRIPES - 1)]) {
+                final Sources current = page[target & PAGE_MASK];
+                if (current == null) return;
+                final int[] ids = current.ids;
+                final int count = current.count;
+                for (int i = 0; i < count; i++) {
+                    if (ids[i] != source) continue;
+                    final int[] copy = new int[ids.length];
+                    System.arraycopy(ids, 0, copy, 0, i);
+                    System.arraycopy(ids, i + 1, copy, i, count - i - 1);
+                    page[target & PAGE_MASK] = new Sources(copy, count - 1);
+                    return;
+                }
+            }
+        }
+
+        Sources sources(int target) {
+            final Sources[] page = page(target, false);
+            if (page == null) return NONE;
+            final Sources sources = page[target & PAGE_MASK];
+            return sources == null ? NONE : sources;
+        }
+
+        private Sources[] page(int target, boolean create) {
+            final int index = target >>> PAGE_BITS;
+            Sources[][] current = pages;
+            if (index < current.length && current[index] != null) return current[index];
+            if (!create) return null;
+            synchronized (this) {
+                current = pages;
+                if (index >= current.length) {
+                    final Sources[][] grown = new Sources[Math.max(current.length * 2, index + 1)][];
+                    System.arraycopy(current, 0, grown, 0, current.length);
+                    current = grown;
+                }
+                if (current[index] == null) current[index] = new Sources[PAGE_SIZE];
+                pages = current;
+                return current[index];
+            }
+        }
+    }
+}
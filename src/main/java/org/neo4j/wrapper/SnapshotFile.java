@@ -0,0 +1,480 @@
+package org.neo4j.wrapper;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.index.Index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Versioned binary file with what discovery computes for an object graph: the node ids, the outgoing
+ * relationships and the postings of the exact match node indexes. It is mapped into memory when loaded,
+ * the node table and the relationship rows are read from the mapping and only the postings are copied.
+ * <p>
+ * The objects of a new process are bound to the restored ids lazily, see {@link NodeIdRegistry}. Each node
+ * is stored with the node it was first reached from in a breadth first walk from the root, the relationship
+ * field slot and position it was found at, its class and a fingerprint of its value properties. Binding follows
+ * these paths from the root and binds all children of a node in one pass over its fields. If the object at the
+ * position doesn't match, e.g. in hash based collections, the other targets of the field are matched by class
+ * and fingerprint. A graph that was changed in a way that makes a node
+ * unmatchable fails with an {@link IllegalStateException}.
+ * <p>
+ * Layout, big endian: magic, version, root class, node count, class names, five ints per node (class, parent,
+ * slot, position, fingerprint), per relationship type its name and outgoing rows like in {@link AdjacencySnapshot},
+ * per index its name and per property the values, see {@link ValueCodec}, with their sorted node ids. Strings are
+ * stored as the length and the UTF-8 bytes.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+final class SnapshotFile {
+    static final int MAGIC = 0x4F475346;
+    static final int VERSION = 1;
+
+    private static final int NODE_INTS = 5;
+    private static final int CLASS = 0, PARENT = 1, SLOT = 2, POSITION = 3, FINGERPRINT = 4;
+    private static final int NONE = -1;
+
+    private final ByteBuffer buffer;
+    private final int nodeCount;
+    private final String[] classNames;
+    private final IntBuffer nodes;
+    private final String[] types;
+    private final IntBuffer[] offsets;
+    private final IntBuffer[] targets;
+    private final int indexes;
+
+    private SnapshotFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt() != MAGIC) throw new IllegalArgumentException("Not a snapshot file");
+        final int version = buffer.getInt();
+        if (version != VERSION) throw new IllegalArgumentException("Unsupported snapshot version " + version);
+        readString(buffer);
+        this.nodeCount = buffer.getInt();
+        this.classNames = new String[buffer.getInt()];
+        for (int i = 0; i < classNames.length; i++) {
+            classNames[i] = readString(buffer);
+        }
+        this.nodes = ints(buffer, nodeCount * NODE_INTS);
+        this.types = new String[buffer.getInt()];
+        this.offsets = new IntBuffer[types.length];
+        this.targets = new IntBuffer[types.length];
+        for (int type = 0; type < types.length; type++) {
+            types[type] = readString(buffer);
+            offsets[type] = ints(buffer, nodeCount + 1);
+            targets[type] = ints(buffer, buffer.getInt());
+        }
+        this.indexes = buffer.position();
+    }
+
+    /**
+     * @return the mapped file or null if it doesn't exist, is not a snapshot of this version or was written for another root type
+     */
+    static SnapshotFile open(File file, Object root) {
+        if (file == null || !file.isFile()) return null;
+        try {
+            final ByteBuffer buffer = map(file);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) return null;
+            buffer.position(8);
+            if (!root.getClass().getName().equals(readString(buffer))) return null;
+            buffer.position(0);
+            return new SnapshotFile(buffer);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // truncated or otherwise unreadable
+            return null;
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Snapshot file too large " + file);
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return mapped;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static IntBuffer ints(ByteBuffer buffer, int count) {
+        final ByteBuffer slice = buffer.slice();
+        slice.limit(count * 4);
+        buffer.position(buffer.position() + count * 4);
+        return slice.asIntBuffer();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return ValueCodec.readString(buffer);
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return true if the root object matches the stored root node
+     */
+    boolean matchesRoot(ObjectGraphDatabaseService gdb, Object root) {
+        return nodeCount > 0 && matches(gdb, root, 0);
+    }
+
+    /**
+     * hands the stored ids to the registry, binds the root and loads the reverse index and the index postings
+     */
+    void restore(ObjectGraphDatabaseService gdb, NodeIdRegistry nodeIds, Object root, ObjectIndexManager indexManager, ReverseAdjacency reverseAdjacency) {
+        nodeIds.restore(nodeCount, new Binder(gdb, nodeIds, root));
+        nodeIds.bind(0, root);
+        if (reverseAdjacency != null) {
+            for (int type = 0; type < types.length; type++) {
+                final IntBuffer rows = offsets[type], ids = targets[type];
+                for (int node = 0; node < nodeCount; node++) {
+                    for (int i = rows.get(node); i < rows.get(node + 1); i++) {
+                        reverseAdjacency.add(types[type], ids.get(i), node);
+                    }
+                }
+            }
+        }
+        final ByteBuffer in = buffer.duplicate();
+        in.position(indexes);
+        final int indexCount = in.getInt();
+        for (int index = 0; index < indexCount; index++) {
+            final PostingsIndex nodeIndex = (PostingsIndex) indexManager.forNodes(readString(in));
+            final int propertyCount = in.getInt();
+            for (int property = 0; property < propertyCount; property++) {
+                final String name = readString(in);
+                final int valueCount = in.getInt();
+                for (int value = 0; value < valueCount; value++) {
+                    final Object key = ValueCodec.decode(in, gdb, root.getClass().getClassLoader());
+                    final int[] ids = new int[in.getInt()];
+                    in.asIntBuffer().get(ids);
+                    in.position(in.position() + ids.length * 4);
+                    if (key != ValueCodec.MISSING) nodeIndex.restore(name, key, ids);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves restored ids along the stored paths, ancestors that are not bound yet are bound first,
+     * from the top down. Resolving a child binds all children of its parent in one pass over each field.
+     */
+    private class Binder implements NodeIdRegistry.Binder {
+        private final ObjectGraphDatabaseService gdb;
+        private final NodeIdRegistry nodeIds;
+        private final Object root;
+        private final BitSet expanded = new BitSet();
+        private Map<String, Integer> classIds;
+        // children per parent id, like the rows of an adjacency snapshot
+        private int[] childOffsets;
+        private int[] children;
+
+        Binder(ObjectGraphDatabaseService gdb, NodeIdRegistry nodeIds, Object root) {
+            this.gdb = gdb;
+            this.nodeIds = nodeIds;
+            this.root = root;
+        }
+
+        @Override
+        public Object resolve(int id) {
+            if (id == 0) return root;
+            if (field(id, PARENT) == NONE) return null;
+            int[] ancestors = new int[8];
+            int count = 0;
+            for (int ancestor = field(id, PARENT); ancestor != NONE && !nodeIds.isBound(ancestor); ancestor = field(ancestor, PARENT)) {
+                if (count == ancestors.length) ancestors = Arrays.copyOf(ancestors, count * 2);
+                ancestors[count++] = ancestor;
+            }
+            while (count > 0) {
+                nodeIds.get(ancestors[--count]);
+            }
+            final int parentId = field(id, PARENT);
+            final Object parent = nodeIds.get(parentId);
+            if (parent == null) return null;
+            bindChildren(parent, parentId);
+            if (!nodeIds.isBound(id)) throw mismatch(id);
+            return nodeIds.get(id);
+        }
+
+        /**
+         * binds the children of the parent, per field the targets at the stored positions first, then the
+         * children whose target moved, e.g. in hash based collections, by class and fingerprint among the
+         * remaining targets
+         */
+        private synchronized void bindChildren(Object parent, int parentId) {
+            if (expanded.get(parentId)) return;
+            expanded.set(parentId);
+            if (children == null) indexChildren();
+            final ObjectGraphDatabaseService.MappingContext.MappingInfo info = gdb.getMappingInfo(parent.getClass());
+            final BitSet slots = new BitSet();
+            for (int i = childOffsets[parentId]; i < childOffsets[parentId + 1]; i++) {
+                final int id = children[i];
+                final int slot = field(id, SLOT);
+                if (slot < info.getRelationshipCount()) {
+                    slots.set(slot);
+                    continue;
+                }
+                final Object target = info.getPropertyAccessor(slot - info.getRelationshipCount()).get(parent);
+                if (matches(gdb, target, id) && unbound(target, id)) nodeIds.bind(id, target);
+            }
+            for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                bindSlot(info.getRelationshipAccessor(slot).get(parent), parentId, slot);
+            }
+        }
+
+        private void bindSlot(Object fieldValue, int parentId, int slot) {
+            final Iterable<Object> targets = Targets.targets(fieldValue);
+            if (targets == null) return;
+            final int[] byPosition = new int[Targets.size(fieldValue)];
+            Arrays.fill(byPosition, NONE);
+            for (int i = childOffsets[parentId]; i < childOffsets[parentId + 1]; i++) {
+                final int id = children[i];
+                final int position = field(id, POSITION);
+                if (field(id, SLOT) == slot && position < byPosition.length) byPosition[position] = id;
+            }
+            final Map<Long, List<Object>> moved = new HashMap<Long, List<Object>>();
+            int position = 0;
+            for (Object target : targets) {
+                final int expected = position < byPosition.length ? byPosition[position] : NONE;
+                position++;
+                if (target == null) continue;
+                if (expected != NONE && matches(gdb, target, expected) && unbound(target, expected)) {
+                    nodeIds.bind(expected, target);
+                    continue;
+                }
+                final Integer type = classIds.get(target.getClass().getName());
+                if (type == null || nodeIds.boundIdOf(target) != NONE) continue;
+                final Long key = key(type, fingerprint(gdb, target));
+                List<Object> candidates = moved.get(key);
+                if (candidates == null) {
+                    candidates = new ArrayList<Object>(1);
+                    moved.put(key, candidates);
+                }
+                candidates.add(target);
+            }
+            if (moved.isEmpty()) return;
+            for (int i = childOffsets[parentId]; i < childOffsets[parentId + 1]; i++) {
+                final int id = children[i];
+                if (field(id, SLOT) != slot || nodeIds.isBound(id)) continue;
+                final List<Object> candidates = moved.get(key(field(id, CLASS), field(id, FINGERPRINT)));
+                while (candidates != null && !candidates.isEmpty()) {
+                    final Object target = candidates.remove(candidates.size() - 1);
+                    if (unbound(target, id)) {
+                        nodeIds.bind(id, target);
+                        break;
+                    }
+                }
+            }
+        }
+
+        private Long key(int type, int fingerprint) {
+            return (long) type << 32 | (fingerprint & 0xFFFFFFFFL);
+        }
+
+        private void indexChildren() {
+            classIds = new HashMap<String, Integer>();
+            for (int type = 0; type < classNames.length; type++) {
+                classIds.put(classNames[type], type);
+            }
+            childOffsets = new int[nodeCount + 1];
+            for (int id = 0; id < nodeCount; id++) {
+                final int parent = field(id, PARENT);
+                if (parent != NONE) childOffsets[parent + 1]++;
+            }
+            for (int id = 0; id < nodeCount; id++) {
+                childOffsets[id + 1] += childOffsets[id];
+            }
+            children = new int[childOffsets[nodeCount]];
+            final int[] next = Arrays.copyOf(childOffsets, nodeCount);
+            for (int id = 0; id < nodeCount; id++) {
+                final int parent = field(id, PARENT);
+                if (parent != NONE) children[next[parent]++] = id;
+            }
+        }
+
+        private boolean unbound(Object target, int id) {
+            final long boundId = nodeIds.boundIdOf(target);
+            return boundId == NONE || boundId == id;
+        }
+
+        private IllegalStateException mismatch(int id) {
+            return new IllegalStateException("Object graph doesn't match the snapshot file at node " + id + " of " + classNames[field(id, CLASS)]);
+        }
+    }
+
+    private int field(int id, int field) {
+        return nodes.get(id * NODE_INTS + field);
+    }
+
+    private boolean matches(ObjectGraphDatabaseService gdb, Object value, int id) {
+        final int type = field(id, CLASS);
+        return value != null && type != NONE && value.getClass().getName().equals(classNames[type])
+                && fingerprint(gdb, value) == field(id, FINGERPRINT);
+    }
+
+    /**
+     * hash of the property values of JDK types, stable across processes as long as the values are equal
+     */
+    private static int fingerprint(ObjectGraphDatabaseService gdb, Object value) {
+        final ObjectGraphDatabaseService.MappingContext.MappingInfo info = gdb.getMappingInfo(value.getClass());
+        int hash = 1;
+        for (int slot = 0; slot < info.getPropertyCount(); slot++) {
+            hash = hash * 31 + valueHash(info.getPropertyAccessor(slot).get(value));
+        }
+        return hash;
+    }
+
+    private static int valueHash(Object value) {
+        if (value == null) return 0;
+        if (value instanceof Enum) return ((Enum<?>) value).name().hashCode();
+        if (value.getClass().isArray()) return Arrays.deepHashCode(new Object[]{value});
+        return value.getClass().getName().startsWith("java.") ? value.hashCode() : 0;
+    }
+
+    /**
+     * discovers the graph and writes it to a temporary file that then replaces the file
+     * @throws IllegalArgumentException for index values that can't be stored
+     */
+    static void write(ObjectGraphDatabaseService gdb, Object root, ObjectIndexManager indexManager, File file) throws IOException {
+        final int nodeCount = gdb.nodeCount();
+        final Map<String, Integer> classes = new LinkedHashMap<String, Integer>();
+        final int[] tree = spanningTree(gdb, nodeCount, classes);
+        final AdjacencySnapshot adjacency = AdjacencySnapshot.build(gdb);
+        final File temp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, root.getClass().getName());
+            out.writeInt(nodeCount);
+            out.writeInt(classes.size());
+            for (String className : classes.keySet()) {
+                writeString(out, className);
+            }
+            for (int value : tree) {
+                out.writeInt(value);
+            }
+            out.writeInt(adjacency.getTypes().size());
+            for (int type = 0; type < adjacency.getTypes().size(); type++) {
+                writeString(out, adjacency.getTypes().get(type).name());
+                writeInts(out, adjacency.offsets(type, Direction.OUTGOING));
+                final int[] targets = adjacency.targets(type, Direction.OUTGOING);
+                out.writeInt(targets.length);
+                writeInts(out, targets);
+            }
+            writeIndexes(out, gdb, indexManager);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            if (!file.delete() || !temp.renameTo(file)) throw new IOException("Can't replace " + file);
+        }
+    }
+
+    /**
+     * the first path to each node in a breadth first walk from the root, without registering new objects
+     */
+    private static int[] spanningTree(ObjectGraphDatabaseService gdb, int nodeCount, Map<String, Integer> classes) {
+        final int[] tree = new int[nodeCount * NODE_INTS];
+        Arrays.fill(tree, NONE);
+        if (nodeCount == 0) return tree;
+        final int[] queue = new int[nodeCount];
+        final BitSet visited = new BitSet(nodeCount);
+        visited.set(0);
+        int size = 1;
+        for (int head = 0; head < size; head++) {
+            final int id = queue[head];
+            final Object value = gdb.registeredValue(id);
+            if (value == null) continue;
+            final Integer known = classes.get(value.getClass().getName());
+            final int type = known != null ? known : classes.size();
+            if (known == null) classes.put(value.getClass().getName(), type);
+            tree[id * NODE_INTS + CLASS] = type;
+            tree[id * NODE_INTS + FINGERPRINT] = fingerprint(gdb, value);
+            final ObjectGraphDatabaseService.MappingContext.MappingInfo info = gdb.getMappingInfo(value.getClass());
+            final ObjectNode node = gdb.registeredNode(id);
+            final int relationshipCount = info.getRelationshipCount();
+            for (int slot = 0; slot < relationshipCount + info.getPropertyCount(); slot++) {
+                final Iterable<Object> targets;
+                if (slot < relationshipCount) {
+                    targets = Targets.targets(info.getRelationshipAccessor(slot).get(value));
+                } else {
+                    final FieldAccessor field = info.getPropertyAccessor(slot - relationshipCount);
+                    final Object target = field.get(value);
+                    targets = target != null && node.isEntity(field) ? Collections.singleton(target) : null;
+                }
+                if (targets == null) continue;
+                int position = 0;
+                for (Object target : targets) {
+                    final int targetPosition = position++;
+                    if (target == null) continue;
+                    final long targetId = gdb.registeredId(target);
+                    if (targetId < 0 || targetId >= nodeCount || visited.get((int) targetId)) continue;
+                    visited.set((int) targetId);
+                    queue[size++] = (int) targetId;
+                    tree[(int) targetId * NODE_INTS + PARENT] = id;
+                    tree[(int) targetId * NODE_INTS + SLOT] = slot;
+                    tree[(int) targetId * NODE_INTS + POSITION] = targetPosition;
+                }
+            }
+        }
+        return tree;
+    }
+
+    private static void writeIndexes(DataOutputStream out, ObjectGraphDatabaseService gdb, ObjectIndexManager indexManager) throws IOException {
+        final List<PostingsIndex> indexes = new ArrayList<PostingsIndex>();
+        for (String name : indexManager.nodeIndexNames()) {
+            final Index<Node> index = indexManager.forNodes(name);
+            if (index instanceof PostingsIndex) indexes.add((PostingsIndex) index);
+        }
+        out.writeInt(indexes.size());
+        for (PostingsIndex index : indexes) {
+            writeString(out, index.getName());
+            final Map<String, Map<Object, int[]>> properties = new LinkedHashMap<String, Map<Object, int[]>>();
+            for (String property : index.properties()) {
+                final Map<Object, int[]> postings = new LinkedHashMap<Object, int[]>(index.postings(property));
+                // array values are only found by identity, they can't be looked up again
+                for (Iterator<Object> it = postings.keySet().iterator(); it.hasNext(); ) {
+                    final Object key = it.next();
+                    if (key != null && key.getClass().isArray()) it.remove();
+                }
+                properties.put(property, postings);
+            }
+            out.writeInt(properties.size());
+            for (Map.Entry<String, Map<Object, int[]>> property : properties.entrySet()) {
+                writeString(out, property.getKey());
+                out.writeInt(property.getValue().size());
+                for (Map.Entry<Object, int[]> postings : property.getValue().entrySet()) {
+                    writeValue(out, gdb, postings.getKey());
+                    out.writeInt(postings.getValue().length);
+                    writeInts(out, postings.getValue());
+                }
+            }
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, ObjectGraphDatabaseService gdb, Object value) throws IOException {
+        final byte[] bytes = ValueCodec.encode(value, gdb, false);
+        if (bytes == null) throw new IllegalArgumentException("Can't store index value of type " + value.getClass().getName());
+        out.write(bytes);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = ValueCodec.utf8(value);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,126 @@
+package org.neo4j.wrapper;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The shapes of fields that hold the targets of relationships: collections and other iterables, object
+ * arrays and the values of maps. The targets are always accessed through views of the field value, arrays
+ * and maps are never copied. Arrays of primitives, strings and boxed values stay array properties.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+final class Targets {
+    private Targets() {
+    }
+
+    /**
+     * @return true if the field holds relationship targets
+     */
+    static boolean isTargetField(Field field) {
+        final Class<?> type = field.getType();
+        if (Iterable.class.isAssignableFrom(type)) return true;
+        if (type.isArray()) return !isValueType(type.getComponentType());
+        if (Map.class.isAssignableFrom(type)) return !isValueType(typeArgument(field.getGenericType(), 1));
+        return false;
+    }
+
+    /**
+     * primitives and JDK types other than Object are property values
+     */
+    private static boolean isValueType(Class<?> type) {
+        if (type == null || type == Object.class) return false;
+        if (type.isPrimitive() || type.isArray()) return true;
+        return type.getName().startsWith("java.");
+    }
+
+    /**
+     * @return a view of the targets in the field value, null if it holds none
+     */
+    @SuppressWarnings("unchecked")
+    static Iterable<Object> targets(Object fieldValue) {
+        if (fieldValue instanceof Iterable) return (Iterable<Object>) fieldValue;
+        if (fieldValue instanceof Object[]) return Arrays.asList((Object[]) fieldValue);
+        if (fieldValue instanceof Map) return ((Map<Object, Object>) fieldValue).values();
+        return null;
+    }
+
+    /**
+     * @return the number of targets in the field value
+     */
+    static int size(Object fieldValue) {
+        if (fieldValue instanceof Object[]) return ((Object[]) fieldValue).length;
+        if (fieldValue instanceof Collection) return ((Collection<?>) fieldValue).size();
+        if (fieldValue instanceof Map) return ((Map<?, ?>) fieldValue).size();
+        final Iterable<Object> targets = targets(fieldValue);
+        if (targets == null) return 0;
+        int size = 0;
+        for (Iterator<Object> it = targets.iterator(); it.hasNext(); it.next()) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @return the target at the position, indexed directly for arrays and random access lists
+     */
+    static Object elementAt(Object fieldValue, int position) {
+        if (fieldValue instanceof Object[]) {
+            final Object[] array = (Object[]) fieldValue;
+            return position < array.length ? array[position] : null;
+        }
+        if (fieldValue instanceof List && fieldValue instanceof RandomAccess) {
+            final List<?> list = (List<?>) fieldValue;
+            return position < list.size() ? list.get(position) : null;
+        }
+        final Iterable<Object> targets = targets(fieldValue);
+        if (targets == null) return null;
+        int i = 0;
+        for (Object target : targets) {
+            if (i++ == position) return target;
+        }
+        return null;
+    }
+
+    /**
+     * @return the declared type of the targets, Object if it is not known
+     */
+    static Class<?> elementType(Field field) {
+        final Class<?> type = field.getType();
+        if (type.isArray()) return type.getComponentType();
+        final Class<?> argument = typeArgument(field.getGenericType(), Map.class.isAssignableFrom(type) ? 1 : 0);
+        return argument == null ? Object.class : argument;
+    }
+
+    /**
+     * @param array the current targets or null
+     * @return a copy of the array with the target appended
+     */
+    static Object[] append(Object[] array, Class<?> componentType, Object target) {
+        if (array == null) array = (Object[]) Array.newInstance(componentType, 0);
+        final Object[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = target;
+        return result;
+    }
+
+    private static Class<?> typeArgument(Type genericType, int index) {
+        if (!(genericType instanceof ParameterizedType)) return null;
+        final Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+        if (index >= arguments.length) return null;
+        final Type argument = arguments[index];
+        if (argument instanceof Class) return (Class<?>) argument;
+        if (argument instanceof ParameterizedType) return (Class<?>) ((ParameterizedType) argument).getRawType();
+        if (argument instanceof GenericArrayType) return Object[].class;
+        return null;
+    }
+}
@@ -0,0 +1,141 @@
+package org.neo4j.wrapper;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * Binary encoding of index values: a type tag followed by the big endian value. Strings are stored as the
+ * length and the UTF-8 bytes, enums as their type and constant name, dates as milliseconds and objects of
+ * other non JDK types as the id of their node. Equal values of the same type have equal encodings.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+final class ValueCodec {
+    /**
+     * decoded node values whose object is not registered anymore
+     */
+    static final Object MISSING = new Object();
+
+    static final byte NULL = 0, STRING = 1, INTEGER = 2, LONG = 3, DOUBLE = 4, FLOAT = 5, SHORT = 6,
+            BYTE = 7, BOOLEAN = 8, CHARACTER = 9, ENUM = 10, DATE = 11, NODE = 12;
+
+    private ValueCodec() {
+    }
+
+    /**
+     * @param register true to register objects that don't have a node yet
+     * @return the encoded value or null for arrays, JDK types without an encoding and, if not registering, objects without a node
+     */
+    static byte[] encode(Object value, ObjectGraphDatabaseService gdb, boolean register) {
+        if (value == null) return new byte[]{NULL};
+        if (value instanceof String) return string((String) value);
+        if (value instanceof Integer) return ByteBuffer.allocate(5).put(INTEGER).putInt((Integer) value).array();
+        if (value instanceof Long) return ByteBuffer.allocate(9).put(LONG).putLong((Long) value).array();
+        if (value instanceof Double) return ByteBuffer.allocate(9).put(DOUBLE).putDouble((Double) value).array();
+        if (value instanceof Float) return ByteBuffer.allocate(5).put(FLOAT).putFloat((Float) value).array();
+        if (value instanceof Short) return ByteBuffer.allocate(3).put(SHORT).putShort((Short) value).array();
+        if (value instanceof Byte) return new byte[]{BYTE, (Byte) value};
+        if (value instanceof Boolean) return new byte[]{BOOLEAN, (byte) ((Boolean) value ? 1 : 0)};
+        if (value instanceof Character) return ByteBuffer.allocate(3).put(CHARACTER).putChar((Character) value).array();
+        if (value instanceof Enum) {
+            final byte[] type = utf8(((Enum<?>) value).getDeclaringClass().getName()), name = utf8(((Enum<?>) value).name());
+            return ByteBuffer.allocate(9 + type.length + name.length).put(ENUM)
+                    .putInt(type.length).put(type).putInt(name.length).put(name).array();
+        }
+        if (value instanceof Date) return ByteBuffer.allocate(9).put(DATE).putLong(((Date) value).getTime()).array();
+        if (value.getClass().isArray() || value.getClass().getName().startsWith("java.")) return null;
+        final long id = register ? gdb.nodeId(value) : gdb.registeredId(value);
+        if (id < 0) return null;
+        return ByteBuffer.allocate(5).put(NODE).putInt((int) id).array();
+    }
+
+    /**
+     * encodes ASCII strings without going through the charset
+     */
+    private static byte[] string(String value) {
+        final int length = value.length();
+        final byte[] bytes = new byte[5 + length];
+        bytes[0] = STRING;
+        bytes[1] = (byte) (length >>> 24);
+        bytes[2] = (byte) (length >>> 16);
+        bytes[3] = (byte) (length >>> 8);
+        bytes[4] = (byte) length;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x80) {
+                final byte[] utf8 = utf8(value);
+                return ByteBuffer.allocate(5 + utf8.length).put(STRING).putInt(utf8.length).put(utf8).array();
+            }
+            bytes[5 + i] = (byte) c;
+        }
+        return bytes;
+    }
+
+    /**
+     * reads a value at the position of the buffer and moves behind it
+     * @return the value, {@link #MISSING} for nodes of collected objects
+     */
+    static Object decode(ByteBuffer in, ObjectGraphDatabaseService gdb, ClassLoader classLoader) {
+        final byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case DOUBLE:
+                return in.getDouble();
+            case FLOAT:
+                return in.getFloat();
+            case SHORT:
+                return in.getShort();
+            case BYTE:
+                return in.get();
+            case BOOLEAN:
+                return in.get() != 0;
+            case CHARACTER:
+                return in.getChar();
+            case ENUM:
+                return enumValue(readString(in), readString(in), classLoader);
+            case DATE:
+                return new Date(in.getLong());
+            case NODE:
+                final Object value = gdb.registeredValue(in.getInt());
+                return value == null ? MISSING : value;
+            default:
+                throw new IllegalStateException("Unknown value tag " + tag);
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object enumValue(String className, String name, ClassLoader classLoader) {
+        try {
+            return Enum.valueOf((Class<Enum>) Class.forName(className, true, classLoader), name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Enum type of index value not found " + className, e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.neo4j.wrapper;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node properties that are not backed by fields, like the results of {@link GraphAlgorithms}. Each
+ * property is a column indexed by node id, an {@code int[]} or {@code double[]} that is replaced as a whole.
+ * Fields of the same name take precedence.
+ *
+ * @author mh
+ * @since 17.10.26
+ */
+class VirtualProperties {
+    private final ConcurrentMap<String, Object> columns = new ConcurrentHashMap<String, Object>();
+
+    void put(String name, int[] values) {
+        columns.put(name, values);
+    }
+
+    void put(String name, double[] values) {
+        columns.put(name, values);
+    }
+
+    void remove(String name) {
+        columns.remove(name);
+    }
+
+    boolean isEmpty() {
+        return columns.isEmpty();
+    }
+
+    Set<String> names() {
+        return columns.keySet();
+    }
+
+    /**
+     * @return the boxed value of the node or null if it has none
+     */
+    Object get(String name, long id) {
+        final Object column = columns.get(name);
+        if (column instanceof int[]) {
+            final int[] values = (int[]) column;
+            return id < values.length ? values[(int) id] : null;
+        }
+        if (column instanceof double[]) {
+            final double[] values = (double[]) column;
+            return id < values.length ? values[(int) id] : null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,154 @@
+package org.neo4j.wrapper;
+
+import org.junit.Test;
+import org.neo4j.wrapper.ObjectGraphDatabaseService.MappingContext;
+import org.neo4j.wrapper.ObjectGraphDatabaseService.MappingContext.MappingInfo;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author mh
+ * @since 17.10.26
+ */
+public class MappingContextTest {
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 200;
+
+    static class Person {
+        private String name;
+        private int age;
+        private Collection<Person> friends = new ArrayList<Person>();
+    }
+
+    static class Manager extends Person {
+        private String name;
+        private int level;
+        private List<Person> reports = new ArrayList<Person>();
+    }
+
+    static class Company {
+        private String name;
+        private double revenue;
+        private List<Person> employees = new ArrayList<Person>();
+        private Set<Company> partners = new HashSet<Company>();
+    }
+
+    static class Address {
+        private String street;
+        private long zip;
+        private boolean verified;
+    }
+
+    static class Team {
+        private String name;
+        private int size;
+        private Set<Person> members = new HashSet<Person>();
+    }
+
+    static class Project {
+        private String title;
+        private long budget;
+        private boolean active;
+        private Team team;
+        private List<Project> dependencies = new ArrayList<Project>();
+    }
+
+    static class Invoice {
+        private String number;
+        private double amount;
+        private Date issued;
+        private Company customer;
+    }
+
+    static class Meeting {
+        private String topic;
+        private long start;
+        private Person[] attendees;
+        private Map<String, Person> roles = new HashMap<String, Person>();
+    }
+
+    static class Office {
+        private String city;
+        private int floors;
+        private Address address;
+        private Collection<Team> teams = new ArrayList<Team>();
+    }
+
+    private List<Class<?>> createTypes() {
+        return Arrays.<Class<?>>asList(Person.class, Company.class, Address.class, Team.class,
+                Project.class, Invoice.class, Meeting.class, Office.class);
+    }
+
+    @Test
+    public void testConcurrentMappingIsComputedOnce() throws Exception {
+        final List<Class<?>> types = createTypes();
+        final MappingContext context = new MappingContext();
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        final List<Future<Map<Class<?>, MappingInfo>>> results =
+                new ArrayList<Future<Map<Class<?>, MappingInfo>>>();
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            results.add(pool.submit(new Callable<Map<Class<?>, MappingInfo>>() {
+                @Override
+                public Map<Class<?>, MappingInfo> call() throws Exception {
+                    final Map<Class<?>, MappingInfo> seen = new HashMap<Class<?>, MappingInfo>();
+                    start.await();
+                    for (int round = 0; round < ROUNDS; round++) {
+                        for (int i = 0; i < types.size(); i++) {
+                            final Class<?> type = types.get((i + offset * round) % types.size());
+                            final MappingInfo info = context.getInfo(type);
+                            info.getPropertyFields().size();
+                            info.getRelationshipFields().size();
+                            final MappingInfo previous = seen.put(type, info);
+                            if (previous != null && previous != info) throw new IllegalStateException("Mapping for " + type + " computed twice");
+                        }
+                    }
+                    return seen;
+                }
+            }));
+        }
+        final Map<Class<?>, MappingInfo> first = results.get(0).get(30, TimeUnit.SECONDS);
+        for (Future<Map<Class<?>, MappingInfo>> result : results) {
+            final Map<Class<?>, MappingInfo> infos = result.get(30, TimeUnit.SECONDS);
+            assertEquals(types.size(), infos.size());
+            for (Class<?> type : types) {
+                assertSame(first.get(type), infos.get(type));
+            }
+        }
+        pool.shutdown();
+        for (Class<?> type : types) {
+            assertEquals(type.getDeclaredFields().length, context.getInfo(type).getPropertyFields().size() + context.getInfo(type).getRelationshipFields().size());
+        }
+    }
+
+    @Test
+    public void testMappingSplitsPropertiesAndRelationships() throws Exception {
+        final MappingInfo info = new MappingContext().getInfo(Company.class);
+        assertEquals(new HashSet<String>(Arrays.asList("name", "revenue")), info.getPropertyFields().keySet());
+        assertEquals(new HashSet<String>(Arrays.asList("employees", "partners")), info.getRelationshipFields().keySet());
+        final Field revenue = Company.class.getDeclaredField("revenue");
+        assertEquals(revenue, info.getPropertyFields().get("revenue").getField());
+    }
+
+    @Test
+    public void testMappingIncludesSuperclassFields() throws Exception {
+        final MappingContext context = new MappingContext();
+        final MappingInfo person = context.getInfo(Person.class);
+        final MappingInfo manager = context.getInfo(Manager.class);
+        assertEquals(new HashSet<String>(Arrays.asList("name", "age", "level")), manager.getPropertyFields().keySet());
+        assertEquals(new HashSet<String>(Arrays.asList("friends", "reports")), manager.getRelationshipFields().keySet());
+        for (int slot = 0; slot < person.getPropertyCount(); slot++) {
+            assertEquals(person.getPropertyAccessor(slot).getName(), manager.getPropertyAccessor(slot).getName());
+        }
+        assertEquals(person.getRelationshipSlot("friends"), manager.getRelationshipSlot("friends"));
+        assertEquals(Manager.class.getDeclaredField("name"), manager.getPropertyAccessor(manager.getPropertySlot("name")).getField());
+        assertSame(person.getPropertyAccessor(person.getPropertySlot("age")), manager.getPropertyAccessor(manager.getPropertySlot("age")));
+        assertEquals(-1, manager.getPropertySlot("friends"));
+    }
+}
@@ -7,15 +7,36 @@ import org.neo4j.cypher.javacompat.ExecutionResult;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ReturnableEvaluator;
+import org.neo4j.graphdb.StopEvaluator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.graphdb.Traverser;
+import org.neo4j.graphdb.index.AutoIndexer;
 import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.index.ReadableIndex;
+import org.neo4j.graphdb.index.RelationshipIndex;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.graphdb.traversal.TraversalDescription;
 import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.Traversal;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
 import static org.neo4j.helpers.collection.MapUtil.map;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
 
 /**
  * @author mh
@@ -67,6 +88,38 @@ public class ObjectGraphWrapperTest {
             return "@"+twid;
         }
     }
+    static class VerifiedUser extends User {
+        private boolean verified = true;
+
+        VerifiedUser(String twid) {
+            super(twid);
+        }
+    }
+    static class Board {
+        private String name = "board";
+        private Tag[] pinned;
+        private Map<String, Tweet> byText = new LinkedHashMap<String, Tweet>();
+        private long[] scores = {3, 1, 4};
+        private String[] labels = {"a", "b"};
+    }
+    static class City {
+        private String name;
+        private double toll;
+        private Collection<City> roads = new ArrayList<City>();
+
+        City(String name, double toll) {
+            this.name = name;
+            this.toll = toll;
+        }
+
+        City road(City... cities) {
+            roads.addAll(asList(cities));
+            return this;
+        }
+    }
+    static class Counter {
+        private volatile long count;
+    }
     static class Tag {
         private String name;
         private Collection<Tweet> tagged = new HashSet<Tweet>();
@@ -164,29 +217,330 @@ public class ObjectGraphWrapperTest {
     @Test
     public void testGetReferenceNode() {
         final ObjectNode root = gdb.getReferenceNode();
-        assertEquals(System.identityHashCode(user), root.getId());
+        assertEquals(0, root.getId());
         assertEquals(user, root.getValue());
     }
 
     @Test
     public void testGetNodeById() {
-        final int id = System.identityHashCode(tweet1);
+        final long id = gdb.createNode(tweet1).getId();
         final ObjectNode node = gdb.getNodeById(id);
         assertEquals(tweet1, node.getValue());
     }
 
+    @Test
+    public void testGetRelationshipById() {
+        final Set<Long> ids = new HashSet<Long>();
+        for (Node node : gdb.getAllNodes()) {
+            for (Relationship relationship : node.getRelationships(Direction.OUTGOING)) {
+                assertTrue("unique id " + relationship.getId(), ids.add(relationship.getId()));
+                final Relationship found = gdb.getRelationshipById(relationship.getId());
+                assertEquals(relationship, found);
+                assertEquals(relationship.getType().name(), found.getType().name());
+                assertEquals(((ObjectNode) relationship.getEndNode()).getValue(), ((ObjectNode) found.getEndNode()).getValue());
+            }
+        }
+        assertEquals(4 + 5 + 5, ids.size());
+    }
+
+    @Test
+    public void testCreatedRelationshipId() {
+        final Tweet tweet5 = new Tweet("tweet5", user);
+        final Relationship relationship = gdb.createNode(user).createRelationshipTo(gdb.createNode(tweet5), DynamicRelationshipType.withName("tweeted"));
+        assertEquals(tweet5, ((ObjectNode) gdb.getRelationshipById(relationship.getId()).getEndNode()).getValue());
+        final Relationship author = gdb.createNode(tweet5).getSingleRelationship(DynamicRelationshipType.withName("tweeted"), Direction.OUTGOING);
+        assertEquals(user, ((ObjectNode) gdb.getRelationshipById(author.getId()).getEndNode()).getValue());
+    }
+
+    @Test
+    public void testRelationshipEqualityDoesNotNeedTheId() {
+        final RelationshipType tweeted = DynamicRelationshipType.withName("tweeted");
+        final ObjectNode userNode = gdb.createNode(user);
+        final Tweet tweet5 = new Tweet("tweet5", user);
+        final Relationship created = userNode.createRelationshipTo(gdb.createNode(tweet5), tweeted);
+        final Relationship expanded = IteratorUtil.last(userNode.getRelationships(tweeted, Direction.OUTGOING));
+        assertEquals(created, expanded);
+        assertEquals(created.hashCode(), expanded.hashCode());
+        user.tweeted.remove(tweet5);
+        assertEquals(created, new HashSet<Relationship>(asList(expanded)).iterator().next());
+        final ObjectRelationship beyondIdRange = new ObjectRelationship(userNode, tweeted, gdb.createNode(tweet1), gdb, 0, ObjectRelationship.MAX_POSITION + 1);
+        assertEquals(new ObjectRelationship(userNode, tweeted, gdb.createNode(tweet1), gdb, 0, ObjectRelationship.MAX_POSITION + 1), beyondIdRange);
+        assertEquals(new ObjectRelationship(userNode, tweeted, gdb.createNode(tweet1), gdb), beyondIdRange);
+        try {
+            beyondIdRange.getId();
+            fail("Position doesn't fit into a relationship id");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testParallelRelationshipsAreDistinct() {
+        final RelationshipType tweeted = DynamicRelationshipType.withName("tweeted");
+        final ObjectNode userNode = gdb.createNode(user);
+        user.tweeted.add(tweet1);
+        final List<Relationship> relationships = IteratorUtil.addToCollection(userNode.getRelationships(tweeted, Direction.OUTGOING), new ArrayList<Relationship>());
+        final Relationship first = relationships.get(0), parallel = relationships.get(4);
+        assertEquals(first.getEndNode(), parallel.getEndNode());
+        assertFalse(first.equals(parallel));
+        assertEquals(5, new HashSet<Relationship>(relationships).size());
+        assertEquals(parallel, gdb.getRelationshipById(parallel.getId()));
+        assertFalse(first.equals(gdb.getRelationshipById(parallel.getId())));
+        assertEquals(first, new ObjectRelationship(userNode, tweeted, (ObjectNode) first.getEndNode(), gdb));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testUnknownRelationshipId() {
+        gdb.getRelationshipById(ObjectRelationship.toId(0, 0, 100));
+    }
+
+    @Test
+    public void testNodeIdsAreDense() {
+        final Set<Long> ids = new HashSet<Long>();
+        for (Node node : gdb.getAllNodes()) {
+            assertTrue("unique id " + node.getId(), ids.add(node.getId()));
+        }
+        assertEquals(7, ids.size());
+        for (long id = 0; id < ids.size(); id++) {
+            assertTrue("dense id " + id, ids.contains(id));
+        }
+    }
+
+    @Test
+    public void testLazyDiscovery() {
+        final ObjectGraphDatabaseService lazy = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.DISCOVERY, "lazy"));
+        assertFalse(lazy.isDiscoveryComplete());
+        assertEquals(user, lazy.getNodeById(0).getValue());
+        assertNotNull(lazy.getNodeById(5));
+        assertEquals(7, IteratorUtil.count(lazy.getAllNodes()));
+        assertTrue(lazy.isDiscoveryComplete());
+    }
+
+    @Test
+    public void testLazyDiscoveryIndexesBeforeLookup() {
+        final ObjectGraphDatabaseService lazy = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.DISCOVERY, "lazy"));
+        final Node hit = lazy.index().forNodes(lazy.indexName(Tag.class)).get("name", "graphdb").getSingle();
+        assertEquals(graphdb, ((ObjectNode) hit).getValue());
+    }
+
+    @Test
+    public void testParallelDiscovery() {
+        final Tag[] tags = new Tag[50];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = new Tag("tag" + i);
+        }
+        for (int i = 0; i < 2000; i++) {
+            user.tweet("tweet" + i, tags[i % tags.length], tags[(i * 7) % tags.length]);
+        }
+        final ObjectGraphDatabaseService parallel = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.DISCOVERY_THREADS, "4"));
+        assertEquals(1 + 2004 + 52, IteratorUtil.count(parallel.getAllNodes()));
+        final Index<Node> tagIndex = parallel.index().forNodes(parallel.indexName(Tag.class));
+        for (Tag tag : tags) {
+            assertEquals(tag, ((ObjectNode) tagIndex.get("name", tag.name).getSingle()).getValue());
+        }
+        assertEquals(2004, parallel.index().forNodes(parallel.indexName(Tweet.class)).get("tweeted", user).size());
+    }
+
+    @Test
+    public void testIncomingRelationshipsNeedReverseIndex() {
+        assertFalse(gdb.createNode(tweet1).hasRelationship(Direction.INCOMING));
+    }
+
+    @Test
+    public void testIncomingRelationships() {
+        final ObjectGraphDatabaseService reverse = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.REVERSE_INDEX, "true"));
+        final ObjectNode tweetNode = reverse.createNode(tweet2);
+        final Iterable<Relationship> tagged = tweetNode.getRelationships(Direction.INCOMING, DynamicRelationshipType.withName("tagged"));
+        assertEquals(new HashSet<Object>(asList(neo4j, graphdb)), IteratorUtil.addToCollection(tweetNode.getEndNodeObjects(tagged), new HashSet<Object>()));
+        final Relationship tweeted = tweetNode.getSingleRelationship(DynamicRelationshipType.withName("tweeted"), Direction.INCOMING);
+        assertEquals(user, ((ObjectNode) tweeted.getStartNode()).getValue());
+        assertEquals(5, IteratorUtil.count(tweetNode.getRelationships(Direction.BOTH)));
+    }
+
+    @Test
+    public void testCreateRelationshipUpdatesReverseIndex() {
+        final ObjectGraphDatabaseService reverse = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.REVERSE_INDEX, "true"));
+        final ObjectNode tweetNode = reverse.createNode(tweet3);
+        reverse.createNode(neo4j).createRelationshipTo(tweetNode, DynamicRelationshipType.withName("tagged"));
+        final Iterable<Relationship> tagged = tweetNode.getRelationships(DynamicRelationshipType.withName("tagged"), Direction.INCOMING);
+        assertEquals(new HashSet<Object>(asList(neo4j, graphdb)), IteratorUtil.addToCollection(tweetNode.getEndNodeObjects(tagged), new HashSet<Object>()));
+    }
+
+    @Test
+    public void testCypherIncomingMatchQuery() {
+        final ObjectGraphDatabaseService reverse = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.REVERSE_INDEX, "true"));
+        final String query = "start tag=node:Tag(name={name}) match tag<-[:tagged]-tweet<-[:tweeted]-user return distinct user";
+        final ExecutionResult result = new ExecutionEngine(reverse).execute(query, map("name", "graphdb"));
+        Iterator<Object> users = reverse.getNodeValues(result.<Node>columnAs("user"));
+        assertEquals(asList(user), IteratorUtil.addToCollection(users, new ArrayList()));
+    }
+
+    @Test
+    public void testWeakNodesAreEvicted() throws Exception {
+        final ObjectGraphDatabaseService weak = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.DISCOVERY, "lazy", ObjectGraphConfig.NODE_REFERENCES, "weak"));
+        final long rootId = weak.getReferenceNode().getId();
+        final long id = weak.createNode(new Tag("discarded")).getId();
+        for (int i = 0; i < 50 && weak.getNodeById(id) != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(weak.getNodeById(id));
+        assertEquals(user, weak.getNodeById(rootId).getValue());
+        final long next = weak.createNode(new Tag("new")).getId();
+        assertTrue("ids are not reused", next > id);
+    }
+
+    @Test
+    public void testWeakNodesStayCanonicalWhileReferenced() {
+        final ObjectGraphDatabaseService weak = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.NODE_REFERENCES, "weak"));
+        final long id = weak.createNode(tweet3).getId();
+        System.gc();
+        assertEquals(id, weak.createNode(tweet3).getId());
+        assertEquals(tweet3, weak.getNodeById(id).getValue());
+        assertEquals(7, IteratorUtil.count(weak.getAllNodes()));
+    }
+
+    @Test
+    public void testWeakRegistryKeepsLiveEntriesAfterEviction() throws Exception {
+        final NodeIdRegistry registry = new NodeIdRegistry(gdb, NodeIdRegistry.References.WEAK);
+        final List<Object> alive = new ArrayList<Object>();
+        final long[] ids = new long[5000];
+        for (int i = 0; i < 10000; i++) {
+            final Object value = new Object();
+            final long id = registry.register(value);
+            if (i % 2 == 0) {
+                alive.add(value);
+                ids[i / 2] = id;
+            }
+        }
+        for (int i = 0; i < 50 && registry.get(1) != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        registry.expungeEvicted();
+        assertNull(registry.get(1));
+        for (int i = 0; i < alive.size(); i++) {
+            assertEquals(ids[i], registry.idOf(alive.get(i)));
+            assertSame(alive.get(i), registry.get(ids[i]));
+        }
+    }
+
+    @Test
+    public void testRegistryDoesNotCollideOnEqualObjects() {
+        final NodeIdRegistry registry = new NodeIdRegistry(gdb);
+        final long first = registry.register(new Tag("neo"));
+        final long second = registry.register(new Tag("neo"));
+        assertEquals(0, first);
+        assertEquals(1, second);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i + 2, registry.register(new Object()));
+        }
+        assertEquals(10002, registry.size());
+    }
+
     @Test
     public void testGetProperty() {
         final Node root = gdb.createNode(user);
         assertEquals(user.twid, root.getProperty("twid"));
     }
 
+    @Test
+    public void testPrimitiveProperty() {
+        final ObjectNode tweetNode = gdb.createNode(tweet1);
+        assertEquals(tweet1.date, tweetNode.getProperty("date"));
+        assertEquals(tweet1.date, tweetNode.getLongProperty("date"));
+        assertEquals((double) tweet1.date, tweetNode.getDoubleProperty("date"), 0);
+        tweetNode.setProperty("date", 42L);
+        assertEquals(42L, tweet1.date);
+        tweetNode.setProperty("text", "changed");
+        assertEquals("changed", tweet1.text);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetPropertyWithWrongType() {
+        gdb.createNode(tweet1).setProperty("text", 42L);
+    }
+
+    @Test
+    public void testReflectionAccessorFallback() throws Exception {
+        final FieldAccessor accessor = new FieldAccessor.ReflectionAccessor(Tweet.class.getDeclaredField("date"));
+        assertEquals(tweet1.date, accessor.getLong(tweet1));
+        assertEquals(tweet1.date, accessor.get(tweet1));
+    }
+
+    @Test
+    public void testUnsafeAccessorChecksTarget() throws Exception {
+        final FieldAccessor date = FieldAccessor.create(Tweet.class.getDeclaredField("date"));
+        assertTrue(date instanceof FieldAccessor.UnsafeAccessor);
+        try {
+            date.getLong(neo4j);
+            fail("Read of a field of another type");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            date.set(null, 1L);
+            fail("Write to a null target");
+        } catch (NullPointerException expected) {
+        }
+        assertTrue(FieldAccessor.create(Counter.class.getDeclaredField("count")) instanceof FieldAccessor.ReflectionAccessor);
+    }
+
+    @Test
+    public void testInheritedFields() {
+        final VerifiedUser verified = new VerifiedUser("verified");
+        final Tweet tweet = verified.tweet("tweet5", neo4j);
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(verified);
+        final ObjectNode node = gdb.getReferenceNode();
+        assertEquals("verified", node.getProperty("twid"));
+        assertEquals(true, node.getProperty("verified"));
+        assertEquals(node.getProperty("twid"), node.getPropertyAt(node.propertySlot("twid")));
+        assertEquals(-1, node.propertySlot("unknown"));
+        assertEquals(asList(tweet), IteratorUtil.addToCollection(node.getEndNodeObjects(node.getRelationships(Direction.OUTGOING, DynamicRelationshipType.withName("tweeted"))), new ArrayList<Object>()));
+        assertEquals(node, gdb.index().forNodes(gdb.indexName(VerifiedUser.class)).get("twid", "verified").getSingle());
+    }
+
+    @Test
+    public void testArrayAndMapRelationships() {
+        final Board board = new Board();
+        board.pinned = new Tag[]{neo4j};
+        board.byText.put("tweet1", tweet1);
+        board.byText.put("tweet2", tweet2);
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(board);
+        final ObjectNode node = gdb.getReferenceNode();
+        assertEquals(asList(neo4j), IteratorUtil.addToCollection(node.getEndNodeObjects(node.getRelationships(Direction.OUTGOING, DynamicRelationshipType.withName("pinned"))), new ArrayList<Object>()));
+        assertEquals(asList(tweet1, tweet2), IteratorUtil.addToCollection(node.getEndNodeObjects(node.getRelationships(Direction.OUTGOING, DynamicRelationshipType.withName("byText"))), new ArrayList<Object>()));
+        assertSame(board.scores, node.getProperty("scores"));
+        assertSame(board.labels, node.getProperty("labels"));
+        assertFalse(node.hasProperty("pinned"));
+        node.createRelationshipTo(gdb.createNode(graphdb), DynamicRelationshipType.withName("pinned"));
+        assertEquals(asList(neo4j, graphdb), asList(board.pinned));
+        for (Relationship relationship : node.getRelationships(Direction.OUTGOING)) {
+            assertEquals(relationship.getEndNode(), gdb.getRelationshipById(relationship.getId()).getEndNode());
+        }
+        assertEquals(graphdb, ((ObjectNode) gdb.index().forNodes(gdb.indexName(Tag.class)).get("name", "graphdb").getSingle()).getValue());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCantAddToMapRelationship() {
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(new Board());
+        gdb.getReferenceNode().createRelationshipTo(gdb.createNode(tweet1), DynamicRelationshipType.withName("byText"));
+    }
+
     @Test
     public void testGetRelationship() {
         final Node tweetNode = gdb.createNode(tweet1);
         assertEquals(gdb.createNode(user), tweetNode.getSingleRelationship(DynamicRelationshipType.withName("tweeted"), Direction.OUTGOING).getEndNode());
     }
 
+    @Test
+    public void testExpansionReusesCanonicalNodes() {
+        final ObjectNode userNode = gdb.createNode(user);
+        assertSame(userNode, gdb.getReferenceNode());
+        final Relationship first = userNode.getRelationships(Direction.OUTGOING).iterator().next();
+        assertSame(gdb.createNode(tweet1), first.getEndNode());
+        final Relationship again = userNode.getRelationships(Direction.OUTGOING, DynamicRelationshipType.withName("tweeted")).iterator().next();
+        assertSame(first.getType(), again.getType());
+    }
+
     @Test
     public void testGetRelationshipsByDirection() {
         final ObjectNode tweetNode = gdb.createNode(user);
@@ -202,6 +556,282 @@ public class ObjectGraphWrapperTest {
         assertEquals(allTweets, IteratorUtil.asCollection(tweets));
     }
 
+    @Test
+    public void testTraversalDescription() {
+        final RelationshipType tweeted = DynamicRelationshipType.withName("tweeted");
+        final RelationshipType tagged = DynamicRelationshipType.withName("tagged");
+        final ObjectNode userNode = gdb.createNode(user);
+        final TraversalDescription description = gdb.traversalDescription().breadthFirst().relationships(tweeted, Direction.OUTGOING).relationships(tagged, Direction.OUTGOING);
+        final List<Object> values = nodeValues(description.traverse(userNode).nodes().iterator());
+        assertEquals(asList(user, tweet1, tweet2, tweet3, tweet4), values.subList(0, 5));
+        assertEquals(new HashSet<Object>(asList(neo4j, graphdb)), new HashSet<Object>(values.subList(5, 7)));
+        final TraversalDescription framework = Traversal.description().breadthFirst().relationships(tweeted, Direction.OUTGOING).relationships(tagged, Direction.OUTGOING);
+        assertEquals(new HashSet<Object>(nodeValues(framework.traverse(userNode).nodes().iterator())), new HashSet<Object>(values));
+        assertEquals(5, IteratorUtil.count(gdb.traversalDescription().relationships(tweeted, Direction.OUTGOING).relationships(tagged, Direction.OUTGOING).toDepth(1).traverse(userNode).nodes()));
+        assertEquals(7, IteratorUtil.count(description.depthFirst().traverse(userNode).nodes()));
+    }
+
+    @Test
+    public void testTraversalPaths() {
+        final RelationshipType tagged = DynamicRelationshipType.withName("tagged");
+        final TraversalDescription description = gdb.traversalDescription().relationships(DynamicRelationshipType.withName("tweeted"), Direction.OUTGOING)
+                .relationships(tagged, Direction.OUTGOING).evaluator(Evaluators.atDepth(2));
+        final Set<Object> tags = new HashSet<Object>();
+        for (Path path : description.traverse(gdb.createNode(user))) {
+            assertEquals(2, path.length());
+            assertEquals(gdb.createNode(user), path.startNode());
+            assertEquals(tagged.name(), path.lastRelationship().getType().name());
+            assertEquals(path.endNode(), path.lastRelationship().getEndNode());
+            assertEquals(3, IteratorUtil.count(path.nodes()));
+            tags.add(((ObjectNode) path.endNode()).getValue());
+        }
+        assertEquals(new HashSet<Object>(asList(neo4j, graphdb)), tags);
+    }
+
+    @Test
+    public void testIncomingTraversal() {
+        final ObjectGraphDatabaseService reverse = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.REVERSE_INDEX, "true"));
+        final ObjectNode tagNode = reverse.createNode(graphdb);
+        final Set<Object> tweets = new HashSet<Object>();
+        for (Relationship relationship : reverse.traversalDescription().relationships(DynamicRelationshipType.withName("tagged"), Direction.INCOMING).toDepth(1).traverse(tagNode).relationships()) {
+            assertEquals(tagNode, relationship.getEndNode());
+            tweets.add(((ObjectNode) relationship.getStartNode()).getValue());
+        }
+        assertEquals(new HashSet<Object>(asList(tweet2, tweet3, tweet4)), tweets);
+    }
+
+    @Test
+    public void testLegacyTraverse() {
+        final ObjectNode userNode = gdb.createNode(user);
+        final Traverser traverser = userNode.traverse(Traverser.Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL_BUT_START_NODE,
+                DynamicRelationshipType.withName("tweeted"), Direction.OUTGOING, DynamicRelationshipType.withName("tagged"), Direction.OUTGOING);
+        final Node first = traverser.iterator().next();
+        assertEquals(tweet1, ((ObjectNode) first).getValue());
+        assertEquals(1, traverser.currentPosition().depth());
+        assertEquals(userNode, traverser.currentPosition().previousNode());
+        assertEquals(5, traverser.getAllNodes().size());
+        final Traverser depthOne = userNode.traverse(Traverser.Order.DEPTH_FIRST, StopEvaluator.DEPTH_ONE, ReturnableEvaluator.ALL, DynamicRelationshipType.withName("tweeted"), Direction.OUTGOING);
+        assertEquals(5, depthOne.getAllNodes().size());
+    }
+
+    @Test
+    public void testParallelTraversalLevels() {
+        final ParallelTraversal traversal = gdb.parallelTraversal().relationships(DynamicRelationshipType.withName("tweeted"), Direction.OUTGOING)
+                .relationships(DynamicRelationshipType.withName("tagged"), Direction.OUTGOING);
+        final ObjectNode userNode = gdb.createNode(user);
+        final List<Set<Object>> levels = new ArrayList<Set<Object>>();
+        for (ParallelTraversal.Level level : traversal.levels(userNode)) {
+            assertEquals(levels.size(), level.getDepth());
+            levels.add(new HashSet<Object>(nodeValues(level.nodes().iterator())));
+        }
+        assertEquals(asList(Collections.<Object>singleton(user), new HashSet<Object>(allTweets), new HashSet<Object>(asList(neo4j, graphdb))), levels);
+        assertEquals(7, traversal.countReachable(userNode));
+        assertEquals(5, traversal.neighbourhood(userNode, 1).size());
+        assertEquals(2, traversal.shortestHops(userNode, gdb.createNode(graphdb)));
+        assertEquals(2, traversal.shortestHops(gdb.createNode(graphdb), userNode));
+        assertEquals(-1, traversal.toDepth(1).shortestHops(userNode, gdb.createNode(graphdb)));
+    }
+
+    @Test
+    public void testParallelTraversalOfLargeFrontier() {
+        final User fan = new User("fan");
+        final Tag[] tags = new Tag[10];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = new Tag("tag" + i);
+        }
+        for (int i = 0; i < 2000; i++) {
+            fan.tweet("tweet " + i, tags[i % tags.length]);
+        }
+        final ObjectGraphDatabaseService fanGdb = new ObjectGraphDatabaseService(fan, stringMap(ObjectGraphConfig.TRAVERSAL_THREADS, "4"));
+        try {
+            final ParallelTraversal traversal = fanGdb.parallelTraversal().relationships(DynamicRelationshipType.withName("tweeted"), Direction.OUTGOING)
+                    .relationships(DynamicRelationshipType.withName("tagged"), Direction.OUTGOING);
+            final ObjectNode fanNode = fanGdb.createNode(fan);
+            assertEquals(2011, traversal.countReachable(fanNode));
+            assertEquals(2001, traversal.toDepth(1).countReachable(fanNode));
+            assertEquals(2, traversal.shortestHops(fanNode, fanGdb.createNode(tags[3])));
+        } finally {
+            fanGdb.shutdown();
+        }
+    }
+
+    @Test
+    public void testAdjacencySnapshot() {
+        final RelationshipType tweeted = DynamicRelationshipType.withName("tweeted"), tagged = DynamicRelationshipType.withName("tagged");
+        final AdjacencySnapshot snapshot = gdb.snapshot(tweeted, tagged);
+        assertEquals(asList(tweeted, tagged), snapshot.getTypes());
+        final int userId = (int) gdb.createNode(user).getId(), tagId = (int) gdb.createNode(graphdb).getId();
+        final int[] offsets = snapshot.offsets(0, Direction.OUTGOING), targets = snapshot.targets(0, Direction.OUTGOING);
+        final Set<Object> tweets = new HashSet<Object>();
+        for (int i = offsets[userId]; i < offsets[userId + 1]; i++) {
+            tweets.add(((ObjectNode) snapshot.node(targets[i])).getValue());
+        }
+        assertEquals(new HashSet<Object>(allTweets), tweets);
+        assertEquals(3, snapshot.degree(tagId, Direction.OUTGOING));
+        assertEquals(3, snapshot.offsets(1, Direction.INCOMING)[tagId + 1] - snapshot.offsets(1, Direction.INCOMING)[tagId]);
+        assertEquals(4, snapshot.degree(userId, Direction.INCOMING));
+        assertEquals(7, snapshot.breadthFirst(userId, Direction.OUTGOING, Integer.MAX_VALUE).length);
+        assertEquals(5, snapshot.breadthFirst(userId, Direction.OUTGOING, 1).length);
+        assertEquals(-1, snapshot.typeIndex(DynamicRelationshipType.withName("follows")));
+    }
+
+    @Test
+    public void testParallelSnapshotOfLargeGraph() {
+        final User fan = new User("fan");
+        final Tag[] tags = new Tag[10];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = new Tag("tag" + i);
+        }
+        for (int i = 0; i < 2000; i++) {
+            tags[i % tags.length].addTweet(fan.tweet("tweet " + i, tags[i % tags.length]));
+        }
+        final ObjectGraphDatabaseService fanGdb = new ObjectGraphDatabaseService(fan, stringMap(ObjectGraphConfig.TRAVERSAL_THREADS, "4"));
+        try {
+            final AdjacencySnapshot snapshot = fanGdb.snapshot();
+            assertEquals(2011, snapshot.getNodeCount());
+            assertEquals(6000, snapshot.getRelationshipCount());
+            assertEquals(8L * 6000 + 4L * 2 * snapshot.getTypes().size() * 2012, snapshot.sizeInBytes());
+            final int tagId = (int) fanGdb.createNode(tags[3]).getId();
+            final int type = snapshot.typeIndex(DynamicRelationshipType.withName("tagged"));
+            final int[] offsets = snapshot.offsets(type, Direction.INCOMING), sources = snapshot.targets(type, Direction.INCOMING);
+            assertEquals(200, offsets[tagId + 1] - offsets[tagId]);
+            for (int i = offsets[tagId] + 1; i < offsets[tagId + 1]; i++) {
+                assertTrue(sources[i - 1] < sources[i]);
+            }
+            assertEquals(400, snapshot.degree(tagId, Direction.BOTH));
+            assertEquals(8000, fanGdb.snapshot(DynamicRelationshipType.withName("tweeted"), DynamicRelationshipType.withName("tagged")).getRelationshipCount());
+            for (int component : snapshot.algorithms().connectedComponents(null)) {
+                assertEquals(0, component);
+            }
+        } finally {
+            fanGdb.shutdown();
+        }
+    }
+
+    @Test
+    public void testShortestPathAlgorithms() {
+        final City a = new City("a", 0), b = new City("b", 10), c = new City("c", 1), d = new City("d", 1), e = new City("e", 1);
+        a.road(b, c);
+        b.road(d);
+        c.road(d);
+        d.road(e);
+        final ObjectGraphDatabaseService roads = new ObjectGraphDatabaseService(a);
+        final GraphAlgorithms algorithms = roads.algorithms();
+        assertEquals(5, algorithms.getSnapshot().getNodeCount());
+        assertEquals(5, algorithms.getSnapshot().getRelationshipCount());
+        final Node start = roads.createNode(a), end = roads.createNode(e);
+        final GraphAlgorithms.WeightedPath shortest = algorithms.shortestPath(start, end, Direction.OUTGOING);
+        assertEquals(3, shortest.length());
+        assertEquals(start, shortest.startNode());
+        assertEquals(end, shortest.lastRelationship().getEndNode());
+        assertEquals(3, algorithms.shortestPath(end, start, Direction.INCOMING).length());
+        assertNull(algorithms.shortestPath(end, start, Direction.OUTGOING));
+        final GraphAlgorithms.WeightedPath cheapest = algorithms.cheapestPath(start, end, Direction.OUTGOING, "toll");
+        assertEquals(3, cheapest.weight(), 0);
+        assertEquals(asList(a, c, d, e), nodeValues(cheapest.nodes().iterator()));
+        assertEquals(roads.createNode(c), IteratorUtil.first(cheapest.relationships()).getEndNode());
+    }
+
+    private static City roadNetwork() {
+        final City a = new City("a", 0), b = new City("b", 10), c = new City("c", 1), d = new City("d", 1);
+        a.road(b, c);
+        b.road(d);
+        c.road(d, a);
+        return a;
+    }
+
+    @Test
+    public void testRestoreFromSnapshotFile() throws Exception {
+        final File file = File.createTempFile("roads", ".snapshot");
+        try {
+            final City saved = roadNetwork();
+            final ObjectGraphDatabaseService roads = new ObjectGraphDatabaseService(saved);
+            final long dId = roads.index().forNodes(roads.indexName(City.class)).get("name", "d").getSingle().getId();
+            roads.save(file);
+            assertFalse(roads.isRestored());
+
+            final City a = roadNetwork();
+            final Map<String, String> config = stringMap(ObjectGraphConfig.SNAPSHOT_FILE, file.getPath(), ObjectGraphConfig.REVERSE_INDEX, "true");
+            final ObjectGraphDatabaseService restored = new ObjectGraphDatabaseService(a, config);
+            assertTrue(restored.isRestored());
+            final Node d = restored.index().forNodes(restored.indexName(City.class)).get("name", "d").getSingle();
+            assertEquals(dId, d.getId());
+            final City road = a.roads.iterator().next().roads.iterator().next();
+            assertSame(road, ((ObjectNode) d).getValue());
+            assertEquals(dId, restored.createNode(road).getId());
+            assertEquals(2, IteratorUtil.count(d.getRelationships(Direction.INCOMING)));
+            assertEquals(4, restored.snapshot().getNodeCount());
+
+            assertFalse(new ObjectGraphDatabaseService(roadNetwork(), stringMap(ObjectGraphConfig.SNAPSHOT_FILE, file.getPath(), ObjectGraphConfig.CHANGE_TRACKING, "true")).isRestored());
+            assertFalse(new ObjectGraphDatabaseService(user, config).isRestored());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testRestoreLargeHashSet() throws Exception {
+        final File file = File.createTempFile("hub", ".snapshot");
+        try {
+            final Tag hub = new Tag("hub");
+            for (int i = 0; i < 20000; i++) {
+                new Tweet("tweet" + i, null).tagged(hub);
+            }
+            final ObjectGraphDatabaseService saved = new ObjectGraphDatabaseService(hub);
+            final Tweet sample = hub.tagged.iterator().next();
+            final long sampleId = saved.createNode(sample).getId();
+            saved.save(file);
+
+            // a larger table iterates the tweets in another order, they are bound by fingerprint then
+            final Set<Tweet> rehashed = new HashSet<Tweet>(100000);
+            rehashed.addAll(hub.tagged);
+            hub.tagged = rehashed;
+            final ObjectGraphDatabaseService restored = new ObjectGraphDatabaseService(hub, stringMap(ObjectGraphConfig.SNAPSHOT_FILE, file.getPath()));
+            assertTrue(restored.isRestored());
+            assertEquals(20000, IteratorUtil.count(restored.getReferenceNode().getRelationships(Direction.OUTGOING)));
+            assertEquals(sampleId, restored.createNode(sample).getId());
+            assertSame(sample, restored.getNodeById(sampleId).getValue());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRestoreFailsForChangedGraph() throws Exception {
+        final File file = File.createTempFile("tweets", ".snapshot");
+        try {
+            gdb.save(file);
+            createGraph();
+            final ObjectGraphDatabaseService restored = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.SNAPSHOT_FILE, file.getPath()));
+            assertTrue(restored.isRestored());
+            // the tweets were recreated with new ids
+            restored.getNodeById(1).getProperty("text");
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testGraphAlgorithmsWriteVirtualProperties() {
+        final GraphAlgorithms algorithms = gdb.algorithms(DynamicRelationshipType.withName("tweeted"));
+        final ObjectNode userNode = gdb.createNode(user);
+        final int[] components = algorithms.connectedComponents("component");
+        assertEquals(components[(int) userNode.getId()], components[(int) gdb.createNode(tweet4).getId()]);
+        assertFalse(components[(int) userNode.getId()] == components[(int) gdb.createNode(neo4j).getId()]);
+        assertEquals(components[(int) userNode.getId()], gdb.createNode(tweet1).getProperty("component"));
+        double sum = 0;
+        for (double rank : algorithms.pageRank("rank", 0.85, 20)) {
+            sum += rank;
+        }
+        assertEquals(1, sum, 0.0001);
+        assertTrue((Double) userNode.getProperty("rank") > (Double) gdb.createNode(tweet1).getProperty("rank"));
+        assertEquals(4, algorithms.degreeCentrality("degree", Direction.OUTGOING)[(int) userNode.getId()]);
+        assertEquals(4, userNode.getProperty("degree"));
+        assertTrue(IteratorUtil.asCollection(userNode.getPropertyKeys()).contains("degree"));
+        gdb.removeVirtualProperty("degree");
+        assertFalse(userNode.hasProperty("degree"));
+    }
+
     @Test
     public void testSimpleCypherQuery() {
         final String query = "start n=node({user}) return n";
@@ -273,4 +903,513 @@ public class ObjectGraphWrapperTest {
         assertNotNull(hit);
         assertEquals(user,((ObjectNode)hit).getValue());
     }
+
+    @Test
+    public void testIndexRemove() {
+        final Index<Node> tagIndex = gdb.index().forNodes(gdb.indexName(Tag.class));
+        final ObjectNode graphdbNode = gdb.createNode(graphdb);
+        tagIndex.remove(graphdbNode, "name", "graphdb");
+        assertNull(tagIndex.get("name", "graphdb").getSingle());
+        assertEquals(neo4j, ((ObjectNode) tagIndex.get("name", "neo").getSingle()).getValue());
+        tagIndex.add(graphdbNode, "name", "graphdb");
+        tagIndex.remove(graphdbNode);
+        assertEquals(0, tagIndex.get("name", "graphdb").size());
+    }
+
+    @Test
+    public void testConcurrentIndexAdds() throws Exception {
+        final Index<Node> index = gdb.index().forNodes("concurrent");
+        final List<Node> nodes = IteratorUtil.addToCollection(gdb.getAllNodes(), new ArrayList<Node>());
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            futures.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < 1000; round++) {
+                        final Node node = nodes.get((nodes.size() - 1) - (round + offset) % nodes.size());
+                        index.add(node, "all", true);
+                        index.add(node, "round", round % 10);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        final Set<Node> hits = new HashSet<Node>(IteratorUtil.addToCollection((Iterator<Node>) index.get("all", true), new ArrayList<Node>()));
+        assertEquals(new HashSet<Node>(nodes), hits);
+        assertEquals(nodes.size(), index.get("all", true).size());
+    }
+
+    @Test
+    public void testRangeQuery() {
+        tweet1.date = 10;
+        tweet2.date = 20;
+        tweet3.date = 30;
+        tweet4.date = 40;
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(user);
+        final Index<Node> tweetIndex = gdb.index().forNodes(gdb.indexName(Tweet.class));
+        assertEquals(asList(tweet2, tweet3), nodeValues(tweetIndex.query("date", "[20 TO 30]")));
+        assertEquals(asList(tweet3), nodeValues(tweetIndex.query("date", "{20 TO 40}")));
+        assertEquals(asList(tweet1, tweet2), nodeValues(tweetIndex.query("date:[* TO 25]")));
+        assertEquals(asList(tweet3, tweet4), nodeValues(tweetIndex.query("date:[25 TO *]")));
+        assertEquals(asList(tweet4), nodeValues(tweetIndex.query("date", "40")));
+        assertEquals(2, tweetIndex.query("date", "[15.5 TO 35]").size());
+    }
+
+    @Test
+    public void testOffHeapIndex() {
+        tweet1.date = 10;
+        tweet2.date = 20;
+        tweet3.date = 30;
+        tweet4.date = 40;
+        final ObjectGraphDatabaseService offHeap = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.OFF_HEAP_INDEX, "true"));
+        final Index<Node> tweetIndex = offHeap.index().forNodes(offHeap.indexName(Tweet.class));
+        assertTrue(tweetIndex instanceof OffHeapNodeIndex);
+        assertTrue(((OffHeapNodeIndex) tweetIndex).sizeInBytes() > 0);
+        assertEquals(tweet3, ((ObjectNode) tweetIndex.get("text", "tweet3").getSingle()).getValue());
+        assertEquals(4, tweetIndex.get("tweeted", user).size());
+        assertEquals(0, tweetIndex.get("tweeted", new User("mesirii")).size());
+        assertEquals(asList(tweet2, tweet3), nodeValues(tweetIndex.query("date", "[20 TO 30]")));
+        assertEquals(asList(tweet1, tweet2), nodeValues(tweetIndex.query("date:[* TO 25]")));
+        assertEquals(4, tweetIndex.query("text", "tweet*").size());
+        final ObjectNode node = offHeap.createNode(tweet3);
+        tweetIndex.remove(node, "text", "tweet3");
+        assertNull(tweetIndex.get("text", "tweet3").getSingle());
+        tweetIndex.add(node, "text", "tweet3");
+        assertEquals(node, tweetIndex.get("text", "tweet3").getSingle());
+        final long[] scores = {1, 2};
+        tweetIndex.add(node, "scores", scores);
+        assertEquals(node, tweetIndex.get("scores", scores).getSingle());
+        assertFalse(offHeap.index().forNodes("heap", stringMap(OffHeapNodeIndex.STORAGE, "heap")) instanceof OffHeapNodeIndex);
+        assertTrue(gdb.index().forNodes("offHeap", OffHeapNodeIndex.CONFIG) instanceof OffHeapNodeIndex);
+    }
+
+    @Test
+    public void testOffHeapIndexOfLargeGraphMatchesHeapIndex() {
+        final Tag[] tags = new Tag[50];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = new Tag("tag" + i);
+        }
+        for (int i = 0; i < 5000; i++) {
+            user.tweet("tweet" + (i % 1000), tags[i % tags.length], tags[(i * 7) % tags.length]);
+        }
+        final ObjectGraphDatabaseService heap = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.DISCOVERY_THREADS, "4"));
+        final ObjectGraphDatabaseService offHeap = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.DISCOVERY_THREADS, "4", ObjectGraphConfig.OFF_HEAP_INDEX, "true"));
+        final Index<Node> heapIndex = heap.index().forNodes(heap.indexName(Tweet.class));
+        final Index<Node> offHeapIndex = offHeap.index().forNodes(offHeap.indexName(Tweet.class));
+        assertEquals(5004, offHeapIndex.get("tweeted", user).size());
+        for (int i = 0; i < 1000; i += 37) {
+            assertEquals(nodeValues(heapIndex.get("text", "tweet" + i)), nodeValues(offHeapIndex.get("text", "tweet" + i)));
+        }
+        assertEquals(heapIndex.query("text", "tweet99*").size(), offHeapIndex.query("text", "tweet99*").size());
+        final ObjectNode node = offHeap.createNode(tweet1);
+        offHeapIndex.remove(node);
+        assertEquals(5003, offHeapIndex.get("tweeted", user).size());
+    }
+
+    @Test
+    public void testRangeQuerySeesLaterAdds() {
+        final Index<Node> tagIndex = gdb.index().forNodes(gdb.indexName(Tag.class));
+        assertEquals(asList(graphdb, neo4j), nodeValues(tagIndex.query("name", "[a TO z]")));
+        final Tag nosql = new Tag("nosql");
+        tagIndex.add(gdb.createNode(nosql), "name", nosql.name);
+        assertEquals(asList(neo4j, nosql), nodeValues(tagIndex.query("name", "n*")));
+    }
+
+    @Test
+    public void testWildcardQuery() {
+        final Index<Node> tagIndex = gdb.index().forNodes(gdb.indexName(Tag.class));
+        assertEquals(asList(graphdb), nodeValues(tagIndex.query("name:gr*")));
+        assertEquals(asList(graphdb), nodeValues(tagIndex.query("name", "g?aph*")));
+        assertEquals(asList(neo4j), nodeValues(tagIndex.query("name", "ne?")));
+        assertEquals(0, tagIndex.query("name", "x*").size());
+        assertEquals(asList(neo4j), nodeValues(tagIndex.query("name", "neo")));
+    }
+
+    @Test
+    public void testFulltextQuery() {
+        final User author = new User("author");
+        final Tweet graphs = author.tweet("Graph databases store graphs, graph queries are fast");
+        final Tweet db = author.tweet("A graph database is a database");
+        final Tweet other = author.tweet("Relational databases and tables");
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(author, stringMap(ObjectGraphConfig.FULLTEXT, "Tweet.text", ObjectGraphConfig.DISCOVERY_THREADS, "2"));
+        final Index<Node> index = gdb.index().forNodes(gdb.fulltextIndexName(Tweet.class));
+        assertEquals(FulltextNodeIndex.FULLTEXT, gdb.index().getConfiguration(index).get(FulltextNodeIndex.TYPE));
+        assertEquals(asList(graphs, db), nodeValues(index.query("text", "graph")));
+        assertEquals(asList(db), nodeValues(index.query("text", "\"graph database\"")));
+        assertEquals(asList(other), nodeValues(index.query("text:databases AND tables")));
+        assertEquals(new HashSet<Object>(asList(graphs, other)), new HashSet<Object>(nodeValues(index.query("text", "databases -database"))));
+        assertEquals(asList(graphs), nodeValues(index.query("text", "+graph NOT database")));
+        final IndexHits<Node> hits = index.query("text", "graph");
+        hits.next();
+        final float first = hits.currentScore();
+        hits.next();
+        assertTrue(first > hits.currentScore());
+        assertTrue(hits.currentScore() > 0);
+    }
+
+    @Test
+    public void testManualFulltextIndex() {
+        final Index<Node> index = gdb.index().forNodes("tweets", FulltextNodeIndex.CONFIG);
+        index.add(gdb.createNode(tweet1), "text", "Neo4j is a Graph Database");
+        index.add(gdb.createNode(tweet2), "text", "graphs everywhere");
+        assertEquals(asList(tweet1), nodeValues(index.query("text", "graph")));
+        index.remove(gdb.createNode(tweet1), "text", "Neo4j is a Graph Database");
+        assertEquals(0, index.query("text", "graph").size());
+        assertEquals(asList(tweet2), nodeValues(index.get("text", "Graphs Everywhere")));
+    }
+
+    @Test
+    public void testFulltextPhrasesUseStoredPositions() {
+        final Index<Node> index = gdb.index().forNodes("tweets", FulltextNodeIndex.CONFIG);
+        final ObjectNode node = gdb.createNode(tweet1);
+        index.add(node, "text", "graph database");
+        index.add(node, "text", "fast graph");
+        index.add(gdb.createNode(tweet2), "text", "red apple pie");
+        assertEquals(asList(tweet1), nodeValues(index.query("text", "\"graph database\"")));
+        assertEquals(0, index.query("text", "\"database fast\"").size());
+        assertEquals(asList(tweet2), nodeValues(index.query("text", "\"apple pie\"")));
+        assertEquals(0, index.query("text", "\"red pie\"").size());
+        index.remove(node, "text", "graph database");
+        assertEquals(asList(tweet1), nodeValues(index.query("text", "graph")));
+        assertEquals(0, index.query("text", "database").size());
+        assertEquals(asList(tweet1), nodeValues(index.query("text", "\"fast graph\"")));
+        tweet2.text = "changed directly";
+        assertEquals(asList(tweet2), nodeValues(index.query("text", "\"apple pie\"")));
+    }
+
+    @Test(timeout = 10000)
+    public void testFulltextIndexOfCommonTerms() {
+        final User author = new User("author");
+        for (int i = 0; i < 150000; i++) {
+            author.tweet("common text number " + i);
+        }
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(author, stringMap(ObjectGraphConfig.FULLTEXT, "Tweet.text"));
+        final Index<Node> index = gdb.index().forNodes(gdb.fulltextIndexName(Tweet.class));
+        assertEquals(150000, index.query("text", "\"common text\"").size());
+        final Tweet first = ((List<Tweet>) author.tweeted).get(0);
+        gdb.createNode(first).setProperty("text", "common words");
+        assertEquals(149999, index.query("text", "\"common text\"").size());
+        assertEquals(asList(first), nodeValues(index.query("text", "\"common words\"")));
+        assertEquals(150000, index.query("text", "common").size());
+    }
+
+    @Test
+    public void testSetPropertyUpdatesIndex() {
+        final Index<Node> tagIndex = gdb.index().forNodes(gdb.indexName(Tag.class));
+        gdb.createNode(graphdb).setProperty("name", "graph");
+        assertNull(tagIndex.get("name", "graphdb").getSingle());
+        assertEquals(graphdb, ((ObjectNode) tagIndex.get("name", "graph").getSingle()).getValue());
+        gdb.createNode(neo4j).removeProperty("name");
+        assertEquals(0, tagIndex.get("name", "neo").size());
+        assertEquals(0, tagIndex.get("name", null).size());
+        assertEquals(asList(graphdb), nodeValues(tagIndex.query("name", "[* TO *]")));
+    }
+
+    @Test
+    public void testNodeAutoIndexer() {
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.NODE_AUTO_INDEXING, "true", ObjectGraphConfig.NODE_KEYS_INDEXABLE, "name"));
+        final AutoIndexer<Node> autoIndexer = gdb.index().getNodeAutoIndexer();
+        assertTrue(autoIndexer.isEnabled());
+        final ReadableIndex<Node> autoIndex = autoIndexer.getAutoIndex();
+        assertFalse(autoIndex.isWriteable());
+        assertEquals(neo4j, ((ObjectNode) autoIndex.get("name", "neo").getSingle()).getValue());
+        gdb.createNode(neo4j).setProperty("name", "neo4j");
+        assertEquals(0, autoIndex.get("name", "neo").size());
+        assertEquals(neo4j, ((ObjectNode) autoIndex.get("name", "neo4j").getSingle()).getValue());
+        assertNull(autoIndex.get("twid", "mesirii").getSingle());
+        autoIndexer.startAutoIndexingProperty("twid");
+        assertEquals(user, ((ObjectNode) autoIndex.get("twid", "mesirii").getSingle()).getValue());
+        autoIndexer.stopAutoIndexingProperty("twid");
+        assertEquals(0, autoIndex.get("twid", "mesirii").size());
+        autoIndexer.setEnabled(false);
+        assertEquals(0, autoIndex.get("name", "neo4j").size());
+        gdb.createNode(neo4j).setProperty("name", "neo");
+        autoIndexer.setEnabled(true);
+        assertEquals(0, autoIndex.get("name", "neo4j").size());
+        assertEquals(neo4j, ((ObjectNode) autoIndex.get("name", "neo").getSingle()).getValue());
+    }
+
+    @Test
+    public void testRelationshipIndex() {
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.RELATIONSHIP_INDEX, "true"));
+        assertTrue(gdb.index().existsForRelationships(ObjectRelationshipIndex.NAME));
+        final RelationshipIndex index = gdb.index().forRelationships(ObjectRelationshipIndex.NAME);
+        assertEquals(10, index.get("type", "tagged").size());
+        final ObjectNode graphdbNode = gdb.createNode(graphdb);
+        final ObjectNode tweetNode = gdb.createNode(tweet2);
+        final Set<Object> tweets = new HashSet<Object>();
+        for (Relationship relationship : index.get("type", "tagged", graphdbNode, null)) {
+            assertEquals(graphdbNode, relationship.getStartNode());
+            tweets.add(((ObjectNode) relationship.getEndNode()).getValue());
+        }
+        assertEquals(new HashSet<Object>(asList(tweet2, tweet3, tweet4)), tweets);
+        assertEquals(2, IteratorUtil.count((Iterator<Relationship>) index.get("type", "tagged", null, tweetNode)));
+        final Relationship tagged = index.get("type", "tagged", graphdbNode, tweetNode).getSingle();
+        assertEquals(gdb.getRelationshipById(tagged.getId()), tagged);
+        assertNotNull(index.get("type", "tweeted", gdb.createNode(user), tweetNode).getSingle());
+        assertNull(index.get("type", "tweeted", graphdbNode, tweetNode).getSingle());
+        assertEquals(4, index.query("type", "tw*").size());
+        assertEquals(14, index.query("type:*").size());
+    }
+
+    @Test(timeout = 10000)
+    public void testRelationshipIndexOfHub() {
+        final City hub = new City("hub", 0);
+        for (int i = 0; i < 300000; i++) {
+            hub.roads.add(new City("city" + i, i));
+        }
+        final City parallel = hub.roads.iterator().next();
+        hub.roads.add(parallel);
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(hub, stringMap(ObjectGraphConfig.RELATIONSHIP_INDEX, "true", ObjectGraphConfig.CHANGE_TRACKING, "true"));
+        final RelationshipIndex index = gdb.index().forRelationships(ObjectRelationshipIndex.NAME);
+        final ObjectNode hubNode = gdb.getReferenceNode();
+        assertEquals(300001, index.get("type", "roads", hubNode, null).size());
+        assertEquals(2, index.get("type", "roads", hubNode, gdb.createNode(parallel)).size());
+        hub.roads.remove(parallel);
+        gdb.refresh(hub);
+        assertEquals(300000, index.get("type", "roads", hubNode, null).size());
+        assertEquals(1, index.get("type", "roads", null, gdb.createNode(parallel)).size());
+    }
+
+    @Test
+    public void testManualRelationshipIndex() {
+        assertFalse(gdb.index().existsForRelationships("favorites"));
+        final RelationshipIndex index = gdb.index().forRelationships("favorites");
+        assertArrayEquals(new String[]{"favorites"}, gdb.index().relationshipIndexNames());
+        final Relationship tweeted = gdb.createNode(user).getRelationships(DynamicRelationshipType.withName("tweeted"), Direction.OUTGOING).iterator().next();
+        index.add(tweeted, "stars", 5);
+        assertEquals(tweeted, index.get("stars", 5).getSingle());
+        assertEquals(tweeted, index.query("stars", "[3 TO 5]").getSingle());
+        index.remove(tweeted, "stars");
+        assertNull(index.get("stars", 5).getSingle());
+    }
+
+    @Test
+    public void testCreateRelationshipUpdatesRelationshipIndex() {
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.RELATIONSHIP_INDEX, "true"));
+        final RelationshipIndex index = gdb.index().forRelationships(ObjectRelationshipIndex.NAME);
+        final ObjectNode tweetNode = gdb.createNode(tweet3);
+        gdb.createNode(neo4j).createRelationshipTo(tweetNode, DynamicRelationshipType.withName("tagged"));
+        assertNotNull(index.get("type", "tagged", gdb.createNode(neo4j), tweetNode).getSingle());
+        assertEquals(11, index.get("type", "tagged").size());
+    }
+
+    @Test
+    public void testRefreshUpdatesRelationshipIndex() {
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.RELATIONSHIP_INDEX, "true", ObjectGraphConfig.CHANGE_TRACKING, "true"));
+        final RelationshipIndex index = gdb.index().forRelationships(ObjectRelationshipIndex.NAME);
+        user.tweeted.remove(tweet1);
+        gdb.refresh(user);
+        assertNull(index.get("type", "tweeted", null, gdb.createNode(tweet1)).getSingle());
+        assertEquals(3, index.get("type", "tweeted", gdb.createNode(user), null).size());
+    }
+
+    @Test
+    public void testCypherRelationshipIndexQuery() {
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.RELATIONSHIP_INDEX, "true"));
+        final ExecutionResult result = new ExecutionEngine(gdb).execute("start r=relationship:relationships(type=\"tweeted\") return r");
+        assertEquals(4, IteratorUtil.count(result.<Relationship>columnAs("r")));
+    }
+
+    @Test
+    public void testRefreshDirectChanges() {
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.CHANGE_TRACKING, "true", ObjectGraphConfig.REVERSE_INDEX, "true"));
+        final Index<Node> tagIndex = gdb.index().forNodes(gdb.indexName(Tag.class));
+        neo4j.name = "neo4j";
+        final Tweet tweet5 = new Tweet("tweet5", user);
+        user.tweeted.add(tweet5);
+        user.tweeted.remove(tweet1);
+        assertEquals(0, gdb.refresh(tweet2, tweet3));
+        assertEquals(2, gdb.refresh(neo4j, user));
+        assertEquals(0, tagIndex.get("name", "neo").size());
+        assertEquals(neo4j, ((ObjectNode) tagIndex.get("name", "neo4j").getSingle()).getValue());
+        assertEquals(tweet5, ((ObjectNode) gdb.index().forNodes(gdb.indexName(Tweet.class)).get("text", "tweet5").getSingle()).getValue());
+        assertNull(gdb.createNode(tweet1).getSingleRelationship(DynamicRelationshipType.withName("tweeted"), Direction.INCOMING));
+        assertEquals(gdb.createNode(user), gdb.createNode(tweet5).getSingleRelationship(DynamicRelationshipType.withName("tweeted"), Direction.INCOMING).getStartNode());
+        assertEquals(0, gdb.refreshAll());
+    }
+
+    @Test
+    public void testRefreshDetectsChangesInsideArrays() {
+        final Board board = new Board();
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(board, stringMap(ObjectGraphConfig.CHANGE_TRACKING, "true"));
+        final Index<Node> boardIndex = gdb.index().forNodes(gdb.indexName(Board.class));
+        final ObjectNode node = gdb.getReferenceNode();
+        assertEquals(node, boardIndex.get("scores", board.scores).getSingle());
+        board.scores[1] = 5;
+        board.labels[0] = "c";
+        assertEquals(1, gdb.refresh(board));
+        assertEquals(0, gdb.refresh(board));
+        assertEquals(node, boardIndex.get("scores", board.scores).getSingle());
+        assertEquals(node, boardIndex.get("labels", board.labels).getSingle());
+        node.setProperty("name", "pinboard");
+        assertEquals(0, boardIndex.get("name", "board").size());
+        board.name = "corkboard";
+        assertEquals(1, gdb.refresh(board));
+        assertEquals(0, boardIndex.get("name", "pinboard").size());
+        assertEquals(node, boardIndex.get("name", "corkboard").getSingle());
+    }
+
+    @Test(timeout = 5000)
+    public void testRefreshRemovesChangedValuesWithoutScanningTheIndex() {
+        final User author = new User("author");
+        for (int i = 0; i < 20000; i++) {
+            author.tweet("tweet" + i);
+        }
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(author, stringMap(ObjectGraphConfig.CHANGE_TRACKING, "true"));
+        final Index<Node> tweetIndex = gdb.index().forNodes(gdb.indexName(Tweet.class));
+        for (Tweet tweet : author.tweeted) {
+            tweet.text = "changed " + tweet.text;
+        }
+        assertEquals(20000, gdb.refreshAll());
+        assertEquals(0, tweetIndex.get("text", "tweet7").size());
+        assertEquals(1, tweetIndex.get("text", "changed tweet7").size());
+        assertEquals(0, tweetIndex.query("text", "tweet*").size());
+    }
+
+    @Test
+    public void testBackgroundChangeScanner() throws Exception {
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(user, stringMap(ObjectGraphConfig.CHANGE_SCAN_INTERVAL, "10"));
+        final Index<Node> tagIndex = gdb.index().forNodes(gdb.indexName(Tag.class));
+        graphdb.name = "graph";
+        final long timeout = System.currentTimeMillis() + 5000;
+        while (tagIndex.get("name", "graph").size() == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        gdb.shutdown();
+        assertEquals(graphdb, ((ObjectNode) tagIndex.get("name", "graph").getSingle()).getValue());
+        assertEquals(0, tagIndex.get("name", "graphdb").size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRefreshNeedsChangeTracking() {
+        gdb.refresh(user);
+    }
+
+    @Test
+    public void testTransactionIsVisibleToOtherThreadsAfterCommit() throws Exception {
+        final Index<Node> tweetIndex = gdb.index().forNodes(gdb.indexName(Tweet.class));
+        final ObjectNode tweetNode = gdb.createNode(tweet3);
+        final RelationshipType tagged = DynamicRelationshipType.withName("tagged");
+        final Transaction tx = gdb.beginTx();
+        tweetNode.setProperty("text", "changed");
+        gdb.createNode(neo4j).createRelationshipTo(tweetNode, tagged);
+        assertEquals("changed", tweetNode.getProperty("text"));
+        assertEquals(3, IteratorUtil.count(gdb.createNode(neo4j).getRelationships(Direction.OUTGOING, tagged)));
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Callable<Object> text = new Callable<Object>() {
+            @Override
+            public Object call() {
+                return tweetNode.getProperty("text");
+            }
+        };
+        assertEquals("tweet3", executor.submit(text).get());
+        assertEquals("tweet3", tweet3.text);
+        assertEquals(2, neo4j.tagged.size());
+        assertEquals(tweet3, ((ObjectNode) tweetIndex.get("text", "tweet3").getSingle()).getValue());
+        tx.success();
+        tx.finish();
+        assertEquals("changed", executor.submit(text).get());
+        executor.shutdown();
+        assertEquals(3, neo4j.tagged.size());
+        assertEquals(0, tweetIndex.get("text", "tweet3").size());
+        assertEquals(tweet3, ((ObjectNode) tweetIndex.get("text", "changed").getSingle()).getValue());
+    }
+
+    @Test
+    public void testTransactionRollback() {
+        final ObjectNode tweetNode = gdb.createNode(tweet1);
+        Transaction tx = gdb.beginTx();
+        tweetNode.setProperty("text", "changed");
+        tx.finish();
+        assertEquals("tweet1", tweetNode.getProperty("text"));
+        tx = gdb.beginTx();
+        tweetNode.removeProperty("text");
+        assertFalse(tweetNode.hasProperty("text"));
+        final Transaction nested = gdb.beginTx();
+        nested.failure();
+        nested.finish();
+        tx.success();
+        tx.finish();
+        assertEquals("tweet1", tweet1.text);
+    }
+
+    @Test
+    public void testFailedCommitUndoesAppliedChanges() {
+        final Index<Node> tweetIndex = gdb.index().forNodes(gdb.indexName(Tweet.class));
+        final ObjectNode tweetNode = gdb.createNode(tweet1);
+        final Transaction tx = gdb.beginTx();
+        tweetNode.setProperty("text", "changed");
+        gdb.createNode(graphdb).createRelationshipTo(tweetNode, DynamicRelationshipType.withName("tagged"));
+        tweetNode.setProperty("date", "yesterday");
+        tx.success();
+        try {
+            tx.finish();
+            fail("Commit should fail");
+        } catch (TransactionFailureException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertEquals("tweet1", tweet1.text);
+        assertFalse(graphdb.tagged.contains(tweet1));
+        assertEquals(tweet1, ((ObjectNode) tweetIndex.get("text", "tweet1").getSingle()).getValue());
+        assertEquals(0, tweetIndex.get("text", "changed").size());
+        assertNull(gdb.currentTransaction());
+    }
+
+    @Test
+    public void testReadersNeverSeePartialCommits() throws Exception {
+        final City city = new City("toll0", 0);
+        final ObjectGraphDatabaseService gdb = new ObjectGraphDatabaseService(city);
+        final ObjectNode node = gdb.getReferenceNode();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Future<?> writer = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 20000; i++) {
+                    final Transaction tx = gdb.beginTx();
+                    node.setProperty("name", "toll" + i);
+                    node.setProperty("toll", (double) i);
+                    tx.success();
+                    tx.finish();
+                }
+            }
+        });
+        int reads = 0;
+        while (!writer.isDone() || reads == 0) {
+            final Iterator<Object> values = node.getPropertyValues().iterator();
+            final Object name = values.next();
+            assertEquals("toll" + (int) ((Double) values.next()).doubleValue(), name);
+            reads++;
+        }
+        writer.get();
+        executor.shutdown();
+        assertEquals(asList((Object) "toll20000", 20000d), IteratorUtil.addToCollection(node.getPropertyValues(), new ArrayList<Object>()));
+    }
+
+    @Test
+    public void testCreatedRelationshipsHaveProvisionalIds() {
+        final ObjectNode userNode = gdb.createNode(user);
+        final RelationshipType tweeted = DynamicRelationshipType.withName("tweeted");
+        final ObjectNode tweet5 = gdb.createNode(new Tweet("tweet5", user));
+        final ObjectNode tweet6 = gdb.createNode(new Tweet("tweet6", user));
+        final Transaction tx = gdb.beginTx();
+        final Relationship first = userNode.createRelationshipTo(tweet5, tweeted);
+        final Relationship second = userNode.createRelationshipTo(tweet6, tweeted);
+        assertEquals(first.getId() + 1, second.getId());
+        assertEquals(first, gdb.getRelationshipById(first.getId()));
+        assertEquals(tweet6, gdb.getRelationshipById(second.getId()).getEndNode());
+        tx.success();
+        tx.finish();
+        assertEquals(tweet5, gdb.getRelationshipById(first.getId()).getEndNode());
+        assertEquals(tweet6, gdb.getRelationshipById(second.getId()).getEndNode());
+    }
+
+    private List<Object> nodeValues(Iterator<Node> nodes) {
+        return IteratorUtil.addToCollection(gdb.getNodeValues(nodes), new ArrayList<Object>());
+    }
 }